@@ -20,7 +20,7 @@ import java.awt.geom.AffineTransform;
 import java.awt.image.ColorModel;
 import java.awt.image.RenderedImage;
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.InputStream;
 
 class BatchImageComponent extends JComponent {
 
@@ -69,11 +69,11 @@ class BatchImageComponent extends JComponent {
             try {
                 String key = ImageTask.getImageKey(file);
                 FileCache cache = FileCacheFactory.get(file.getParentFile());
-                File cachedFile = cache.getFileFor(key);
-
-                if (cachedFile != null)
-                    image = JPEGImageType.getImageFromInputStream(new FileInputStream(cachedFile), null,
-                                                                  ImageTask.CacheImageSize, ImageTask.CacheImageSize);
+                try (InputStream cachedStream = cache.getStreamFor(key)) {
+                    if (cachedStream != null)
+                        image = JPEGImageType.getImageFromInputStream(cachedStream, null,
+                                                                      ImageTask.CacheImageSize, ImageTask.CacheImageSize);
+                }
             }
             catch (Throwable t) {
                 // BadImageFileException
@@ -7,6 +7,7 @@ import com.lightcrafts.jai.operator.*;
 import com.lightcrafts.jai.opimage.*;
 import com.lightcrafts.jai.utils.LCTileCache;
 import com.lightcrafts.jai.utils.LCRecyclingTileFactory;
+import com.lightcrafts.jai.utils.LCMemoryGovernor;
 import com.lightcrafts.image.color.ColorScience;
 import com.lightcrafts.image.color.ColorProfileInfo;
 import com.lightcrafts.jai.utils.LCTileScheduler;
@@ -17,7 +18,6 @@ import org.eclipse.imagen.OperationDescriptor;
 import org.eclipse.imagen.OperationRegistry;
 import org.eclipse.imagen.RasterFactory;
 import org.eclipse.imagen.TileCache;
-import org.eclipse.imagen.TileFactory;
 import org.eclipse.imagen.registry.CRIFRegistry;
 import org.eclipse.imagen.registry.RIFRegistry;
 import org.slf4j.Logger;
@@ -194,15 +194,18 @@ public class JAIContext {
                 ? maxMemory / 2
                 : maxMemory - 1024 * MB;
         logger.info("Tile Cache:   {} MB", tileCacheMemory / MB);
-        fileCache = new LCTileCache(tileCacheMemory, true);
+        final var lcTileCache = new LCTileCache(tileCacheMemory, true);
+        fileCache = lcTileCache;
         // fileCache.setMemoryThreshold(0.5f);
         jaiInstance.setTileCache(fileCache);
         fileCacheHint = new RenderingHints(ImageN.KEY_TILE_CACHE, fileCache);
         defaultTileCache = jaiInstance.getTileCache();
 
-        TileFactory rtf = new LCRecyclingTileFactory();
+        final var rtf = new LCRecyclingTileFactory();
         jaiInstance.setRenderingHint(ImageN.KEY_TILE_FACTORY, rtf);
         jaiInstance.setRenderingHint(ImageN.KEY_TILE_RECYCLER, rtf);
+        lcTileCache.setTileFactory(rtf);
+        tileScheduler.setMemoryGovernor(new LCMemoryGovernor(lcTileCache, rtf));
         // TODO: causes rendering artifacts
         // jaiInstance.setRenderingHint(ImageN.KEY_CACHED_TILE_RECYCLING_ENABLED, Boolean.TRUE);
 
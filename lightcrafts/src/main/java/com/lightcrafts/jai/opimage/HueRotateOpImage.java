@@ -7,16 +7,8 @@ import com.lightcrafts.image.color.HSB;
 import com.lightcrafts.jai.JAIContext;
 import com.lightcrafts.utils.LCMatrix;
 
-import org.eclipse.imagen.ImageLayout;
-import org.eclipse.imagen.PointOpImage;
-import org.eclipse.imagen.RasterAccessor;
-import org.eclipse.imagen.RasterFormatTag;
-import java.awt.*;
 import java.awt.color.ICC_ProfileRGB;
-import java.awt.image.DataBuffer;
-import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
-import java.awt.image.WritableRaster;
 import java.util.Map;
 
 /**
@@ -25,81 +17,43 @@ import java.util.Map;
  * Date: Mar 20, 2007
  * Time: 4:32:46 PM
  */
-public class HueRotateOpImage extends PointOpImage {
-    private float angle;
-    private float[][] toSRGB;
-    private float[][] toLinearRGB;
-
+public class HueRotateOpImage extends PointChainOpImage {
     public HueRotateOpImage(RenderedImage source, float angle, Map config) {
-        super(source, new ImageLayout(source), config, true);
-        permitInPlaceOperation();
-        this.angle = angle;
-
-        ICC_ProfileRGB sRGB = (ICC_ProfileRGB) JAIContext.sRGBColorProfile;
-        toSRGB = LCMatrix.getArrayFloat(
-                new LCMatrix(sRGB.getMatrix())
-                        .invert()
-                        .mult(new LCMatrix(((ICC_ProfileRGB) JAIContext.linearProfile).getMatrix()))
-        );
-        toLinearRGB = LCMatrix.getArrayFloat(
-                new LCMatrix(sRGB.getMatrix())
-                        .invert()
-                        .mult(new LCMatrix(((ICC_ProfileRGB) JAIContext.linearProfile).getMatrix()))
-                        .invert()
-        );
+        super(source, config, new HueRotate(angle));
     }
 
-    @Override
-    protected void computeRect(Raster[] sources,
-                               WritableRaster dest,
-                               Rectangle destRect) {
-        // Retrieve format tags.
-        RasterFormatTag[] formatTags = getFormatTags();
-
-        RasterAccessor src = new RasterAccessor(sources[0], destRect, formatTags[0],
-                getSourceImage(0).getColorModel());
-        RasterAccessor dst = new RasterAccessor(dest, destRect, formatTags[1], getColorModel());
-
-        switch (dst.getDataType()) {
-            case DataBuffer.TYPE_USHORT:
-                ushortLoop(src, dst);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unsupported data type: " + dst.getDataType());
+    /** The hue rotation, as a stage of a {@link PointChainOpImage}. */
+    public static final class HueRotate implements Stage {
+        private final float angle;
+        private final float[][] toSRGB;
+        private final float[][] toLinearRGB;
+
+        public HueRotate(float angle) {
+            this.angle = angle;
+
+            ICC_ProfileRGB sRGB = (ICC_ProfileRGB) JAIContext.sRGBColorProfile;
+            toSRGB = LCMatrix.getArrayFloat(
+                    new LCMatrix(sRGB.getMatrix())
+                            .invert()
+                            .mult(new LCMatrix(((ICC_ProfileRGB) JAIContext.linearProfile).getMatrix()))
+            );
+            toLinearRGB = LCMatrix.getArrayFloat(
+                    new LCMatrix(sRGB.getMatrix())
+                            .invert()
+                            .mult(new LCMatrix(((ICC_ProfileRGB) JAIContext.linearProfile).getMatrix()))
+                            .invert()
+            );
         }
-    }
-
-    protected void ushortLoop(RasterAccessor src, RasterAccessor dst) {
-        int width = src.getWidth();
-        int height = src.getHeight();
-
-        short[] dstData = dst.getShortDataArray(0);
-        int[] dstBandOffsets = dst.getBandOffsets();
-        int dstLineStride = dst.getScanlineStride();
-        int dstPixelStride = dst.getPixelStride();
-
-        short[] srcData = src.getShortDataArray(0);
-        int[] srcBandOffsets = src.getBandOffsets();
-        int srcLineStride = src.getScanlineStride();
-        int srcPixelStride = src.getPixelStride();
-
-        int srcROffset = srcBandOffsets[0];
-        int srcGOffset = srcBandOffsets[1];
-        int srcBOffset = srcBandOffsets[2];
-
-        int dstROffset = dstBandOffsets[0];
-        int dstGOffset = dstBandOffsets[1];
-        int dstBOffset = dstBandOffsets[2];
 
-        float[] rgb = new float[3];
-        float[] hsi = new float[3];
+        @Override
+        public void apply(int[] pixels, int n) {
+            float[] rgb = new float[3];
+            float[] hsi = new float[3];
 
-        for (int row = 0; row < height; row++) {
-            for (int col = 0; col < width; col++) {
-                int srcPixOffset = srcPixelStride * col + row * srcLineStride;
-                int r = (0xffff & srcData[srcPixOffset + srcROffset]);
-                int g = (0xffff & srcData[srcPixOffset + srcGOffset]);
-                int b = (0xffff & srcData[srcPixOffset + srcBOffset]);
+            for (int i = 0; i < 3 * n; i += 3) {
+                int r = pixels[i];
+                int g = pixels[i + 1];
+                int b = pixels[i + 2];
 
                 rgb[0] = (toSRGB[0][0] * r + toSRGB[0][1] * g + toSRGB[0][2] * b) / (float) 0xffff;
                 rgb[1] = (toSRGB[1][0] * r + toSRGB[1][1] * g + toSRGB[1][2] * b) / (float) 0xffff;
@@ -120,10 +74,9 @@ public class HueRotateOpImage extends PointOpImage {
                 g = (int) (0xffff *(toLinearRGB[1][0] * rgb[0] + toLinearRGB[1][1] * rgb[1] + toLinearRGB[1][2] * rgb[2]));
                 b = (int) (0xffff *(toLinearRGB[2][0] * rgb[0] + toLinearRGB[2][1] * rgb[1] + toLinearRGB[2][2] * rgb[2]));
 
-                int dstPixOffset = dstPixelStride * col + row * dstLineStride;
-                dstData[dstPixOffset + dstROffset] = (short) (r < 0 ? 0 : r > 0xffff ? 0xffff : r);
-                dstData[dstPixOffset + dstGOffset] = (short) (g < 0 ? 0 : g > 0xffff ? 0xffff : g);
-                dstData[dstPixOffset + dstBOffset] = (short) (b < 0 ? 0 : b > 0xffff ? 0xffff : b);
+                pixels[i]     = r < 0 ? 0 : r > 0xffff ? 0xffff : r;
+                pixels[i + 1] = g < 0 ? 0 : g > 0xffff ? 0xffff : g;
+                pixels[i + 2] = b < 0 ? 0 : b > 0xffff ? 0xffff : b;
             }
         }
     }
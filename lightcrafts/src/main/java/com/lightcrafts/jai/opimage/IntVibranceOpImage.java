@@ -5,18 +5,10 @@ package com.lightcrafts.jai.opimage;
 import com.lightcrafts.jai.JAIContext;
 import com.lightcrafts.utils.LCMatrix;
 
-import org.eclipse.imagen.ImageLayout;
-import org.eclipse.imagen.PointOpImage;
-import org.eclipse.imagen.RasterAccessor;
-import org.eclipse.imagen.RasterFormatTag;
-import java.awt.*;
 import java.awt.color.ColorSpace;
 import java.awt.color.ICC_Profile;
 import java.awt.color.ICC_ProfileRGB;
-import java.awt.image.DataBuffer;
-import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
-import java.awt.image.WritableRaster;
 import java.util.Map;
 
 /**
@@ -25,11 +17,7 @@ import java.util.Map;
  * Date: Mar 20, 2007
  * Time: 4:32:46 PM
  */
-public class IntVibranceOpImage extends PointOpImage {
-    private final int[][] transform = new int[3][3];
-    private final int[][] toLinearsRGB = new int[3][3];
-    private final boolean saturationIncrease;
-
+public class IntVibranceOpImage extends PointChainOpImage {
     private static final int sMath_scale = 0x8000;
     private static final int sMath_PI = (int) (sMath_scale * Math.PI);
 
@@ -56,75 +44,40 @@ public class IntVibranceOpImage extends PointOpImage {
     }
 
     public IntVibranceOpImage(RenderedImage source, float[][] transform, Map config) {
-        super(source, new ImageLayout(source), config, true);
-        permitInPlaceOperation();
-
-        for (int i = 0; i < 3; i++)
-            for (int j = 0; j < 3; j++)
-                this.transform[i][j] = (int) (sMath_scale * transform[i][j]);
-
-        saturationIncrease = transform[0][0] > 1;
-
-        ICC_ProfileRGB linRGB = (ICC_ProfileRGB) ICC_Profile.getInstance(ColorSpace.CS_LINEAR_RGB);
-        final var XYZtoLinsRGB = new LCMatrix(linRGB.getMatrix()).invert();
-        final var CIERGBtoXYZ = new LCMatrix(((ICC_ProfileRGB) JAIContext.linearProfile).getMatrix());
-        double[][] CIERGBtoLinsRGB = LCMatrix.getArrayDouble(XYZtoLinsRGB.mult(CIERGBtoXYZ));
-
-        for (int i = 0; i < 3; i++)
-            for (int j = 0; j < 3; j++)
-                toLinearsRGB[i][j] = (int) (sMath_scale * CIERGBtoLinsRGB[i][j]);
-
+        super(source, config, new Vibrance(transform));
     }
 
-    protected void computeRect(Raster[] sources,
-                               WritableRaster dest,
-                               Rectangle destRect) {
-        // Retrieve format tags.
-        RasterFormatTag[] formatTags = getFormatTags();
-
-        RasterAccessor src = new RasterAccessor(sources[0], destRect, formatTags[0],
-                getSourceImage(0).getColorModel());
-        RasterAccessor dst = new RasterAccessor(dest, destRect, formatTags[1], getColorModel());
-
-        switch (dst.getDataType()) {
-            case DataBuffer.TYPE_USHORT:
-                ushortLoop(src, dst);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unsupported data type: " + dst.getDataType());
-        }
-    }
+    /** The vibrance adjustment, as a stage of a {@link PointChainOpImage}. */
+    public static final class Vibrance implements Stage {
+        private final int[][] transform = new int[3][3];
+        private final int[][] toLinearsRGB = new int[3][3];
+        private final boolean saturationIncrease;
 
-    protected void ushortLoop(RasterAccessor src, RasterAccessor dst) {
-        int width = src.getWidth();
-        int height = src.getHeight();
+        public Vibrance(float[][] transform) {
+            for (int i = 0; i < 3; i++)
+                for (int j = 0; j < 3; j++)
+                    this.transform[i][j] = (int) (sMath_scale * transform[i][j]);
 
-        short[] dstData = dst.getShortDataArray(0);
-        int[] dstBandOffsets = dst.getBandOffsets();
-        int dstLineStride = dst.getScanlineStride();
-        int dstPixelStride = dst.getPixelStride();
+            saturationIncrease = transform[0][0] > 1;
 
-        short[] srcData = src.getShortDataArray(0);
-        int[] srcBandOffsets = src.getBandOffsets();
-        int srcLineStride = src.getScanlineStride();
-        int srcPixelStride = src.getPixelStride();
+            ICC_ProfileRGB linRGB = (ICC_ProfileRGB) ICC_Profile.getInstance(ColorSpace.CS_LINEAR_RGB);
+            final var XYZtoLinsRGB = new LCMatrix(linRGB.getMatrix()).invert();
+            final var CIERGBtoXYZ = new LCMatrix(((ICC_ProfileRGB) JAIContext.linearProfile).getMatrix());
+            double[][] CIERGBtoLinsRGB = LCMatrix.getArrayDouble(XYZtoLinsRGB.mult(CIERGBtoXYZ));
 
-        int srcROffset = srcBandOffsets[0];
-        int srcGOffset = srcBandOffsets[1];
-        int srcBOffset = srcBandOffsets[2];
-
-        int dstROffset = dstBandOffsets[0];
-        int dstGOffset = dstBandOffsets[1];
-        int dstBOffset = dstBandOffsets[2];
+            for (int i = 0; i < 3; i++)
+                for (int j = 0; j < 3; j++)
+                    toLinearsRGB[i][j] = (int) (sMath_scale * CIERGBtoLinsRGB[i][j]);
+        }
 
-        final int sqrt3d2 = (int) (sMath_scale * Math.sqrt(3) / 2); // 0.866...
+        @Override
+        public void apply(int[] rgb, int n) {
+            final int sqrt3d2 = (int) (sMath_scale * Math.sqrt(3) / 2); // 0.866...
 
-        for (int row = 0; row < height; row++) {
-            for (int col = 0; col < width; col++) {
-                int srcPixOffset = srcPixelStride * col + row * srcLineStride;
-                int r = (0xffff & srcData[srcPixOffset + srcROffset]) / 2;
-                int g = (0xffff & srcData[srcPixOffset + srcGOffset]) / 2;
-                int b = (0xffff & srcData[srcPixOffset + srcBOffset]) / 2;
+            for (int i = 0; i < 3 * n; i += 3) {
+                int r = rgb[i] / 2;
+                int g = rgb[i + 1] / 2;
+                int b = rgb[i + 2] / 2;
 
                 int lr = (toLinearsRGB[0][0] * r + toLinearsRGB[0][1] * g + toLinearsRGB[0][2] * b) / sMath_scale;
                 int lg = (toLinearsRGB[1][0] * r + toLinearsRGB[1][1] * g + toLinearsRGB[1][2] * b) / sMath_scale;
@@ -161,10 +114,9 @@ public class IntVibranceOpImage extends PointOpImage {
                 gg = 2 * ((sMath_scale - mask) * g / sMath_scale + gg * mask / sMath_scale);
                 bb = 2 * ((sMath_scale - mask) * b / sMath_scale + bb * mask / sMath_scale);
 
-                int dstPixOffset = dstPixelStride * col + row * dstLineStride;
-                dstData[dstPixOffset + dstROffset] = (short) (rr < 0 ? 0 : rr > 0xffff ? 0xffff : rr);
-                dstData[dstPixOffset + dstGOffset] = (short) (gg < 0 ? 0 : gg > 0xffff ? 0xffff : gg);
-                dstData[dstPixOffset + dstBOffset] = (short) (bb < 0 ? 0 : bb > 0xffff ? 0xffff : bb);
+                rgb[i]     = rr < 0 ? 0 : rr > 0xffff ? 0xffff : rr;
+                rgb[i + 1] = gg < 0 ? 0 : gg > 0xffff ? 0xffff : gg;
+                rgb[i + 2] = bb < 0 ? 0 : bb > 0xffff ? 0xffff : bb;
             }
         }
     }
@@ -0,0 +1,187 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.opimage;
+
+import org.eclipse.imagen.ImageLayout;
+import org.eclipse.imagen.PlanarImage;
+import org.eclipse.imagen.PointOpImage;
+import org.eclipse.imagen.RasterAccessor;
+import org.eclipse.imagen.RasterFormatTag;
+
+import java.awt.*;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Applies a chain of per-pixel stages to a 3-band <code>USHORT</code> image
+ * in a single pass.
+ *
+ * <p> Chaining point operations as separate images computes and caches a
+ * full intermediate tile for each of them and walks memory once per stage.
+ * Here each row of a tile is read once into a small buffer, which stays in
+ * the CPU caches while all the stages transform it in turn, and is written
+ * once.  Each stage clamps its output to the range of <code>USHORT</code>,
+ * so the result is that of the chained operations.
+ *
+ * <p> {@link #append} fuses a stage into an existing chain that nothing
+ * consumes yet, so tools can build their operations one at a time.
+ */
+public class PointChainOpImage extends PointOpImage {
+
+    /** A per-pixel operation on 16-bit RGB samples. */
+    public interface Stage {
+        /**
+         * Transforms pixels in place.
+         *
+         * @param rgb The interleaved RGB samples of the pixels, each within
+         *            0..0xffff, and so each must be on return.
+         * @param n   The number of pixels.
+         */
+        void apply(int[] rgb, int n);
+    }
+
+    private final Stage[] stages;
+
+    public PointChainOpImage(RenderedImage source, Map config, Stage... stages) {
+        super(source, new ImageLayout(source), config, true);
+        permitInPlaceOperation();
+        this.stages = stages;
+    }
+
+    /**
+     * Applies a stage to an image, fusing it into the image if it's a chain
+     * that nothing consumes yet.
+     *
+     * @return Returns the image with the stage applied, or <code>null</code>
+     *         if the image is not a 3-band <code>USHORT</code> one.
+     */
+    public static PointChainOpImage append(RenderedImage image, Stage stage, Map config) {
+        if (image instanceof PointChainOpImage chain && chain.getSinks() == null) {
+            final Stage[] stages = Arrays.copyOf(chain.stages, chain.stages.length + 1);
+            stages[chain.stages.length] = stage;
+            return new PointChainOpImage(chain.getSourceImage(0), config, stages);
+        }
+        if (image.getSampleModel().getDataType() != DataBuffer.TYPE_USHORT
+                || image.getSampleModel().getNumBands() != 3) {
+            return null;
+        }
+        return new PointChainOpImage(image, config, stage);
+    }
+
+    /** Returns the number of stages fused in this image. */
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    @Override
+    protected void computeRect(Raster[] sources,
+                               WritableRaster dest,
+                               Rectangle destRect) {
+        // Retrieve format tags.
+        RasterFormatTag[] formatTags = getFormatTags();
+
+        RasterAccessor src = new RasterAccessor(sources[0], destRect, formatTags[0],
+                getSourceImage(0).getColorModel());
+        RasterAccessor dst = new RasterAccessor(dest, destRect, formatTags[1], getColorModel());
+
+        switch (dst.getDataType()) {
+            case DataBuffer.TYPE_USHORT:
+                ushortLoop(src, dst);
+                break;
+            default:
+                throw new UnsupportedOperationException("Unsupported data type: " + dst.getDataType());
+        }
+    }
+
+    protected void ushortLoop(RasterAccessor src, RasterAccessor dst) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+
+        short[] dstData = dst.getShortDataArray(0);
+        int[] dstBandOffsets = dst.getBandOffsets();
+        int dstLineStride = dst.getScanlineStride();
+        int dstPixelStride = dst.getPixelStride();
+
+        short[] srcData = src.getShortDataArray(0);
+        int[] srcBandOffsets = src.getBandOffsets();
+        int srcLineStride = src.getScanlineStride();
+        int srcPixelStride = src.getPixelStride();
+
+        int[] row = new int[3 * width];
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0, srcPixOffset = y * srcLineStride; x < width; x++, srcPixOffset += srcPixelStride) {
+                row[3 * x]     = 0xffff & srcData[srcPixOffset + srcBandOffsets[0]];
+                row[3 * x + 1] = 0xffff & srcData[srcPixOffset + srcBandOffsets[1]];
+                row[3 * x + 2] = 0xffff & srcData[srcPixOffset + srcBandOffsets[2]];
+            }
+
+            for (Stage stage : stages)
+                stage.apply(row, width);
+
+            for (int x = 0, dstPixOffset = y * dstLineStride; x < width; x++, dstPixOffset += dstPixelStride) {
+                dstData[dstPixOffset + dstBandOffsets[0]] = (short) row[3 * x];
+                dstData[dstPixOffset + dstBandOffsets[1]] = (short) row[3 * x + 1];
+                dstData[dstPixOffset + dstBandOffsets[2]] = (short) row[3 * x + 2];
+            }
+        }
+    }
+
+    /**
+     * A band combination: each output band is the dot product of a row of
+     * a 3x4 matrix with the input bands and 1, as in <code>BandCombine</code>.
+     */
+    public static final class BandCombine implements Stage {
+        private final float[][] matrix = new float[3][4];
+
+        public BandCombine(double[][] matrix) {
+            for (int i = 0; i < 3; i++)
+                for (int j = 0; j < 4; j++)
+                    this.matrix[i][j] = (float) matrix[i][j];
+        }
+
+        @Override
+        public void apply(int[] rgb, int n) {
+            final float[] m0 = matrix[0];
+            final float[] m1 = matrix[1];
+            final float[] m2 = matrix[2];
+            for (int i = 0; i < 3 * n; i += 3) {
+                final float r = rgb[i];
+                final float g = rgb[i + 1];
+                final float b = rgb[i + 2];
+                rgb[i]     = clampRound(m0[0] * r + m0[1] * g + m0[2] * b + m0[3]);
+                rgb[i + 1] = clampRound(m1[0] * r + m1[1] * g + m1[2] * b + m1[3]);
+                rgb[i + 2] = clampRound(m2[0] * r + m2[1] * g + m2[2] * b + m2[3]);
+            }
+        }
+
+        private static int clampRound(float f) {
+            return f < 0 ? 0 : f > 0xffff ? 0xffff : (int) (f + 0.5f);
+        }
+    }
+
+    /** A lookup of each band in its own table of 0x10000 entries. */
+    public static final class Lookup implements Stage {
+        private final short[][] table;
+
+        public Lookup(short[][] table) {
+            this.table = table;
+        }
+
+        @Override
+        public void apply(int[] rgb, int n) {
+            final short[] t0 = table[0];
+            final short[] t1 = table[1];
+            final short[] t2 = table[2];
+            for (int i = 0; i < 3 * n; i += 3) {
+                rgb[i]     = 0xffff & t0[rgb[i]];
+                rgb[i + 1] = 0xffff & t1[rgb[i + 1]];
+                rgb[i + 2] = 0xffff & t2[rgb[i + 2]];
+            }
+        }
+    }
+}
@@ -15,13 +15,10 @@ package com.lightcrafts.jai.utils;
 
 import lombok.Getter;
 import org.eclipse.imagen.CachedTile;
-import org.eclipse.imagen.PlanarImage;
 
 import java.awt.image.DataBuffer;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
-import java.lang.ref.WeakReference;
-import java.math.BigInteger;
 
 /**
  * Information associated with a cached tile.
@@ -42,9 +39,11 @@ final class LCCachedTile implements CachedTile {
     @Getter
     private final Raster tile;                // the tile to be cached
 
-    private final WeakReference<RenderedImage> owner;        // the RenderedImage this tile belongs to
+    private final LCTileOwner owner;        // the RenderedImage this tile belongs to
 
+    @Getter
     private final int tileX;			// tile X index
+    @Getter
     private final int tileY;			// tile Y index
 
     @Getter
@@ -53,32 +52,43 @@ final class LCCachedTile implements CachedTile {
     @Getter
     long tileTimeStamp;		// the last time this tile is accessed
 
-    final Object key;			// the key used to hash this tile
+    final long key;			// the key used to hash this tile
+
+    LCCachedTile before, after;  // access order links, owned by LCTileMap
 
     @Getter
     long tileSize;		// the memory used by this tile in bytes
 
+    @Getter
+    final long computeCost;     // the time it took to compute this tile in ns
+
+    double priority;            // the GreedyDual-Size eviction priority
+
     @Getter
     int action = 0;             // add, remove, update from tile cache
 
     /**
-     * Constructor that takes a tile cache metric
+     * Constructor that takes a tile cache metric, the time it took to
+     * compute the tile and the key computed by {@link #hashKey(int, int)}.
      * @since 1.1
      */
-    LCCachedTile(RenderedImage owner,
+    LCCachedTile(LCTileOwner owner,
                   int tileX,
                   int tileY,
                   Raster tile,
-                  Object tileCacheMetric) {
+                  Object tileCacheMetric,
+                  long computeCost,
+                  long key) {
 
-        this.owner = new WeakReference<>(owner);
+        this.owner = owner;
         this.tile  = tile;
         this.tileX = tileX;
         this.tileY = tileY;
 
         this.tileCacheMetric = tileCacheMetric;  // may be null
+        this.computeCost = computeCost;
 
-        key = hashKey(owner, tileX, tileY);
+        this.key = key;
 
         // tileMemorySize(Raster tile) inlined for performance
         DataBuffer db = tile.getDataBuffer();
@@ -87,64 +97,33 @@ final class LCCachedTile implements CachedTile {
 
     }
 
-    static Object fastHashKey(RenderedImage owner,
-                              int tileX,
-                              int tileY) {
-        return owner.hashCode() + tileY * owner.getNumXTiles() + tileX;
-    }
-
     /**
-     * Returns the hash table "key" as a <code>Object</code> for this
-     * tile.  For <code>PlanarImage</code>, the key is generated by
-     * the method <code>ImageUtilgenerateID(Object) </code>.  For the
-     * other cases, a <code>Long</code> object is returned.
-     * The upper 32 bits for this <code>Long</code> is the tile owner's
-     * hash code, and the lower 32 bits is the tile's index.
+     * Returns the hash table "key" as a primitive <code>long</code> for this
+     * tile.  The upper 32 bits are the interned ID of the tile owner (see
+     * {@link LCTileOwner}), and the lower 32 bits are the tile's index.
+     * Computing the key of an already registered owner allocates nothing.
      */
-    static Object hashKey(RenderedImage owner,
-                              int tileX,
-                              int tileY) {
-        long idx = tileY * (long)owner.getNumXTiles() + tileX;
-
-        BigInteger imageID = null;
-        if (owner instanceof PlanarImage)
-            imageID = (BigInteger)((PlanarImage)owner).getImageID();
-
-        if (imageID != null) {
-            byte[] buf = imageID.toByteArray();
-            int length = buf.length;
-            byte[] buf1 = new byte[length + 8];
-            System.arraycopy(buf, 0, buf1, 0, length);
-            for (int i = 7, j = 0; i >= 0; i--, j += 8)
-                buf1[length++] = (byte)(idx >> j);
-            return new BigInteger(buf1);
-        }
-
-        idx = idx & 0x00000000ffffffffL;
-        return ((long) owner.hashCode() << 32) | idx;
+    static long hashKey(RenderedImage owner,
+                        int tileX,
+                        int tileY) {
+        return hashKey(LCTileOwner.of(owner).id, tileIndex(owner, tileX, tileY));
     }
 
-    /*
-     *  Special version of hashKey for use in LCTileCache.removeTiles().
-     *  Minimizes the overhead of repeated calls to
-     *  hashCode and getNumTiles(). Note that this causes a
-     *  linkage between the CachedTile and LCTileCache classes
-     *  in that LCTileCache now has to understand how the
-     *  tileIndex is calculated.
+    /**
+     * Returns the index of a tile in the owner's tile grid, from 0, whatever
+     * the grid's origin.
      */
-/*
-    static Long hashKey(int ownerHashCode,
-                        int tileIndex) {
-        long idx = (long)tileIndex;
-        idx = idx & 0x00000000ffffffffL;
-        return new Long(((long)ownerHashCode << 32) | idx);
+    static int tileIndex(RenderedImage owner,
+                         int tileX,
+                         int tileY) {
+        return (tileY - owner.getMinTileY()) * owner.getNumXTiles()
+               + (tileX - owner.getMinTileX());
     }
-*/
-    /* Returns the owner's hash code. */
-/*    static long getOwnerHashCode(Long key) {
-        return key.longValue() >>> 32;
+
+    static long hashKey(int ownerID, int tileIndex) {
+        return ((long) ownerID << 32) | (tileIndex & 0x00000000ffffffffL);
     }
-*/
+
     /** Returns a string representation of the class object. */
     public String toString() {
         RenderedImage o = getOwner();
@@ -158,8 +137,9 @@ final class LCCachedTile implements CachedTile {
                " tileX = " + tileX +
                " tileY = " + tileY +
                " tile = " + tstring +
-               " key = " + ((key instanceof Long)? Long.toHexString((Long) key) : key.toString()) +
+               " key = " + Long.toHexString(key) +
                " tileSize = " + tileSize +
+               " computeCost = " + computeCost +
                " timeStamp = " + tileTimeStamp;
     }
 
@@ -167,4 +147,9 @@ final class LCCachedTile implements CachedTile {
     public RenderedImage getOwner() {
         return owner.get();
     }
+
+    /** Returns the handle on the owner of the cached tile. */
+    LCTileOwner getOwnerHandle() {
+        return owner;
+    }
 }
@@ -0,0 +1,231 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adapts the memory capacity of the tile cache, and the budget of the
+ * recycled tile arrays, to how full the heap is after garbage collections.
+ *
+ * <p> The governor watches the heap pools that hold long-lived objects.
+ * After each old generation collection (young collections leave garbage in
+ * those pools that only an old collection reclaims, so their occupancy then
+ * says little), if they are more than {@link #HIGH_WATER} full,
+ * the cache and the pool are shrunk by a quarter, down to an eighth of
+ * their initial size; once they are less than {@link #LOW_WATER} full, they
+ * grow back by a quarter at a time, up to their initial size.  A collection
+ * that leaves the pools above their collection usage threshold halves them
+ * at once.  Each adjustment is logged.
+ *
+ * <p> Notifications are handled on the governor's own thread, since
+ * bringing the cache down to a new capacity may have to wait for tiles to
+ * be written to disk.
+ */
+public final class LCMemoryGovernor {
+
+    private static final Logger logger = LoggerFactory.getLogger(LCMemoryGovernor.class);
+
+    /** The pool occupancy after a collection above which to shrink. */
+    private static final double HIGH_WATER = 0.80;
+
+    /** The pool occupancy after a collection below which to grow back. */
+    private static final double LOW_WATER = 0.50;
+
+    /** The pool occupancy after a collection that halves the cache. */
+    private static final double CRITICAL = 0.90;
+
+    private static final double SHRINK_FACTOR = 0.75;
+    private static final double GROW_FACTOR = 1.25;
+    private static final double RELIEVE_FACTOR = 0.5;
+
+    /** The smallest share of the initial size to shrink to. */
+    private static final double MIN_FRACTION = 0.125;
+
+    /**
+     * How long to wait after any adjustment before shrinking again, so a
+     * burst of collections doesn't empty the cache, or growing (in ns).
+     * Relieving the heap doesn't wait.
+     */
+    private static final long SHRINK_DELAY = 1_000_000_000L;
+    private static final long GROW_DELAY = 5_000_000_000L;
+
+    private static final int MB = 1024 * 1024;
+
+    /** The action HotSpot reports for young generation collections. */
+    private static final String MINOR_GC_ACTION = "end of minor GC";
+
+    private final LCTileCache cache;
+    private final LCRecyclingTileFactory factory;
+
+    /** The initial capacity of the cache and budget of the pool. */
+    private final long maxCapacity;
+    private final long maxBudget;
+
+    /** The pools of long-lived objects. */
+    private final List<MemoryPoolMXBean> tenuredPools = new ArrayList<>();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "Memory Governor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** The current share of the initial size, guarded by this. */
+    private double fraction = 1;
+
+    /** The time of the last adjustment, guarded by this. */
+    private long lastAdjustment = System.nanoTime();
+
+    private final LongAdder shrinkCount = new LongAdder();
+    private final LongAdder growCount = new LongAdder();
+
+    /**
+     * Constructor.  Starts governing the given cache at once.
+     *
+     * @param cache   The tile cache, whose current capacity is the most it
+     *                will be given.
+     * @param factory The recycling tile factory, whose current budget is the
+     *                most it will be given, or <code>null</code>.
+     */
+    public LCMemoryGovernor(LCTileCache cache, LCRecyclingTileFactory factory) {
+        this.cache = cache;
+        this.factory = factory;
+        maxCapacity = cache.getMemoryCapacity();
+        maxBudget = factory != null ? factory.getBudget() : 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            // Only the old generation pools support usage thresholds
+            if (pool.getType() == MemoryType.HEAP && pool.isUsageThresholdSupported()
+                    && pool.isCollectionUsageThresholdSupported()) {
+                final long max = pool.getUsage().getMax();
+                if (max > 0) {
+                    pool.setCollectionUsageThreshold((long) (max * CRITICAL));
+                }
+                tenuredPools.add(pool);
+            }
+        }
+        if (tenuredPools.isEmpty()) {
+            logger.warn("No tenured heap pool to watch, the tile cache keeps its capacity");
+            return;
+        }
+
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(
+                (n, handback) -> executor.execute(
+                        () -> relieve("collection usage threshold exceeded")),
+                n -> MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(n.getType()),
+                null);
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            if (gc instanceof NotificationEmitter emitter) {
+                emitter.addNotificationListener(
+                        (n, handback) -> afterCollection(n),
+                        n -> GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(n.getType()),
+                        null);
+            }
+        }
+    }
+
+    /**
+     * Halves the tile cache and the recycled arrays at once, e.g. when the
+     * heap is almost full after a collection or a tile ran out of memory.
+     *
+     * @param reason Why, for the log.
+     * @return Returns <code>false</code> if they are already as small as the
+     * governor makes them.
+     */
+    public boolean relieve(String reason) {
+        return adjust(RELIEVE_FACTOR, reason);
+    }
+
+    /** Returns the number of times the cache was shrunk. */
+    public long getShrinkCount() {
+        return shrinkCount.sum();
+    }
+
+    /** Returns the number of times the cache was grown back. */
+    public long getGrowCount() {
+        return growCount.sum();
+    }
+
+    private void afterCollection(Notification n) {
+        final GarbageCollectionNotificationInfo info =
+                GarbageCollectionNotificationInfo.from((CompositeData) n.getUserData());
+        if (MINOR_GC_ACTION.equals(info.getGcAction())) {
+            return;
+        }
+        final Map<String, MemoryUsage> after = info.getGcInfo().getMemoryUsageAfterGc();
+        long used = 0;
+        long max = 0;
+        for (MemoryPoolMXBean pool : tenuredPools) {
+            final MemoryUsage usage = after.get(pool.getName());
+            if (usage != null && usage.getMax() > 0) {
+                used += usage.getUsed();
+                max += usage.getMax();
+            }
+        }
+        if (max == 0) {
+            return;
+        }
+        final double occupancy = (double) used / max;
+        if (occupancy > HIGH_WATER) {
+            executor.execute(() -> adjust(SHRINK_FACTOR, String.format(
+                    "%.0f%% of the heap in use after %s", occupancy * 100, info.getGcName())));
+        } else if (occupancy < LOW_WATER) {
+            executor.execute(() -> adjust(GROW_FACTOR, String.format(
+                    "%.0f%% of the heap in use after %s", occupancy * 100, info.getGcName())));
+        }
+    }
+
+    /**
+     * Scales the cache capacity and the pool budget by the given factor,
+     * within bounds.
+     *
+     * @return Returns <code>true</code> only if they were changed.
+     */
+    private synchronized boolean adjust(double factor, String reason) {
+        final long now = System.nanoTime();
+        final long elapsed = now - lastAdjustment;
+        if (factor > 1 ? elapsed < GROW_DELAY
+                       : factor > RELIEVE_FACTOR && elapsed < SHRINK_DELAY) {
+            return false;
+        }
+        final double newFraction = Math.max(MIN_FRACTION, Math.min(1, fraction * factor));
+        if (newFraction == fraction) {
+            return false;
+        }
+        final long oldCapacity = cache.getMemoryCapacity();
+        final long newCapacity = (long) (maxCapacity * newFraction);
+        final long newBudget = (long) (maxBudget * newFraction);
+        fraction = newFraction;
+        lastAdjustment = now;
+
+        // Give back the idle arrays first: they are the cheapest to lose
+        if (factory != null) {
+            factory.setBudget(newBudget);
+        }
+        cache.setMemoryCapacity(newCapacity);
+        (factor > 1 ? growCount : shrinkCount).increment();
+        logger.info("{} tile cache from {} to {} MB and tile buffer pool to {} MB: {}",
+                    factor > 1 ? "Growing" : "Shrinking",
+                    oldCapacity / MB, newCapacity / MB, newBudget / MB, reason);
+        return true;
+    }
+}
@@ -0,0 +1,364 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import com.lightcrafts.utils.cache.NativeByteBufferAllocator;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * A store of tiles evicted from {@link LCTileCache}, kept outside of the
+ * Java heap.
+ *
+ * <p> The samples of a tile are copied into a block of native memory carved
+ * out of large arenas by a {@link NativeByteBufferAllocator}, so the store
+ * can hold gigabytes of tiles without the garbage collector ever scanning or
+ * moving them.  Java2D can only read samples from arrays on the heap, so a
+ * tile taken back is copied into a new raster, which costs a fraction of
+ * recomputing it.  When the store is full, its least recently stored tiles
+ * are evicted, and those marked for it are handed to a consumer on their way
+ * to the disk cache.
+ *
+ * <p> The arenas never add up to more than the capacity: when they are
+ * too fragmented for a new tile, older tiles are evicted until it fits.
+ *
+ * <p> Tiles are copied outside of the store's lock: a tile being stored is
+ * not found until its copy is complete, and one being taken back is no
+ * longer found once its copy starts.  Copies hold the read lock of the
+ * store's lifecycle, so the arenas are not freed under them.
+ */
+final class LCOffHeapTileStore {
+
+    /** The largest size of the arenas that blocks are carved out of. */
+    private static final int ARENA_SIZE = 64 * 1024 * 1024;
+
+    /** The most memory the stored tiles may use. */
+    private final long capacity;
+
+    /** The size of the arenas. */
+    private final int arenaSize;
+
+    private final NativeByteBufferAllocator allocator;
+
+    /**
+     * Held for reading while tiles are copied in or out of the arenas, and
+     * for writing while they are cleared or freed.
+     */
+    private final ReadWriteLock lifecycle = new ReentrantReadWriteLock();
+
+    /** Whether the arenas were freed, guarded by this. */
+    private boolean disposed;
+
+    /** Creates the rasters that tiles are copied back into. */
+    private final BiFunction<SampleModel, Point, WritableRaster> rasters;
+
+    /** Takes the evicted tiles marked for it, may be <code>null</code>. */
+    private final Consumer<LCCachedTile> overflow;
+
+    /** The stored tiles in storage order, guarded by this. */
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+
+    /** The memory used by the stored tiles, guarded by this. */
+    private long usedBytes;
+
+    private final LongAdder storedCount = new LongAdder();
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder evictedCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The most memory the stored tiles may use, in bytes.
+     * @param rasters  Creates a raster for a sample model and location.
+     * @param overflow Takes the evicted tiles stored with
+     *                 <code>overflow</code> set, or <code>null</code>.
+     */
+    LCOffHeapTileStore(long capacity,
+                       BiFunction<SampleModel, Point, WritableRaster> rasters,
+                       Consumer<LCCachedTile> overflow) {
+        this.capacity = capacity;
+        this.rasters = rasters;
+        this.overflow = overflow;
+        arenaSize = (int) Math.min(capacity, ARENA_SIZE);
+        allocator = new NativeByteBufferAllocator(arenaSize, (int) (capacity / arenaSize));
+    }
+
+    /**
+     * Copies a tile into the store, evicting older tiles to make room.
+     *
+     * @param ct       The tile.
+     * @param overflow Whether to hand the tile to the overflow consumer if
+     *                 it is evicted.
+     * @return Returns <code>false</code> if the tile can't be stored: its
+     *         data type is not supported, it shares its data buffer, it's
+     *         too big, or the store was disposed.
+     */
+    boolean put(LCCachedTile ct, boolean overflow) {
+        final Raster tile = ct.getTile();
+        final DataBuffer db = tile.getDataBuffer();
+        final int type = db.getDataType();
+        if (type != DataBuffer.TYPE_BYTE && type != DataBuffer.TYPE_USHORT
+                && type != DataBuffer.TYPE_INT
+                || tile.getParent() != null || !isPacked(db)
+                || ct.tileSize > arenaSize) {
+            return false;
+        }
+        final int size = (int) ct.tileSize;
+
+        lifecycle.readLock().lock();
+        try {
+            ByteBuffer buf = null;
+            boolean fragmented = false;
+            while (buf == null) {
+                // Evict under the lock, but read the tiles to spill outside of it
+                final List<Entry> evicted = new ArrayList<>();
+                synchronized (this) {
+                    if (disposed) {
+                        return false;
+                    }
+                    long free = capacity - usedBytes;
+                    final Iterator<Entry> it = entries.values().iterator();
+                    while ((free < size || fragmented && evicted.isEmpty()) && it.hasNext()) {
+                        final Entry e = it.next();
+                        it.remove();
+                        free += e.buf.capacity();
+                        evicted.add(e);
+                    }
+                }
+                for (Entry e : evicted) {
+                    if (e.overflow && this.overflow != null) {
+                        this.overflow.accept(copyOut(e));
+                    }
+                }
+
+                synchronized (this) {
+                    for (Entry e : evicted) {
+                        usedBytes -= e.buf.capacity();
+                        allocator.freeByteBuffer(e.buf);
+                    }
+                    evictedCount.add(evicted.size());
+                    try {
+                        buf = allocator.allocByteBuffer(size);
+                    } catch (OutOfMemoryError e) {
+                        return false;
+                    }
+                    if (buf != null) {
+                        usedBytes += size;
+                    } else if (entries.isEmpty()) {
+                        return false;
+                    }
+                }
+                // No arena has room for the tile, and no more may be added
+                fragmented = true;
+            }
+
+            copyIn(db, buf);
+            final Entry e = new Entry(buf, ct.key, ct.getOwnerHandle(), ct.getTileX(), ct.getTileY(),
+                                      tile.getSampleModel(), tile.getMinX(), tile.getMinY(),
+                                      db.getSize(), ct.computeCost, overflow);
+            synchronized (this) {
+                final Entry replaced = entries.put(ct.key, e);
+                if (replaced != null) {
+                    usedBytes -= replaced.buf.capacity();
+                    allocator.freeByteBuffer(replaced.buf);
+                }
+            }
+        } finally {
+            lifecycle.readLock().unlock();
+        }
+        storedCount.increment();
+        return true;
+    }
+
+    /**
+     * Takes a tile out of the store.
+     *
+     * @param key The tile's key.
+     * @return Returns a copy of the tile on the heap, or <code>null</code>
+     *         if it's not in the store.
+     */
+    LCCachedTile take(long key) {
+        final LCCachedTile ct;
+        lifecycle.readLock().lock();
+        try {
+            final Entry e;
+            synchronized (this) {
+                e = entries.remove(key);
+                if (e == null) {
+                    return null;
+                }
+                usedBytes -= e.buf.capacity();
+            }
+            ct = copyOut(e);
+            synchronized (this) {
+                allocator.freeByteBuffer(e.buf);
+            }
+        } finally {
+            lifecycle.readLock().unlock();
+        }
+        hitCount.increment();
+        return ct;
+    }
+
+    /**
+     * Removes a tile from the store.
+     *
+     * @return Returns <code>true</code> if the tile was in the store.
+     */
+    synchronized boolean remove(long key) {
+        final Entry e = entries.remove(key);
+        if (e == null) {
+            return false;
+        }
+        usedBytes -= e.buf.capacity();
+        allocator.freeByteBuffer(e.buf);
+        return true;
+    }
+
+    /** Removes all the tiles, keeping the arenas for new ones. */
+    void clear() {
+        lifecycle.writeLock().lock();
+        try {
+            synchronized (this) {
+                entries.values().forEach(e -> allocator.freeByteBuffer(e.buf));
+                entries.clear();
+                usedBytes = 0;
+            }
+        } finally {
+            lifecycle.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes all the tiles and frees the arenas.  The store takes no tile
+     * afterwards.
+     */
+    void dispose() {
+        lifecycle.writeLock().lock();
+        try {
+            synchronized (this) {
+                disposed = true;
+                entries.clear();
+                usedBytes = 0;
+                allocator.clear();
+            }
+        } finally {
+            lifecycle.writeLock().unlock();
+        }
+    }
+
+    long getCapacity() {
+        return capacity;
+    }
+
+    synchronized long getMemoryUsed() {
+        return usedBytes;
+    }
+
+    synchronized int getTileCount() {
+        return entries.size();
+    }
+
+    /** Returns the number of tiles stored. */
+    long getStoredCount() {
+        return storedCount.sum();
+    }
+
+    /** Returns the number of tiles taken back. */
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /** Returns the number of tiles evicted to make room. */
+    long getEvictedCount() {
+        return evictedCount.sum();
+    }
+
+    /**
+     * Returns whether each bank of a data buffer starts at the start of
+     * its array.
+     */
+    private static boolean isPacked(DataBuffer db) {
+        for (int offset : db.getOffsets()) {
+            if (offset != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void copyIn(DataBuffer db, ByteBuffer buf) {
+        final int n = db.getSize();
+        for (int b = 0; b < db.getNumBanks(); b++) {
+            switch (db.getDataType()) {
+                case DataBuffer.TYPE_BYTE:
+                    buf.put(b * n, ((DataBufferByte) db).getData(b), 0, n);
+                    break;
+
+                case DataBuffer.TYPE_USHORT:
+                    buf.asShortBuffer().put(b * n, ((DataBufferUShort) db).getData(b), 0, n);
+                    break;
+
+                case DataBuffer.TYPE_INT:
+                    buf.asIntBuffer().put(b * n, ((DataBufferInt) db).getData(b), 0, n);
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("unsupported image type " + db.getClass());
+            }
+        }
+    }
+
+    /** Copies a stored tile into a new raster. */
+    private LCCachedTile copyOut(Entry e) {
+        final Point location = new Point(e.minX, e.minY);
+        WritableRaster raster = rasters.apply(e.sampleModel, location);
+        DataBuffer db = raster.getDataBuffer();
+        if (db.getSize() != e.bankSize || !isPacked(db)) {
+            db = e.sampleModel.createDataBuffer();
+            raster = Raster.createWritableRaster(e.sampleModel, db, location);
+        }
+        final int n = e.bankSize;
+        for (int b = 0; b < db.getNumBanks(); b++) {
+            switch (db.getDataType()) {
+                case DataBuffer.TYPE_BYTE:
+                    e.buf.get(b * n, ((DataBufferByte) db).getData(b), 0, n);
+                    break;
+
+                case DataBuffer.TYPE_USHORT:
+                    e.buf.asShortBuffer().get(b * n, ((DataBufferUShort) db).getData(b), 0, n);
+                    break;
+
+                case DataBuffer.TYPE_INT:
+                    e.buf.asIntBuffer().get(b * n, ((DataBufferInt) db).getData(b), 0, n);
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("unsupported image type " + db.getClass());
+            }
+        }
+        return new LCCachedTile(e.owner, e.tileX, e.tileY, raster, null,
+                                e.computeCost, e.key);
+    }
+
+    private record Entry(ByteBuffer buf, long key, LCTileOwner owner, int tileX, int tileY,
+                         SampleModel sampleModel, int minX, int minY,
+                         int bankSize, long computeCost, boolean overflow) {}
+}
@@ -14,6 +14,7 @@ package com.lightcrafts.jai.utils;
  * $State: Exp $
  */
 
+import com.lightcrafts.utils.MemoryLimits;
 import org.eclipse.imagen.TileFactory;
 import org.eclipse.imagen.TileRecycler;
 import org.slf4j.Logger;
@@ -21,10 +22,7 @@ import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.awt.image.*;
-import java.lang.ref.SoftReference;
 import java.lang.reflect.Array;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Observable;
 
 /**
@@ -34,6 +32,12 @@ import java.util.Observable;
  * <code>recycleTile()</code>.
  *
  * <p>
+ * Recycled arrays are held in a {@link LCTileBufferPool} with a fixed
+ * memory budget rather than behind soft references, so they neither wait
+ * on the garbage collector to be reclaimed nor crowd out tiles in the heap.
+ * </p>
+ *
+ * <p>
  * A simple example of the use of this class is as follows wherein
  * image files are read, each image is filtered, and each output
  * written to a file:
@@ -79,29 +83,20 @@ public class LCRecyclingTileFactory extends Observable
     private static final Logger logger = LoggerFactory.getLogger(LCRecyclingTileFactory.class);
 
     /**
-     * Cache of recycled arrays.  The key in this mapping is a
-     * <code>Long</code> which is formed for a given two-dimensional
-     * array as
+     * The recycled arrays, pooled by the key formed for a given
+     * two-dimensional array as
      *
      * <pre>
      * long type;     // DataBuffer.TYPE_*
      * long numBanks; // Number of banks
      * long size;     // Size of each bank
-     * Long key = new Long((type << 56) | (numBanks << 32) | size);
+     * long key = (type << 56) | (numBanks << 32) | size;
      * </pre>
      *
      * where the value of <code>type</code> is one of the constants
-     * <code>DataBuffer.TYPE_*</code>.  The value corresponding to each key
-     * is an <code>ArrayList</code> of <code>SoftReferences</code> to the
-     * internal data banks of <code>DataBuffer</code>s of tiles wherein the
-     * data bank array has the type and dimensions implied by the key.
+     * <code>DataBuffer.TYPE_*</code>.
      */
-    private HashMap recycledArrays = new HashMap(32);
-
-    /**
-     * The amount of memory currently used for array storage.
-     */
-    private long memoryUsed = 0L;
+    private final LCTileBufferPool pool;
 
     // XXX Inline this method or make it public?
     private static long getBufferSizeCSM(ComponentSampleModel csm) {
@@ -136,10 +131,9 @@ public class LCRecyclingTileFactory extends Observable
     }
 
     /**
-     * Returns a <code>SoftReference</code> to the internal bank
-     * data of the <code>DataBuffer</code>.
+     * Returns the internal bank data of the <code>DataBuffer</code>.
      */
-    private static SoftReference getBankReference(DataBuffer db) {
+    private static Object getBankData(DataBuffer db) {
         Object array = null;
 
         switch(db.getDataType()) {
@@ -166,7 +160,7 @@ public class LCRecyclingTileFactory extends Observable
 
         }
 
-        return new SoftReference(array);
+        return array;
     }
 
     /**
@@ -198,10 +192,22 @@ public class LCRecyclingTileFactory extends Observable
         return (long) numBanks * size * bytesPerElement;
     }
 
+    /**
+     * Constructs a <code>RecyclingTileFactory</code> holding on to at most
+     * {@link MemoryLimits#getTileBufferPoolSize()} of recycled arrays.
+     */
+    public LCRecyclingTileFactory() {
+        this((long) MemoryLimits.getTileBufferPoolSize() * 1024 * 1024);
+    }
+
     /**
      * Constructs a <code>RecyclingTileFactory</code>.
+     *
+     * @param budget The most memory (in bytes) the recycled arrays may use.
      */
-    public LCRecyclingTileFactory() {}
+    public LCRecyclingTileFactory(long budget) {
+        pool = new LCTileBufferPool(budget);
+    }
 
     /**
      * Returns <code>true</code>.
@@ -218,14 +224,62 @@ public class LCRecyclingTileFactory extends Observable
     }
 
     public long getMemoryUsed() {
-        return memoryUsed;
+        return pool.getPooledBytes();
+    }
+
+    /**
+     * Returns the most memory (in bytes) the recycled arrays may use.
+     */
+    public long getBudget() {
+        return pool.getBudget();
+    }
+
+    /**
+     * Sets the most memory (in bytes) the recycled arrays may use, giving
+     * up recycled arrays if they use more.
+     */
+    public void setBudget(long budget) {
+        pool.setBudget(budget);
     }
 
     public void flush() {
-        synchronized(recycledArrays) {
-            recycledArrays.clear();
-            memoryUsed = 0L;
-        }
+        pool.trim(0);
+    }
+
+    /**
+     * Gives up recycled arrays, the oldest first, until they use at most
+     * the given memory (in bytes).
+     */
+    public void trim(long bytes) {
+        pool.trim(bytes);
+    }
+
+    /**
+     * Returns the share of tiles created with a recycled array since the
+     * last call to <code>resetCounts()</code>, from 0 to 1.
+     */
+    public double getReuseRate() {
+        return pool.getHitRate();
+    }
+
+    /**
+     * Returns the memory (in bytes) allocated per second for new tile arrays
+     * since the last call to <code>resetCounts()</code>.
+     */
+    public double getAllocationRate() {
+        return pool.getAllocationRate();
+    }
+
+    /**
+     * Returns the number of arrays not recycled because the pool was full
+     * since the last call to <code>resetCounts()</code>.
+     */
+    public long getDroppedCount() {
+        return pool.getDroppedCount();
+    }
+
+    public void resetCounts() {
+        pool.resetCounts();
     }
 
     public WritableRaster createTile(SampleModel sampleModel,
@@ -354,32 +408,17 @@ public class LCRecyclingTileFactory extends Observable
     public void recycleTile(Raster tile) {
         DataBuffer db = tile.getDataBuffer();
 
-        Long key = (long)db.getDataType() << 56
+        long key = (long)db.getDataType() << 56
                 | (long)db.getNumBanks() << 32
                 | (long)db.getSize();
 
         logger.debug("Recycling array for: {} {} {}",
                 db.getDataType(), db.getNumBanks(), db.getSize());
 
-        synchronized(recycledArrays) {
-            Object value = recycledArrays.get(key);
-            ArrayList arrays = null;
-            if(value != null) {
-                arrays = (ArrayList)value;
-            } else {
-                arrays = new ArrayList();
-            }
-
-            memoryUsed += getDataBankSize(db.getDataType(),
-                                          db.getNumBanks(),
-                                          db.getSize());
-
-            arrays.add(getBankReference(db));
-
-            if(value == null) {
-                recycledArrays.put(key, arrays);
-            }
-        }
+        pool.give(key, getBankData(db),
+                  getDataBankSize(db.getDataType(),
+                                  db.getNumBanks(),
+                                  db.getSize()));
     }
 
     /**
@@ -388,32 +427,16 @@ public class LCRecyclingTileFactory extends Observable
     private Object getRecycledArray(int arrayType,
                                     long numBanks,
                                     long arrayLength) {
-        final Long key = (long)arrayType << 56 | numBanks << 32 | arrayLength;
+        final long key = (long)arrayType << 56 | numBanks << 32 | arrayLength;
 
         logger.debug("Attempting to get array for: {} {} {}", arrayType, numBanks, arrayLength);
 
-        synchronized(recycledArrays) {
-            Object value = recycledArrays.get(key);
-
-            if(value != null) {
-                ArrayList arrays = (ArrayList)value;
-                for(int idx = arrays.size() - 1; idx >= 0; idx--) {
-                    SoftReference bankRef = (SoftReference)arrays.remove(idx);
-                    memoryUsed -= getDataBankSize(arrayType,
-                                                  (int)numBanks,
-                                                  (int)arrayLength);
-                    if(idx == 0) {
-                        recycledArrays.remove(key);
-                    }
-
-                    Object array = bankRef.get();
-                    if(array != null) {
-                        return array;
-                    }
-
-                    logger.debug("null reference");
-                }
-            }
+        final Object array = pool.take(key,
+                                       getDataBankSize(arrayType,
+                                                       (int)numBanks,
+                                                       (int)arrayLength));
+        if(array != null) {
+            return array;
         }
 
         // array is null
@@ -0,0 +1,232 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of tile data arrays for {@link LCRecyclingTileFactory}, holding at
+ * most a given number of bytes.
+ *
+ * <p> Arrays are pooled by exact size class: their data type, number of
+ * banks and bank size.  Each thread first returns arrays to, and takes them
+ * from, its own small magazine, so a worker that recycles a tile and then
+ * creates one of the same shape touches no shared state.  A full magazine
+ * overflows to a per-class depot shared by all threads, which hands out the
+ * most recently recycled array first since it is the likeliest to still be
+ * in the CPU caches.
+ *
+ * <p> An array that would take the pool past its budget is left to the
+ * garbage collector.  {@link #trim} gives arrays up explicitly, the oldest
+ * first, when memory gets tight.
+ */
+final class LCTileBufferPool {
+
+    /** The number of arrays a thread's magazine can hold. */
+    private static final int MAGAZINE_SIZE = 4;
+
+    /** The most bytes the pooled arrays may use. */
+    private volatile long budget;
+
+    /** The bytes used by the pooled arrays, in magazines and depots. */
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final Map<Long, ConcurrentLinkedDeque<Pooled>> depots =
+            new ConcurrentHashMap<>();
+
+    private final List<Magazine> magazines = new CopyOnWriteArrayList<>();
+
+    private final ThreadLocal<Magazine> magazine = ThreadLocal.withInitial(() -> {
+        final Magazine m = new Magazine(Thread.currentThread());
+        magazines.add(m);
+        return m;
+    });
+
+    // Statistics
+    private final LongAdder hitCount = new LongAdder();
+    private final LongAdder missCount = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder droppedCount = new LongAdder();
+    private volatile long countsResetTime = System.nanoTime();
+
+    LCTileBufferPool(long budget) {
+        this.budget = budget;
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets the most bytes the pooled arrays may use, trimming the pool if it
+     * is over the new budget.
+     */
+    void setBudget(long budget) {
+        this.budget = budget;
+        trim(budget);
+    }
+
+    /**
+     * Takes an array of the given size class out of the pool.
+     *
+     * @return Returns the array, or <code>null</code> if there is none, in
+     *         which case the caller allocates one, of <code>bytes</code>
+     *         bytes.
+     */
+    Object take(long key, long bytes) {
+        Pooled p = magazine.get().take(key);
+        if (p == null) {
+            final ConcurrentLinkedDeque<Pooled> depot = depots.get(key);
+            if (depot != null) {
+                p = depot.pollFirst();
+            }
+        }
+        if (p == null) {
+            missCount.increment();
+            allocatedBytes.add(bytes);
+            return null;
+        }
+        pooledBytes.addAndGet(-p.bytes);
+        hitCount.increment();
+        return p.array;
+    }
+
+    /**
+     * Gives an array of the given size class to the pool, unless that would
+     * take the pool over its budget.
+     */
+    void give(long key, Object array, long bytes) {
+        if (pooledBytes.addAndGet(bytes) > budget) {
+            pooledBytes.addAndGet(-bytes);
+            droppedCount.increment();
+            return;
+        }
+        final Pooled p = new Pooled(key, array, bytes);
+        if (!magazine.get().give(p)) {
+            depots.computeIfAbsent(key, k -> new ConcurrentLinkedDeque<>())
+                  .offerFirst(p);
+        }
+    }
+
+    /**
+     * Gives up pooled arrays, the least recently recycled first, until the
+     * pool uses at most the given number of bytes.  The magazines are only
+     * emptied if the depots don't suffice.
+     */
+    void trim(long target) {
+        for (final ConcurrentLinkedDeque<Pooled> depot : depots.values()) {
+            Pooled p;
+            while (pooledBytes.get() > target && (p = depot.pollLast()) != null) {
+                pooledBytes.addAndGet(-p.bytes);
+            }
+        }
+        for (final Magazine m : magazines) {
+            final boolean dead = !m.owner.isAlive();
+            if (dead) {
+                magazines.remove(m);
+            }
+            if (dead || pooledBytes.get() > target) {
+                pooledBytes.addAndGet(-m.clear());
+            }
+        }
+    }
+
+    /** Returns the bytes used by the pooled arrays. */
+    long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /** Returns the number of arrays reused since the counts were reset. */
+    long getHitCount() {
+        return hitCount.sum();
+    }
+
+    /** Returns the number of arrays allocated since the counts were reset. */
+    long getMissCount() {
+        return missCount.sum();
+    }
+
+    /** Returns the share of requests served from the pool, from 0 to 1. */
+    double getHitRate() {
+        final long hits = hitCount.sum();
+        final long total = hits + missCount.sum();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    /** Returns the bytes allocated per second since the counts were reset. */
+    double getAllocationRate() {
+        final long nanos = System.nanoTime() - countsResetTime;
+        return nanos > 0 ? allocatedBytes.sum() * 1e9 / nanos : 0;
+    }
+
+    /**
+     * Returns the number of arrays not pooled since the counts were reset,
+     * because the pool was full.
+     */
+    long getDroppedCount() {
+        return droppedCount.sum();
+    }
+
+    void resetCounts() {
+        hitCount.reset();
+        missCount.reset();
+        allocatedBytes.reset();
+        droppedCount.reset();
+        countsResetTime = System.nanoTime();
+    }
+
+    private record Pooled(long key, Object array, long bytes) {}
+
+    /**
+     * A thread's own few pooled arrays.  Only its thread gives to it or
+     * takes from it, but {@link #trim} may empty it from another thread,
+     * hence the atomic slots.
+     */
+    private static final class Magazine {
+        final Thread owner;
+        final AtomicReferenceArray<Pooled> slots =
+                new AtomicReferenceArray<>(MAGAZINE_SIZE);
+
+        Magazine(Thread owner) {
+            this.owner = owner;
+        }
+
+        Pooled take(long key) {
+            for (int i = 0; i < MAGAZINE_SIZE; i++) {
+                final Pooled p = slots.get(i);
+                if (p != null && p.key == key && slots.compareAndSet(i, p, null)) {
+                    return p;
+                }
+            }
+            return null;
+        }
+
+        boolean give(Pooled p) {
+            for (int i = 0; i < MAGAZINE_SIZE; i++) {
+                if (slots.get(i) == null && slots.compareAndSet(i, null, p)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Empties the magazine and returns the bytes it held. */
+        long clear() {
+            long bytes = 0;
+            for (int i = 0; i < MAGAZINE_SIZE; i++) {
+                final Pooled p = slots.getAndSet(i, null);
+                if (p != null) {
+                    bytes += p.bytes;
+                }
+            }
+            return bytes;
+        }
+    }
+}
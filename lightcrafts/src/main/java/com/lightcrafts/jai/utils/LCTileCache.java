@@ -17,6 +17,7 @@ package com.lightcrafts.jai.utils;
 import com.lightcrafts.jai.JAIContext;
 import com.lightcrafts.utils.LCArrays;
 import com.lightcrafts.utils.MemoryLimits;
+import com.lightcrafts.utils.WeakHashSet;
 import com.lightcrafts.utils.cache.*;
 import org.eclipse.imagen.media.util.CacheDiagnostics;
 import lombok.Getter;
@@ -32,11 +33,15 @@ import java.awt.image.*;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
-import java.lang.ref.Reference;
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntUnaryOperator;
 import java.util.prefs.Preferences;
 
 /**
@@ -54,6 +59,16 @@ import java.util.prefs.Preferences;
  * greatly depends on the type of images involved.  In fact, the tile
  * capacity is rather meaningless.
  *
+ * <p> When the memory capacity is exceeded, tiles are evicted by a
+ * GreedyDual-Size policy: each tile is given a priority of the cost to
+ * recompute it per byte, on top of an inflation value which rises to the
+ * priority of every evicted tile.  Among the least recently used tiles of a
+ * segment, the one with the lowest priority goes first, so cheap tiles make
+ * way for expensive ones while tiles that are not used any more eventually
+ * age out.  The cost of a tile is the time the tile scheduler took to
+ * compute it, or else a <code>Number</code> tile cache metric in
+ * nanoseconds.
+ *
  * @see org.eclipse.imagen.TileCache
  *
  */
@@ -70,8 +85,21 @@ public final class LCTileCache extends Observable
     /** The default hashtable capacity (heuristic) */
     private static final int DEFAULT_HASHTABLE_CAPACITY = 1009; // prime number
 
-    /** The hashtable load factor */
-    private static final float LOAD_FACTOR = 0.5F;
+    /**
+     * The default number of lock stripes: the next power of two above four
+     * times the number of processors, so that the tile scheduler workers
+     * rarely meet on the same segment.
+     */
+    private static final int DEFAULT_CONCURRENCY_LEVEL =
+        segmentCountFor(Runtime.getRuntime().availableProcessors());
+
+    private static final int MAX_SEGMENTS = 256;
+
+    /**
+     * The number of least recently used tiles of a segment among which the
+     * cheapest one is evicted.
+     */
+    private static final int EVICTION_WINDOW = 16;
 
     /** Listener for the flush() method, to detect low memory situations. */
     @Setter
@@ -79,46 +107,91 @@ public final class LCTileCache extends Observable
 
     /**
      * The tile cache.
-     * A LinkedHashMap is used to cache the tiles.  The "key" is a
-     * <code>Object</code> determined based on tile owner's UID if any or
-     * hashCode if the UID doesn't exist, and tile index.  The
-     * "value" is a LCCachedTile.
+     * The cache is split into lock-striped segments, each one an
+     * LCTileMap in access order.  The "key" is a primitive
+     * <code>long</code> made of the tile owner's interned ID and the tile
+     * index.  The "value" is a LCCachedTile.  The segment is selected by the
+     * key's hash.
      */
-    @Getter
-    private final LinkedHashMap<Object, LCCachedTile> cachedObject;
+    private final Segment[] segments;
+
+    /** 64 minus the base 2 logarithm of the number of segments. */
+    private final int segmentShift;
 
     /** The memory capacity of the cache. */
     @Getter
-    private long memoryCapacity;
+    private volatile long memoryCapacity;
 
     /** The amount of memory currently being used by the cache. */
-    @Getter
-    private long cacheMemoryUsed = 0;
+    private final AtomicLong cacheMemoryUsed = new AtomicLong();
+
+    /** The number of tiles currently in the cache. */
+    private final AtomicLong cacheTileCount = new AtomicLong();
 
     /** The amount of memory to keep after memory control */
-    private float memoryThreshold = 0.75F;
+    private volatile float memoryThreshold = 0.75F;
 
     /** A indicator for tile access time. */
-    private long timeStamp = 0;
+    private final AtomicLong timeStamp = new AtomicLong();
+
+    /** Only one thread at a time brings the memory usage down. */
+    private final ReentrantLock memoryControlLock = new ReentrantLock();
 
     @Override
     public long getCacheTileCount() {
-        return cachedObject.size();
+        return cacheTileCount.get();
+    }
+
+    @Override
+    public long getCacheMemoryUsed() {
+        return cacheMemoryUsed.get();
     }
 
     /** Cache hit count */
-    @Getter
-    private long cacheHitCount = 0;
+    private final LongAdder cacheHitCount = new LongAdder();
 
     /** Cache miss count */
-    @Getter
-    private long cacheMissCount = 0;
+    private final LongAdder cacheMissCount = new LongAdder();
+
+    @Override
+    public long getCacheHitCount() {
+        return cacheHitCount.sum();
+    }
+
+    @Override
+    public long getCacheMissCount() {
+        return cacheMissCount.sum();
+    }
+
+    /** The compute time of the tiles found in the cache, in ns */
+    private final LongAdder recomputeTimeSaved = new LongAdder();
+
+    /**
+     * Returns the time it would have taken to recompute all the tiles found
+     * in the cache since the last call to <code>resetCounts()</code>, in
+     * milliseconds.
+     */
+    public long getRecomputeTimeSaved() {
+        return recomputeTimeSaved.sum() / 1000000;
+    }
 
     /** Diagnostics enable/disable */
-    private boolean diagnostics;
+    private volatile boolean diagnostics;
 
     private Cache m_objectCache;
 
+    /** Writes evicted tiles to m_objectCache in the background. */
+    private LCTileSpiller m_spiller;
+
+    /** Compacts the file of m_objectCache when it has too many holes. */
+    private CacheCompactor m_compactor;
+
+    /** The factory whose recycled tile arrays memory control also trims. */
+    private volatile LCRecyclingTileFactory tileFactory;
+
+    /** The evicted tiles kept outside of the Java heap, or <code>null</code>. */
+    private LCOffHeapTileStore m_offHeap;
+
     // diagnostic actions
     // !!! If actions are changed in any way (removal, modification, addition)
     // then the getCachedTileActions() method below should be changed to match.
@@ -171,20 +244,127 @@ public final class LCTileCache extends Observable
      *         is less than 0.
      */
     public LCTileCache(long memoryCapacity, boolean useDisk) {
+        this(memoryCapacity, useDisk, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * Constructor.  The memory capacity and the number of lock stripes
+     * should be explicitly specified.
+     *
+     * @param memoryCapacity    The maximum cache memory size in bytes.
+     * @param concurrencyLevel  The expected number of concurrently accessing
+     *                          threads, rounded up to a power of two.
+     *
+     * @throws IllegalArgumentException  If <code>memoryCapacity</code>
+     *         is less than 0 or <code>concurrencyLevel</code> is less than 1.
+     */
+    public LCTileCache(long memoryCapacity, boolean useDisk, int concurrencyLevel) {
         if (memoryCapacity < 0) {
             throw new IllegalArgumentException("memory capacity must be >= 0");
         }
+        if (concurrencyLevel < 1) {
+            throw new IllegalArgumentException("concurrency level must be >= 1");
+        }
 
         this.memoryCapacity = memoryCapacity;
 
-        // lower values of LOAD_FACTOR increase speed, decrease space efficiency
-        cachedObject = new LinkedHashMap<>(DEFAULT_HASHTABLE_CAPACITY, LOAD_FACTOR, true);
+        final int segmentCount = segmentCountFor(concurrencyLevel);
+        final int segmentCapacity = Math.max(16, DEFAULT_HASHTABLE_CAPACITY / segmentCount);
+        segments = new Segment[segmentCount];
+        segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+
+        final long offHeapCapacity = Integer.getInteger(OFF_HEAP_PROPERTY, 0) * (long) MB;
+        if (offHeapCapacity > 0) {
+            try {
+                m_offHeap = new LCOffHeapTileStore(offHeapCapacity, this::createRaster,
+                                                   useDisk ? this::spillFromOffHeap : null);
+            } catch (UnsatisfiedLinkError e) {
+                logger.error("Failed to create off-heap tile store", e);
+            }
+        }
 
         if (useDisk) {
             m_objectCache = createDiskCache();
+            if (m_objectCache != null) {
+                m_spiller = new LCTileSpiller(this::spillTileToDisk,
+                                              this::removeTileFromDisk,
+                                              SPILL_QUEUE_CAPACITY);
+                m_compactor = new CacheCompactor(m_objectCache,
+                                                 COMPACTION_THRESHOLD);
+            }
+        }
+
+        TileReaper.register( this );
+    }
+
+    private static int segmentCountFor(int concurrencyLevel) {
+        final int n = Math.min(Math.max(concurrencyLevel, 1) * 4, MAX_SEGMENTS);
+        return Integer.highestOneBit(n * 2 - 1);
+    }
+
+    private Segment segmentFor(long key) {
+        // Fibonacci hashing: the top bits pick the segment, while LCTileMap
+        // indexes its table with a different mix of the same key.
+        return segments[(int) ((key * 0x9E3779B97F4A7C15L) >>> segmentShift)];
+    }
 
-            m_tileReaper = new TileReaper( this );
-            m_tileReaper.start();
+    /**
+     * A lock stripe of the tile cache.  Each segment keeps its own tiles in
+     * access order and its own GreedyDual-Size inflation value.  The lock
+     * counts how often it had to wait for another thread, for diagnostics.
+     */
+    private static final class Segment {
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /** The tiles in this segment in access order, guarded by lock. */
+        final LCTileMap tiles;
+
+        /** The memory used by the tiles in this segment, guarded by lock. */
+        long memoryUsed = 0;
+
+        /** The priority of the last evicted tile, guarded by lock. */
+        double inflation = 0;
+
+        final LongAdder acquisitions = new LongAdder();
+        final LongAdder contentions = new LongAdder();
+
+        Segment(int initialCapacity) {
+            tiles = new LCTileMap(initialCapacity);
+        }
+
+        void lock() {
+            if (!lock.tryLock()) {
+                contentions.increment();
+                lock.lock();
+            }
+            acquisitions.increment();
+        }
+
+        void unlock() {
+            lock.unlock();
+        }
+
+        /** Sets the priority of a tile that has just been added or used. */
+        void touch(LCCachedTile ct) {
+            ct.priority = inflation + (double) ct.computeCost / Math.max(ct.tileSize, 1);
+        }
+
+        /**
+         * Returns the tile with the lowest priority among the least recently
+         * used ones, or <code>null</code> if the segment is empty.
+         */
+        LCCachedTile victim() {
+            LCCachedTile victim = tiles.eldest();
+            int n = 1;
+            for (LCCachedTile ct = victim; ct != null && n <= EVICTION_WINDOW; ct = ct.after, n++) {
+                if (ct.priority < victim.priority) {
+                    victim = ct;
+                }
+            }
+            return victim;
         }
     }
 
@@ -225,62 +405,68 @@ public final class LCTileCache extends Observable
      * @param tileCacheMetric  Metric for prioritizing tiles
      */
     @Override
-    public synchronized void add(RenderedImage owner,
-                                 int tileX,
-                                 int tileY,
-                                 Raster tile,
-                                 Object tileCacheMetric) {
+    public void add(RenderedImage owner,
+                    int tileX,
+                    int tileY,
+                    Raster tile,
+                    Object tileCacheMetric) {
 
         if ( memoryCapacity == 0 ) {
             return;
         }
 
+        // The cost of the tile is the time the scheduler took to compute it,
+        // unless the caller passed one.
+        long cost = LCTileScheduler.takeComputeTime(owner, tileX, tileY);
+        if (cost < 0) {
+            cost = tileCacheMetric instanceof Number
+                    ? ((Number) tileCacheMetric).longValue()
+                    : 0;
+        }
+
         // This tile is not in the cache; create a new LCCachedTile.
         // else just update.
-        Object key = LCCachedTile.hashKey(owner, tileX, tileY);
-        final LCCachedTile ct;
-        if (cachedObject.containsKey(key)) {
-            ct = cachedObject.get(key);
-            updateTileList(ct, UPDATE_FROM_ADD);
-        } else {
-            // create a new tile
-            ct = new LCCachedTile(owner, tileX, tileY, tile, tileCacheMetric);
+        final LCTileOwner handle = LCTileOwner.of(owner);
+        final int tileIndex = LCCachedTile.tileIndex(owner, tileX, tileY);
+        final long key = LCCachedTile.hashKey(handle.id, tileIndex);
+        final Segment segment = segmentFor(key);
+        LCCachedTile added = null;
+        segment.lock();
+        try {
+            final LCCachedTile ct = segment.tiles.get(key);
+            if (ct != null) {
+                updateTileList(segment, ct, UPDATE_FROM_ADD);
+            } else {
+                // create a new tile
+                added = new LCCachedTile(handle, tileX, tileY, tile, tileCacheMetric, cost, key);
+
+                // add to tile cache
+                segment.tiles.put(added);
+                segment.memoryUsed += added.tileSize;
+                updateTileList(segment, added, ADD);
+            }
+        } finally {
+            segment.unlock();
+        }
 
-            // add to tile cache
-            cachedObject.put(ct.key, ct);
-            updateTileList(ct, ADD);
-            cacheMemoryUsed += ct.tileSize;
+        if (added != null) {
+            cacheTileCount.incrementAndGet();
 
             // Bring memory usage down to memoryThreshold % of memory capacity.
-            if (cacheMemoryUsed > memoryCapacity) {
-                memoryControl();
+            if (cacheMemoryUsed.addAndGet(added.tileSize) > memoryCapacity) {
+                memoryControl(memoryThreshold, false);
             }
         }
 
-        if (m_tileReaper != null) {
-            // TODO: do we need this?
-            synchronized ( this ) {
-                Reference<RenderedImage> weakKey = null;
-
-                Set<Reference<RenderedImage>> keySet = m_imageMap.keySet();
-                for (Reference<RenderedImage> ref : keySet) {
-                    if (ref.get() == owner) {
-                        weakKey = ref;
-                        break;
-                    }
-                }
-
-                // weakKey = (WeakReference) m_weakRefMap.get(owner);
-
-                if (weakKey == null) {
-                    weakKey = new WeakReference<>( owner, m_tileReaper.getRefQ() );
-                    // m_weakRefMap.put(owner, weakKey);
+        if (added != null) {
+            // Index the tile under its owner, for removeTiles() and the reaper
+            m_owners.compute(handle, (h, tiles) -> {
+                if (tiles == null) {
+                    tiles = new BitSet();
                 }
-
-                Set<Object> hashKeys = m_imageMap.computeIfAbsent(weakKey, k -> new HashSet<>());
-
-                hashKeys.add(key);
-            }
+                tiles.set(tileIndex);
+                return tiles;
+            });
         }
     }
 
@@ -293,23 +479,37 @@ public final class LCTileCache extends Observable
         }
     }
 
-    private boolean removeFromTileList(Object key, int action) {
-        LCCachedTile ct = cachedObject.remove(key);
-        if (ct != null) {
-            removeTile(ct, action);
-            return true;
+    private boolean removeFromTileList(long key, int action) {
+        final Segment segment = segmentFor(key);
+        segment.lock();
+        try {
+            final LCCachedTile ct = segment.tiles.remove(key);
+            if (ct != null) {
+                removeTile(segment, ct, action);
+                return true;
+            }
+            return false;
+        } finally {
+            segment.unlock();
         }
-        return false;
     }
 
-    private void removeTile(@NotNull LCCachedTile ct, int action) {
-        cacheMemoryUsed -= ct.tileSize;
-            diagnosis(ct, action);
+    /// The caller must hold the segment lock and have unlinked the tile.
+    private void removeTile(@NotNull Segment segment, @NotNull LCCachedTile ct, int action) {
+        segment.memoryUsed -= ct.tileSize;
+        cacheMemoryUsed.addAndGet(-ct.tileSize);
+        cacheTileCount.decrementAndGet();
+        diagnosis(ct, action);
     }
 
-    private void updateTileList(LCCachedTile ct, int action) {
-        ct.tileTimeStamp = timeStamp++;
-        cacheHitCount++;
+    /// The caller must hold the segment lock.
+    private void updateTileList(Segment segment, LCCachedTile ct, int action) {
+        ct.tileTimeStamp = timeStamp.getAndIncrement();
+        segment.touch(ct);
+        cacheHitCount.increment();
+        if (action == UPDATE_FROM_GETTILE) {
+            recomputeTimeSaved.add(ct.computeCost);
+        }
         diagnosis(ct, action);
     }
 
@@ -320,32 +520,58 @@ public final class LCTileCache extends Observable
      * does nothing.
      */
     @Override
-    public synchronized void remove(RenderedImage owner,
-                                    int tileX,
-                                    int tileY) {
+    public void remove(RenderedImage owner,
+                       int tileX,
+                       int tileY) {
 
         if ( memoryCapacity == 0 ) {
             return;
         }
 
-        Object key = LCCachedTile.hashKey(owner, tileX, tileY);
-        LCCachedTile ct = cachedObject.get(key);
-
-        if ( ct != null ) {
-            // Notify observers that a tile is about to be removed.
-            // It is possible that the tile will be removed from the
-            // cache before the observers get notified.  This should
-            // be ok, since a hard reference to the tile will be
-            // kept for the observers, so the garbage collector won't
-            // remove the tile until the observers release it.
-            diagnosis(ct, ABOUT_TO_REMOVE);
-            removeFromTileList(key, REMOVE);
-        } else {
-            // if the tile is not in the memory cache than it might be on disk...
-            if (m_objectCache != null && m_objectCache.contains(key)) {
-                m_objectCache.remove(key);
-                tilesOnDisk--;
+        final LCTileOwner handle = LCTileOwner.of(owner);
+        final int tileIndex = LCCachedTile.tileIndex(owner, tileX, tileY);
+        final long key = LCCachedTile.hashKey(handle.id, tileIndex);
+        m_owners.computeIfPresent(handle, (h, tiles) -> {
+            tiles.clear(tileIndex);
+            return tiles.isEmpty() ? null : tiles;
+        });
+
+        final Segment segment = segmentFor(key);
+        boolean removed = false;
+        segment.lock();
+        try {
+            final LCCachedTile ct = segment.tiles.peek(key);
+            if ( ct != null ) {
+                // Notify observers that a tile is about to be removed.
+                // It is possible that the tile will be removed from the
+                // cache before the observers get notified.  This should
+                // be ok, since a hard reference to the tile will be
+                // kept for the observers, so the garbage collector won't
+                // remove the tile until the observers release it.
+                diagnosis(ct, ABOUT_TO_REMOVE);
+                segment.tiles.remove(key);
+                removeTile(segment, ct, REMOVE);
+                removed = true;
             }
+        } finally {
+            segment.unlock();
+        }
+
+        if (!removed) {
+            removeEvicted(key);
+        }
+    }
+
+    /**
+     * Removes a tile that is no longer in the memory cache.  It might be
+     * off the heap, on its way to disk, or on disk...
+     */
+    private void removeEvicted(long key) {
+        if (m_offHeap != null) {
+            m_offHeap.remove(key);
+        }
+        if (m_objectCache != null && m_spiller.take(key) == null) {
+            removeTileFromDisk(key);
         }
     }
 
@@ -361,35 +587,60 @@ public final class LCTileCache extends Observable
      * @param tileY  The tile's Y index within the image.
      */
     @Override
-    public synchronized Raster getTile(RenderedImage owner,
-                                       int tileX,
-                                       int tileY) {
+    public Raster getTile(RenderedImage owner,
+                          int tileX,
+                          int tileY) {
         if ( memoryCapacity == 0 )
             return null;
 
-        Object key = LCCachedTile.hashKey(owner, tileX, tileY);
-        LCCachedTile ct = cachedObject.get(key);
+        final long key = LCCachedTile.hashKey(owner, tileX, tileY);
+        final Segment segment = segmentFor(key);
+        LCCachedTile ct = lookup(segment, key);
 
-        if (m_objectCache != null && ct == null) {
-            Raster raster = readTileFromDisk(owner, tileX, tileY, key);
+        if (ct == null && (m_offHeap != null || m_objectCache != null)) {
+            // The tile may be off the heap or still be on its way to disk
+            LCCachedTile evicted = m_offHeap != null ? m_offHeap.take(key) : null;
+            if (evicted == null && m_objectCache != null) {
+                evicted = m_spiller.take(key);
+            }
+            final long start = System.nanoTime();
+            Raster raster = evicted != null
+                    ? evicted.getTile()
+                    : m_objectCache != null
+                            ? readTileFromDisk(owner, tileX, tileY, key)
+                            : null;
             if (raster != null) {
-                add(owner, tileX, tileY, raster, null);
-                ct = cachedObject.get(key);
-                assert ct != null;
+                // Weigh the tile by the cost of getting it again
+                add(owner, tileX, tileY, raster, evicted != null
+                        ? evicted.computeCost
+                        : System.nanoTime() - start);
+                ct = lookup(segment, key);
+                if (ct == null) {
+                    // Already evicted again by a concurrent memory control
+                    return raster;
+                }
             }
         }
 
-        Raster tile = null;
-
         if ( ct == null ) {
-            cacheMissCount++;
-        } else {    // found tile in cachedObject
-            tile = ct.getTile();
-
-            updateTileList(ct, UPDATE_FROM_GETTILE);
+            cacheMissCount.increment();
+            return null;
         }
+        // found tile in the cache
+        return ct.getTile();
+    }
 
-        return tile;
+    private LCCachedTile lookup(Segment segment, long key) {
+        segment.lock();
+        try {
+            final LCCachedTile ct = segment.tiles.get(key);
+            if (ct != null) {
+                updateTileList(segment, ct, UPDATE_FROM_GETTILE);
+            }
+            return ct;
+        } finally {
+            segment.unlock();
+        }
     }
 
     /**
@@ -402,15 +653,15 @@ public final class LCTileCache extends Observable
      *         <code>null</code> if there are none currently in the cache.
      */
     @Override
-    public synchronized Raster[] getTiles(RenderedImage owner) {
+    public Raster[] getTiles(RenderedImage owner) {
         Raster[] tiles = null;
 
         if ( memoryCapacity == 0 ) {
             return null;
         }
 
-        int size = Math.min(owner.getNumXTiles() * owner.getNumYTiles(),
-                            cachedObject.size());
+        long size = Math.min((long) owner.getNumXTiles() * owner.getNumYTiles(),
+                             getCacheTileCount());
 
         if ( size > 0 ) {
             int minTx = owner.getMinTileX();
@@ -449,15 +700,24 @@ public final class LCTileCache extends Observable
     @Override
     public void removeTiles(RenderedImage owner) {
         if ( memoryCapacity > 0 ) {
-            int minTx = owner.getMinTileX();
-            int minTy = owner.getMinTileY();
-            int maxTx = minTx + owner.getNumXTiles();
-            int maxTy = minTy + owner.getNumYTiles();
+            removeTiles(LCTileOwner.of(owner), REMOVE);
+        }
+    }
 
-            for (int y=minTy; y<maxTy; y++) {
-                for (int x=minTx; x<maxTx; x++) {
-                    remove(owner, x, y);
-                }
+    /**
+     * Removes all the tiles indexed under an owner, from memory and from
+     * disk, without walking the owner's tile grid.
+     */
+    private void removeTiles(LCTileOwner handle, int action) {
+        final BitSet tiles = m_owners.remove(handle);
+        if (tiles == null) {
+            return;
+        }
+        // Once unmapped, the bit set can no longer be modified by add()
+        for (int i = tiles.nextSetBit(0); i >= 0; i = tiles.nextSetBit(i + 1)) {
+            final long key = LCCachedTile.hashKey(handle.id, i);
+            if (!removeFromTileList(key, action)) {
+                removeEvicted(key);
             }
         }
     }
@@ -474,10 +734,10 @@ public final class LCTileCache extends Observable
      * @since 1.1
      */
     @Override
-    public synchronized void addTiles(RenderedImage owner,
-                                      Point[] tileIndices,
-                                      Raster[] tiles,
-                                      Object tileCacheMetric) {
+    public void addTiles(RenderedImage owner,
+                         Point[] tileIndices,
+                         Raster[] tiles,
+                         Object tileCacheMetric) {
 
         if ( memoryCapacity == 0 ) {
             return;
@@ -503,7 +763,7 @@ public final class LCTileCache extends Observable
      * @since 1.1
      */
     @Override
-    public synchronized Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
+    public Raster[] getTiles(RenderedImage owner, Point[] tileIndices) {
 
         if ( memoryCapacity == 0 ) {
             return null;
@@ -523,7 +783,7 @@ public final class LCTileCache extends Observable
 
     /** Removes -ALL- tiles from the cache. */
     @Override
-    public synchronized void flush() {
+    public void flush() {
         // Call the LCTileCacheListener, if one is defined.  This helps detect
         // low memory conditions.
         if (Listener != null) {
@@ -532,12 +792,13 @@ public final class LCTileCache extends Observable
         // NOTE: we don't do flushing for disk caches, it wipes the persistent cache, rather spill half of the cache out
         if (m_objectCache != null) {
             logger.warn("Flushing the in-memory tile cache while preserving disk cache");
-            float mt = memoryThreshold;
-            memoryThreshold = 0.1f;
-            memoryControl();
-            memoryThreshold = mt;
+            memoryControl(0.1f, true);
             return;
         }
+        m_owners.clear();
+        if (m_offHeap != null) {
+            m_offHeap.clear();
+        }
 
         //
         // It is necessary to clear all the elements
@@ -549,19 +810,21 @@ public final class LCTileCache extends Observable
         // to it in the hash map is null. It is not enough
         // to just set the object to null.
         //
-        cachedObject.forEach((key, ct) -> removeFromTileList(key, REMOVE_FROM_FLUSH));
-
-        // reset counters before diagnostics
-        cacheHitCount = 0;
-        cacheMissCount = 0;
-
-        if ( memoryCapacity > 0 ) {
-            cachedObject.clear();
+        for (Segment segment : segments) {
+            segment.lock();
+            try {
+                segment.tiles.forEach(ct -> removeTile(segment, ct, REMOVE_FROM_FLUSH));
+                segment.tiles.clear();
+            } finally {
+                segment.unlock();
+            }
         }
 
-        // force reset after diagnostics
-        timeStamp   = 0;
-        cacheMemoryUsed = 0;
+        // reset counters after diagnostics
+        cacheHitCount.reset();
+        cacheMissCount.reset();
+        recomputeTimeSaved.reset();
+        timeStamp.set(0);
 
         // no System.gc() here, it's too slow and may occur anyway.
     }
@@ -612,7 +875,7 @@ public final class LCTileCache extends Observable
 
         this.memoryCapacity = memoryCapacity;
 
-        if ( cacheMemoryUsed > memoryCapacity ) {
+        if ( cacheMemoryUsed.get() > memoryCapacity ) {
             memoryControl();
         }
     }
@@ -636,8 +899,57 @@ public final class LCTileCache extends Observable
      */
     @Override
     public void resetCounts() {
-        cacheHitCount = 0;
-        cacheMissCount = 0;
+        cacheHitCount.reset();
+        cacheMissCount.reset();
+        recomputeTimeSaved.reset();
+        final LCRecyclingTileFactory factory = tileFactory;
+        if (factory != null) {
+            factory.resetCounts();
+        }
+        for (Segment segment : segments) {
+            segment.acquisitions.reset();
+            segment.contentions.reset();
+        }
+    }
+
+    /**
+     * Sets the factory whose recycled tile arrays are given up along with
+     * cached tiles when memory is short, and whose allocation statistics
+     * are reported with the cache's.
+     */
+    public void setTileFactory(LCRecyclingTileFactory factory) {
+        tileFactory = factory;
+    }
+
+    /**
+     * Returns the number of lock stripes the cache is split into.
+     */
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    /**
+     * Returns, for each segment, how many times its lock has been acquired
+     * since the last call to <code>resetCounts()</code>.
+     */
+    public long[] getSegmentLockCounts() {
+        final long[] counts = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            counts[i] = segments[i].acquisitions.sum();
+        }
+        return counts;
+    }
+
+    /**
+     * Returns, for each segment, how many lock acquisitions had to wait for
+     * another thread since the last call to <code>resetCounts()</code>.
+     */
+    public long[] getSegmentContentionCounts() {
+        final long[] counts = new long[segments.length];
+        for (int i = 0; i < segments.length; i++) {
+            counts[i] = segments[i].contentions.sum();
+        }
+        return counts;
     }
 
     /**
@@ -668,44 +980,197 @@ public final class LCTileCache extends Observable
     /** Returns a string representation of the class object. */
     @Override
     public String toString() {
+        long contentions = 0;
+        for (long c : getSegmentContentionCounts()) {
+            contentions += c;
+        }
         return getClass().getName() + "@" + Integer.toHexString(hashCode()) +
                ": memoryCapacity = " + Long.toHexString(memoryCapacity) +
-               " cacheMemoryUsed = " + Long.toHexString(cacheMemoryUsed) +
-               " #tilesInCache = " + cachedObject.size();
+               " cacheMemoryUsed = " + Long.toHexString(cacheMemoryUsed.get()) +
+               " #tilesInCache = " + cacheTileCount.get() +
+               " #segments = " + segments.length +
+               " #contentions = " + contentions +
+               " recomputeTimeSaved = " + getRecomputeTimeSaved() + " ms" +
+               (tileFactory == null ? "" :
+                " tileReuse = " + String.format("%.0f%%", tileFactory.getReuseRate() * 100) +
+                " tileAllocation = " + String.format("%.1f MB/s", tileFactory.getAllocationRate() / MB) +
+                " recycledMemory = " + tileFactory.getMemoryUsed() / MB + " MB") +
+               (m_offHeap == null ? "" :
+                " offHeapMemoryUsed = " + m_offHeap.getMemoryUsed() / MB + "/" +
+                                          m_offHeap.getCapacity() / MB + " MB" +
+                " #tilesOffHeap = " + m_offHeap.getTileCount() +
+                " offHeapHits = " + m_offHeap.getHitCount() + "/" + m_offHeap.getStoredCount()) +
+               (m_broker == null ? "" :
+                " #tilesOnDisk = " + tilesOnDisk() +
+                " spillCompression = " + String.format("%.2f", spillCompressionRatio()) +
+                " spillThroughput = " + String.format("%.0f/%.0f MB/s",
+                                                      spillCompressionThroughput(),
+                                                      spillDecompressionThroughput()) +
+                " spillFileFragmentation = " + String.format("%.2f", spillFileFragmentation()) +
+                " #spillFileFreeBlocks = " + spillFileFreeBlocks());
     }
 
     /**
-     * Removes tiles from the cache based on their last-access time
-     * (old to new) until the memory usage is memoryThreshold % of that of the
+     * Removes tiles from the cache based on their recompute cost and
+     * last-access time until the memory usage is memoryThreshold % of that of the
      * memory capacity.
      */
     @Override
-    public synchronized void memoryControl() {
-        long limit = (long)(memoryCapacity * memoryThreshold);
+    public void memoryControl() {
+        memoryControl(memoryThreshold, true);
+    }
 
-        final var iter = cachedObject.entrySet().iterator();
-        while (iter.hasNext() && cacheMemoryUsed > limit) {
-            final var eldestEntry = iter.next();
-            final Object eldestKey = eldestEntry.getKey();
-            final LCCachedTile ct = eldestEntry.getValue();
+    /**
+     * Removes tiles from the cache until the memory usage is
+     * <code>threshold</code> % of the memory capacity.  Each segment gives up
+     * its share of the excess, picking each victim by its GreedyDual-Size
+     * priority among its least recently used tiles.
+     *
+     * @param threshold The fraction of the memory capacity to keep.
+     * @param wait      If <code>false</code>, return at once when another
+     *                  thread is already bringing the memory usage down.
+     */
+    private void memoryControl(float threshold, boolean wait) {
+        if (wait) {
+            memoryControlLock.lock();
+        } else if (!memoryControlLock.tryLock()) {
+            return;
+        }
+        try {
+            final long limit = (long)(memoryCapacity * threshold);
+            final long used = cacheMemoryUsed.get();
+            if (used <= limit) {
+                return;
+            }
 
-            if (ct != null) {
-                if (m_objectCache != null) {
-                    RenderedImage owner = ct.getOwner();
-                    if (owner != null && owner.getProperty(JAIContext.PERSISTENT_CACHE_TAG) == Boolean.TRUE) {
-                        writeTileToDisk(ct, eldestKey);
+            // Idle recycled arrays are the cheapest memory to give back
+            final LCRecyclingTileFactory factory = tileFactory;
+            if (factory != null) {
+                factory.trim((long) (factory.getBudget() * threshold));
+            }
+            final double keep = (double) limit / used;
+
+            // Tiles to spill that didn't fit in the spill queue, or to move
+            // off the heap
+            final List<LCCachedTile> deferred = new ArrayList<>();
+
+            for (Segment segment : segments) {
+                segment.lock();
+                try {
+                    final long segmentLimit = (long) (segment.memoryUsed * keep);
+                    LCCachedTile ct;
+                    while (segment.memoryUsed > segmentLimit
+                            && (ct = segment.victim()) != null) {
+                        segment.inflation = ct.priority;
+                        if (m_offHeap != null) {
+                            deferred.add(ct);
+                        } else if (m_objectCache != null) {
+                            RenderedImage owner = ct.getOwner();
+                            if (owner != null && owner.getProperty(JAIContext.PERSISTENT_CACHE_TAG) == Boolean.TRUE
+                                    && !m_spiller.offer(ct)) {
+                                deferred.add(ct);
+                            }
+                        }
+                        segment.tiles.remove(ct.key);
+                        removeTile(segment, ct, REMOVE_FROM_MEMCON);
                     }
+                } finally {
+                    segment.unlock();
                 }
-                removeTile(ct, REMOVE_FROM_MEMCON);
+
+                // Wait for room in the spill queue, or copy the tiles off
+                // the heap, without holding the segment lock, so other
+                // threads can still use the segment.
+                for (LCCachedTile ct : deferred) {
+                    if (m_offHeap != null) {
+                        moveOffHeap(ct);
+                    } else {
+                        m_spiller.put(ct);
+                    }
+                }
+                deferred.clear();
             }
-            iter.remove();
+        } finally {
+            memoryControlLock.unlock();
         }
     }
 
-    private static class TileCacheCacheObjectBroker implements CacheObjectBroker {
+    /**
+     * Encodes tile data arrays for the disk cache.  Each tile is encoded as
+     * an 8-byte header followed either by its samples compressed by a
+     * {@link CacheCodec}, or by its raw samples when they don't compress by
+     * at least 1/16th.  Before compression, each sample is replaced by its
+     * difference from the sample <i>stride</i> elements before, the stride
+     * that best fits the tile's band interleaving being picked from a
+     * sample of the tile, and the bytes of multi-byte samples are split into
+     * planes, so that smooth gradients and flat areas become long runs.
+     */
+    static final class TileCacheCacheObjectBroker implements CacheObjectBroker {
+
+        private static final int HEADER_SIZE = 8;
+
+        private static final byte RAW = 0;
+        private static final byte PACKED = 1;
+
+        /** The largest stride tried when picking one. */
+        private static final int MAX_STRIDE = 4;
+
+        /** The number of samples looked at to pick a stride. */
+        private static final int STRIDE_SAMPLE = 4096;
+
+        private final CacheCodec codec;
+
+        // Per-thread scratch arrays for the filtered and packed bytes
+        private final ThreadLocal<byte[]> filteredBytes = new ThreadLocal<>();
+        private final ThreadLocal<byte[]> packedBytes = new ThreadLocal<>();
+
+        // Statistics
+        private final LongAdder rawBytes = new LongAdder();
+        private final LongAdder storedBytes = new LongAdder();
+        private final LongAdder rawTiles = new LongAdder();
+        private final LongAdder encodeNanos = new LongAdder();
+        private final LongAdder decodedBytes = new LongAdder();
+        private final LongAdder decodeNanos = new LongAdder();
+
+        /**
+         * @param codec The codec to compress tiles with, or <code>null</code>
+         *              to store all tiles raw.
+         */
+        TileCacheCacheObjectBroker(CacheCodec codec) {
+            this.codec = codec;
+        }
+
+        /** Returns the raw size of the written tiles over their stored size. */
+        double getCompressionRatio() {
+            final long stored = storedBytes.sum();
+            return stored > 0 ? (double) rawBytes.sum() / stored : 1;
+        }
+
+        /** Returns the number of tiles stored raw. */
+        long getRawTileCount() {
+            return rawTiles.sum();
+        }
+
+        /** Returns the raw tile bytes encoded per second, in MB. */
+        double getEncodeThroughput() {
+            return megabytesPerSecond(rawBytes.sum(), encodeNanos.sum());
+        }
+
+        /** Returns the raw tile bytes decoded per second, in MB. */
+        double getDecodeThroughput() {
+            return megabytesPerSecond(decodedBytes.sum(), decodeNanos.sum());
+        }
+
+        private static double megabytesPerSecond(long bytes, long nanos) {
+            return nanos > 0 ? bytes * 1e9 / nanos / MB : 0;
+        }
 
         @Override
         public int getEncodedSizeOf( Object obj ) {
+            return HEADER_SIZE + rawSizeOf(obj);
+        }
+
+        private static int rawSizeOf( Object obj ) {
             if ( obj instanceof byte[] ) {
                 final byte[] ba = (byte[])obj;
                 return ba.length;
@@ -721,47 +1186,120 @@ public final class LCTileCache extends Observable
                 );
         }
 
-        // TODO: cache the ByteBuffer with a soft reference
-
         @Override
         public Object decodeFromByteBuffer( ByteBuffer buf, Object obj ) {
+            final long start = System.nanoTime();
+            final int rawSize = rawSizeOf(obj);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            final byte type = buf.get(0);
+            final int stride = buf.get(1);
+            final int payloadSize = buf.getInt(4);
+            if ( payloadSize < 0 || payloadSize > buf.limit() - HEADER_SIZE
+                 || (type == RAW && payloadSize != rawSize)
+                 || (type == PACKED && (stride < 1 || stride > MAX_STRIDE)) )
+                throw new CacheIOException(new IOException("corrupt tile header"));
+            buf.position(HEADER_SIZE);
+            if ( type == RAW ) {
+                decodeRaw(buf, obj, rawSize);
+            } else if ( type == PACKED && codec != null ) {
+                final byte[] packed = scratch(packedBytes, payloadSize);
+                final byte[] filtered = scratch(filteredBytes, rawSize);
+                buf.get(packed, 0, payloadSize);
+                try {
+                    codec.decompress(packed, payloadSize, filtered, rawSize);
+                } catch ( IllegalArgumentException e ) {
+                    throw new CacheIOException(new IOException("corrupt tile", e));
+                }
+                unfilter(filtered, obj, stride);
+            } else
+                throw new CacheIOException(
+                    new IOException("unknown tile encoding " + type)
+                );
+            buf.position(0);
+            decodedBytes.add(rawSize);
+            decodeNanos.add(System.nanoTime() - start);
+            return obj;
+        }
+
+        @Override
+        public void encodeToByteBuffer( ByteBuffer buf, Object obj ) {
+            final long start = System.nanoTime();
+            final int rawSize = rawSizeOf(obj);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            buf.position(HEADER_SIZE);
+
+            int stride = 0;
+            int packedSize = -1;
+            if ( codec != null ) {
+                final byte[] filtered = scratch(filteredBytes, rawSize);
+                final byte[] packed = scratch(packedBytes, rawSize);
+                stride = filter(obj, filtered);
+                packedSize = codec.compress(filtered, rawSize, packed,
+                                            rawSize - rawSize / 16);
+                if ( packedSize >= 0 )
+                    buf.put(packed, 0, packedSize);
+            }
+            final int payloadSize;
+            if ( packedSize >= 0 ) {
+                buf.put(0, PACKED);
+                payloadSize = packedSize;
+            } else {
+                encodeRaw(buf, obj, rawSize);
+                buf.put(0, RAW);
+                payloadSize = rawSize;
+                rawTiles.increment();
+            }
+            buf.put(1, (byte) stride);
+            buf.putShort(2, (short) 0);
+            buf.putInt(4, payloadSize);
+
+            // Only the used part of the buffer gets written to the store.
+            buf.limit(HEADER_SIZE + payloadSize);
+            buf.position(0);
+
+            rawBytes.add(rawSize);
+            storedBytes.add(HEADER_SIZE + payloadSize);
+            encodeNanos.add(System.nanoTime() - start);
+        }
+
+        private static void decodeRaw( ByteBuffer buf, Object obj, int rawSize ) {
+            final int offset = buf.hasArray() ? buf.arrayOffset() + HEADER_SIZE : 0;
             if ( obj instanceof byte[] )
                 if ( buf.hasArray() )
-                    LCArrays.copy( buf.array(), 0, (byte[])obj, 0, buf.capacity() );
+                    LCArrays.copy( buf.array(), offset, (byte[])obj, 0, rawSize );
                 else
                     buf.get( (byte[])obj );
             else if ( obj instanceof short[] )
                 if ( buf.hasArray() )
-                    LCArrays.copy( buf.array(), 0, (short[])obj, 0, buf.capacity() );
+                    LCArrays.copy( buf.array(), offset, (short[])obj, 0, rawSize );
                 else
                     buf.asShortBuffer().get( (short[])obj );
             else if ( obj instanceof int[] )
                 if ( buf.hasArray() )
-                    LCArrays.copy( buf.array(), 0, (int[])obj, 0, buf.capacity() );
+                    LCArrays.copy( buf.array(), offset, (int[])obj, 0, rawSize );
                 else
                     buf.asIntBuffer().get( (int[])obj );
             else
                 throw new IllegalArgumentException(
                     "can't decode " + obj.getClass()
                 );
-            return obj;
         }
 
-        @Override
-        public void encodeToByteBuffer( ByteBuffer buf, Object obj ) {
+        private static void encodeRaw( ByteBuffer buf, Object obj, int rawSize ) {
+            final int offset = buf.hasArray() ? buf.arrayOffset() + HEADER_SIZE : 0;
             if ( obj instanceof byte[] )
                 if ( buf.hasArray() )
-                    LCArrays.copy( (byte[])obj, 0, buf.array(), 0, buf.capacity() );
+                    LCArrays.copy( (byte[])obj, 0, buf.array(), offset, rawSize );
                 else
                     buf.put( (byte[])obj );
             else if ( obj instanceof short[] )
                 if ( buf.hasArray() )
-                    LCArrays.copy( (short[])obj, 0, buf.array(), 0, buf.capacity() );
+                    LCArrays.copy( (short[])obj, 0, buf.array(), offset, rawSize );
                 else
                     buf.asShortBuffer().put( (short[])obj );
             else if ( obj instanceof int[] )
                 if ( buf.hasArray() )
-                    LCArrays.copy( (int[])obj, 0, buf.array(), 0, buf.capacity() );
+                    LCArrays.copy( (int[])obj, 0, buf.array(), offset, rawSize );
                 else
                     buf.asIntBuffer().put( (int[])obj );
             else
@@ -769,6 +1307,98 @@ public final class LCTileCache extends Observable
                     "can't encode " + obj.getClass()
                 );
         }
+
+        private static byte[] scratch( ThreadLocal<byte[]> local, int size ) {
+            byte[] bytes = local.get();
+            if ( bytes == null || bytes.length < size ) {
+                bytes = new byte[size];
+                local.set(bytes);
+            }
+            return bytes;
+        }
+
+        /**
+         * Delta-codes the samples of a tile with the stride that gives the
+         * smallest differences, and splits the bytes of each difference into
+         * planes.
+         *
+         * @return Returns the stride.
+         */
+        private static int filter( Object obj, byte[] out ) {
+            if ( obj instanceof byte[] ) {
+                final byte[] a = (byte[])obj;
+                final int s = pickStride(a.length, i -> a[i] & 0xFF);
+                for ( int i = 0; i < a.length; i++ )
+                    out[i] = (byte)(a[i] - (i >= s ? a[i - s] : 0));
+                return s;
+            } else if ( obj instanceof short[] ) {
+                final short[] a = (short[])obj;
+                final int n = a.length;
+                final int s = pickStride(n, i -> a[i] & 0xFFFF);
+                for ( int i = 0; i < n; i++ ) {
+                    final int d = a[i] - (i >= s ? a[i - s] : 0);
+                    out[i] = (byte)d;
+                    out[n + i] = (byte)(d >> 8);
+                }
+                return s;
+            } else {
+                final int[] a = (int[])obj;
+                final int n = a.length;
+                final int s = pickStride(n, i -> a[i]);
+                for ( int i = 0; i < n; i++ ) {
+                    final int d = a[i] - (i >= s ? a[i - s] : 0);
+                    out[i] = (byte)d;
+                    out[n + i] = (byte)(d >> 8);
+                    out[2 * n + i] = (byte)(d >> 16);
+                    out[3 * n + i] = (byte)(d >> 24);
+                }
+                return s;
+            }
+        }
+
+        /** Undoes {@link #filter(Object, byte[])}. */
+        private static void unfilter( byte[] in, Object obj, int s ) {
+            if ( obj instanceof byte[] ) {
+                final byte[] a = (byte[])obj;
+                for ( int i = 0; i < a.length; i++ )
+                    a[i] = (byte)(in[i] + (i >= s ? a[i - s] : 0));
+            } else if ( obj instanceof short[] ) {
+                final short[] a = (short[])obj;
+                final int n = a.length;
+                for ( int i = 0; i < n; i++ ) {
+                    final int d = (in[i] & 0xFF) | (in[n + i] & 0xFF) << 8;
+                    a[i] = (short)(d + (i >= s ? a[i - s] : 0));
+                }
+            } else {
+                final int[] a = (int[])obj;
+                final int n = a.length;
+                for ( int i = 0; i < n; i++ ) {
+                    final int d = (in[i] & 0xFF) | (in[n + i] & 0xFF) << 8
+                                | (in[2 * n + i] & 0xFF) << 16 | in[3 * n + i] << 24;
+                    a[i] = d + (i >= s ? a[i - s] : 0);
+                }
+            }
+        }
+
+        /**
+         * Picks the stride, up to {@link #MAX_STRIDE}, for which the first
+         * samples of a tile differ the least.
+         */
+        private static int pickStride( int length, IntUnaryOperator sample ) {
+            final int n = Math.min(length, STRIDE_SAMPLE);
+            int best = 1;
+            long bestSum = Long.MAX_VALUE;
+            for ( int s = 1; s <= MAX_STRIDE; s++ ) {
+                long sum = 0;
+                for ( int i = s; i < n; i++ )
+                    sum += Math.abs((long) sample.applyAsInt(i) - sample.applyAsInt(i - s));
+                if ( sum < bestSum ) {
+                    best = s;
+                    bestSum = sum;
+                }
+            }
+            return best;
+        }
     }
 
     static class CacheFileFilter implements FilenameFilter {
@@ -789,8 +1419,24 @@ public final class LCTileCache extends Observable
 
     private final static String CacheDirKey = "ScratchDirectory";
 
+    /**
+     * The system property to pick the store of the disk cache: "direct" for
+     * the original {@link DirectFileCacheStore}, which serializes all I/O, or
+     * else a {@link MappedFileCacheStore}, which reads concurrently.
+     */
+    private final static String STORE_PROPERTY = "lightcrafts.tileCache.store";
+
+    /**
+     * The system property to set the size, in MB, of the store that keeps
+     * evicted tiles outside of the Java heap before they are dropped or
+     * written to disk; 0, the default, to not use one.
+     */
+    private final static String OFF_HEAP_PROPERTY = "lightcrafts.tileCache.offHeapMB";
+
     private File tmpFile = null;
 
+    private TileCacheCacheObjectBroker m_broker;
+
     private Cache createDiskCache() {
         try {
             // Try creating the temp file in the user-specified location
@@ -818,15 +1464,19 @@ public final class LCTileCache extends Observable
             final long extraCacheSize = getExtraCacheSize();
             logger.debug("Allocating {} MB for the image cache.", extraCacheSize / MB);
 
+            m_broker = new TileCacheCacheObjectBroker(LZCacheCodec.INSTANCE);
             return new Cache(
-                new TileCacheCacheObjectBroker(),
-                extraCacheSize < 128 * MB ?
+                m_broker,
+                // Evicted tiles already wait off the heap in front of the disk
+                extraCacheSize < 128 * MB || m_offHeap != null ?
                     new WriteThroughCacheObjectMap() :
                     new LRUCacheObjectMap(
                         new NativeByteBufferAllocator( CHUNK_SIZE ), extraCacheSize
                     ),
-                new DirectFileCacheStore( tmpFile ),
-                new CoalescingFreeBlockManager()
+                "direct".equals(System.getProperty(STORE_PROPERTY)) ?
+                    new DirectFileCacheStore( tmpFile ) :
+                    new MappedFileCacheStore( tmpFile ),
+                new BestFitFreeBlockManager()
             );
         }
         catch ( IOException e ) {
@@ -835,6 +1485,35 @@ public final class LCTileCache extends Observable
         }
     }
 
+    /**
+     * Moves an evicted tile off the heap.  Tiles of persistent images that
+     * don't fit off the heap, or are evicted from there, go to disk.
+     */
+    private void moveOffHeap(LCCachedTile ct) {
+        final RenderedImage owner = ct.getOwner();
+        if (owner == null) {
+            return;
+        }
+        final boolean persistent =
+                owner.getProperty(JAIContext.PERSISTENT_CACHE_TAG) == Boolean.TRUE;
+        if (!m_offHeap.put(ct, persistent) && persistent && m_objectCache != null) {
+            m_spiller.put(ct);
+        }
+    }
+
+    private void spillFromOffHeap(LCCachedTile ct) {
+        if (m_objectCache != null) {
+            m_spiller.put(ct);
+        }
+    }
+
+    private WritableRaster createRaster(SampleModel sampleModel, Point location) {
+        final LCRecyclingTileFactory factory = tileFactory;
+        return factory != null
+                ? factory.createTile(sampleModel, location)
+                : Raster.createWritableRaster(sampleModel, location);
+    }
+
     private static long getExtraCacheSize() {
         final int defaultMemorySize = MemoryLimits.getDefault();
         final var prefs = Preferences.userRoot().node("/com/lightcrafts/app");
@@ -847,34 +1526,107 @@ public final class LCTileCache extends Observable
 
     private static final int CHUNK_SIZE = 16 * MB;
 
+    /** The most memory used by tiles waiting to be written to disk. */
+    private static final long SPILL_QUEUE_CAPACITY = 64 * MB;
+
+    /** The share of the cache file that may be free before it's compacted. */
+    private static final double COMPACTION_THRESHOLD = 0.25;
+
     public synchronized void dispose() throws IOException {
-        m_objectCache.dispose();
+        if (m_offHeap != null) {
+            m_offHeap.dispose();
+        }
+        if (m_objectCache != null) {
+            // The writer must be done before the disk cache goes away
+            m_spiller.stop();
+            m_compactor.stop();
+            m_objectCache.dispose();
+        }
 
         // Close and delete the old cache file
-        if (m_tileReaper != null)
-            m_tileReaper.kill();
+        TileReaper.unregister( this );
 
         if (tmpFile != null)
             tmpFile.delete();
     }
 
-    private long tilesWritten = 0;
-    private long tilesRead = 0;
-    private long tilesOnDisk = 0;
+    private final AtomicLong tilesWritten = new AtomicLong();
+    private final AtomicLong tilesRead = new AtomicLong();
+    private final AtomicLong tilesOnDisk = new AtomicLong();
 
     public long tilesWritten() {
-        return tilesWritten;
+        return tilesWritten.get();
     }
 
     public long tilesRead() {
-        return tilesRead;
+        return tilesRead.get();
     }
 
     public long tilesOnDisk() {
-        return tilesOnDisk;
+        return tilesOnDisk.get();
+    }
+
+    /**
+     * Returns the raw size of the tiles written to disk over the size they
+     * take on disk.
+     */
+    public double spillCompressionRatio() {
+        return m_broker != null ? m_broker.getCompressionRatio() : 1;
+    }
+
+    /** Returns the number of tiles written to disk uncompressed. */
+    public long tilesSpilledRaw() {
+        return m_broker != null ? m_broker.getRawTileCount() : 0;
+    }
+
+    /** Returns the speed of compressing tiles for disk, in MB/s. */
+    public double spillCompressionThroughput() {
+        return m_broker != null ? m_broker.getEncodeThroughput() : 0;
+    }
+
+    /** Returns the speed of decompressing tiles from disk, in MB/s. */
+    public double spillDecompressionThroughput() {
+        return m_broker != null ? m_broker.getDecodeThroughput() : 0;
+    }
+
+    /** Returns the number of tiles waiting to be written to disk. */
+    public long tilesSpilling() {
+        return m_spiller != null ? m_spiller.size() : 0;
+    }
+
+    /**
+     * Returns how many times memory control had to wait for the disk
+     * because too many tiles were waiting to be written.
+     */
+    public long spillStalls() {
+        return m_spiller != null ? m_spiller.getStallCount() : 0;
+    }
+
+    /** Returns the share of the cache file that is free space. */
+    public double spillFileFragmentation() {
+        return m_objectCache != null ? m_objectCache.getFragmentation() : 0;
+    }
+
+    /** Returns the number of free blocks in the cache file. */
+    public int spillFileFreeBlocks() {
+        return m_objectCache != null
+                ? m_objectCache.getFreeBlockManager().getFreeBlockCount()
+                : 0;
+    }
+
+    /** Returns the size of the largest free block in the cache file. */
+    public int spillFileLargestFreeBlock() {
+        return m_objectCache != null
+                ? m_objectCache.getFreeBlockManager().getLargestFreeBlockSize()
+                : 0;
     }
 
-    private Raster readTileFromDisk(RenderedImage owner, int tileX, int tileY, Object key) {
+    /** Returns how many times the cache file was compacted. */
+    public long spillFileCompactions() {
+        return m_compactor != null ? m_compactor.getCompactionCount() : 0;
+    }
+
+    private Raster readTileFromDisk(RenderedImage owner, int tileX, int tileY, long key) {
         if (m_objectCache.contains(key)) {
             SampleModel sm = owner.getSampleModel();
             DataBuffer db = sm.createDataBuffer();
@@ -896,11 +1648,10 @@ public final class LCTileCache extends Observable
                     default:
                         throw new IllegalArgumentException("unsupported image type " + db.getClass());
                 }
-                synchronized (this) {
-                    tilesOnDisk--;
-                }
-            } catch (IOException e) {
+                tilesOnDisk.decrementAndGet();
+            } catch (IOException | CacheIOException e) {
                 logger.warn("Failed to read tile from disk cache", e);
+                return null;
             }
 
             WritableRaster raster;
@@ -908,15 +1659,25 @@ public final class LCTileCache extends Observable
             raster = Raster.createWritableRaster(sm, db, new Point(
                     tileX * owner.getTileWidth(),
                     tileY * owner.getTileHeight()));
-            synchronized (this) {
-                tilesRead++;
-            }
+            tilesRead.incrementAndGet();
             return raster;
         } else
             return null;
     }
 
-    private void writeTileToDisk(LCCachedTile ct, Object key) {
+    /** Writes a tile to disk, replacing any older copy. */
+    private void spillTileToDisk(LCCachedTile ct) {
+        removeTileFromDisk(ct.key);
+        writeTileToDisk(ct, ct.key);
+    }
+
+    private void removeTileFromDisk(long key) {
+        if (m_objectCache.remove(key)) {
+            tilesOnDisk.decrementAndGet();
+        }
+    }
+
+    private void writeTileToDisk(LCCachedTile ct, long key) {
         Raster raster = ct.getTile();
         DataBuffer db = raster.getDataBuffer();
 
@@ -937,16 +1698,12 @@ public final class LCTileCache extends Observable
                 default:
                     throw new IllegalArgumentException("unsupported image type " + db.getClass());
             }
-            synchronized (this) {
-                tilesOnDisk++;
-            }
+            tilesOnDisk.incrementAndGet();
         } catch (IOException e) {
             logger.warn("Failed to write tile to disk cache", e);
         }
 
-        synchronized (this) {
-            tilesWritten++;
-        }
+        tilesWritten.incrementAndGet();
     }
 
     /**
@@ -969,25 +1726,14 @@ public final class LCTileCache extends Observable
         throw new UnsupportedOperationException("Comparator not supported");
     }
 
-    private synchronized void reap(Reference<? extends RenderedImage> weakKey) {
-        Set<Object> hashKeys = m_imageMap.remove(weakKey);
-        assert hashKeys != null;
-
-        for (Object o : hashKeys) {
-            removeFromTileList(o, REMOVE_FROM_GCEVENT);
-            if (m_objectCache.remove(o)) {
-                tilesOnDisk--;
-                // System.out.println("removed entry from disk cache");
-            }
-        }
-    }
-
     /**
      * A <code>TileReaper</code> is-a {@link Thread} that runs continuously and
      * asynchronously in the background waiting for {@link RenderedImage}s that
      * the Java garbage collector has determined are weakly reachable.  Once
      * that's the case, remove all of a {@link RenderedImage}'s associated
-     * tiles from the disk cache.
+     * tiles from the memory and disk caches.  A single reaper serves every
+     * <code>LCTileCache</code>, since the {@link LCTileOwner} handles are
+     * shared among them.
      */
     private static final class TileReaper extends Thread {
 
@@ -995,21 +1741,23 @@ public final class LCTileCache extends Observable
 
         /**
          * Run the thread: wait for a weakly reachable {@link RenderedImage} to
-         * become available and remove all of its tiles from the disk cache
+         * become available and remove all of its tiles from the caches
          * (if any).
          */
         @Override
         public void run() {
-            while ( !m_killed ) {
+            while ( true ) {
                 try {
                     // Image to be garbage collected
-                    final Reference<? extends RenderedImage> weakKey = m_refQ.remove();
+                    final LCTileOwner handle = LCTileOwner.awaitCollected();
 
-                    final LCTileCache tileCache = m_tileCacheRef.get();
-                    if (tileCache == null) {
-                        break;
+                    final LCTileCache[] tileCaches;
+                    synchronized ( m_tileCaches ) {
+                        tileCaches = m_tileCaches.toArray(new LCTileCache[0]);
+                    }
+                    for (LCTileCache tileCache : tileCaches) {
+                        tileCache.removeTiles(handle, REMOVE_FROM_GCEVENT);
                     }
-                    tileCache.reap(weakKey);
                 }
                 catch ( InterruptedException e ) {
                     // do nothing
@@ -1020,60 +1768,51 @@ public final class LCTileCache extends Observable
         ////////// package ////////////////////////////////////////////////////
 
         /**
-         * Construct a <code>TileReaper</code> and make it a daemon.
-         */
-        TileReaper( LCTileCache tileCache ) {
-            super("TileReaper");
-            setDaemon( true );
-            m_refQ = new ReferenceQueue<>();
-            m_tileCacheRef = new WeakReference<>( tileCache );
-        }
-
-        /**
-         * Gets the {@link ReferenceQueue} being used.
-         *
-         * @return Returns said {@link ReferenceQueue}.
+         * Registers a cache with the reaper, starting it if needed.
          */
-        ReferenceQueue<RenderedImage> getRefQ() {
-            return m_refQ;
+        static synchronized void register( LCTileCache tileCache ) {
+            synchronized ( m_tileCaches ) {
+                m_tileCaches.add( tileCache );
+            }
+            if ( m_instance == null ) {
+                m_instance = new TileReaper();
+                m_instance.start();
+            }
         }
 
         /**
-         * Kill this thread.
+         * Unregisters a disposed cache.
          */
-        void kill() {
-            m_killed = true;
-            interrupt();
+        static void unregister( LCTileCache tileCache ) {
+            synchronized ( m_tileCaches ) {
+                m_tileCaches.remove( tileCache );
+            }
         }
 
         ////////// private ////////////////////////////////////////////////////
 
         /**
-         * A flag to indicate whether this thread has been killed.
+         * Construct a <code>TileReaper</code> and make it a daemon.
          */
-        private boolean m_killed;
+        private TileReaper() {
+            super("TileReaper");
+            setDaemon( true );
+        }
 
-        /**
-         * The {@link ReferenceQueue} wherein the Java garbage collector
-         * deposits objects that have become weakly reachable.
-         */
-        private final ReferenceQueue<RenderedImage> m_refQ;
+        private static TileReaper m_instance;
 
         /**
-         * A {@link WeakReference} to the owning {@link LCTileCache}.
-         * TODO: explain why this is needed instead of using an inner class.
+         * The registered caches, held weakly so that the reaper does not
+         * keep them alive.
          */
-        private final WeakReference<LCTileCache> m_tileCacheRef;
+        private static final Set<LCTileCache> m_tileCaches = new WeakHashSet<>();
     }
 
     /**
-     * This is a set of {@link WeakReference}s to {@link RenderedImage}s.
-     */
-    private final Map<Reference<RenderedImage>, Set<Object>> m_imageMap = new HashMap<>();
-
-    /**
-     * The {@link TileReaper} associated with this  <code>LCTileCache</code>.
+     * The cached tiles indexed by owner identity.  Each bit set holds the
+     * tile indices of an owner that are in memory or may have been spilled
+     * to disk.  Bit sets are only modified inside the map's compute methods.
      */
-    private TileReaper m_tileReaper;
+    private final Map<LCTileOwner, BitSet> m_owners = new ConcurrentHashMap<>();
 }
 /* vim:set et sw=4 ts=4: */
@@ -0,0 +1,394 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A work-stealing executor for the tile jobs of {@link LCTileScheduler}.
+ *
+ * <p> Each worker owns a deque per priority level.  A job is pushed onto
+ * the deque of a "home" worker chosen from its owner image and the 2x2 block
+ * of tiles it starts in, so that neighbouring tiles, which share source
+ * tiles and convolution halos, are computed by the same thread while they
+ * are still hot in the tile cache.  A worker takes jobs from the head of its
+ * own deque and, when that is empty, steals from the tail of another
+ * worker's deque, i.e. the work farthest from what that worker is doing.
+ *
+ * <p> Levels are served in strict order: a worker takes a {@link #PREFETCH}
+ * job only when no {@link #BLOCKING} or {@link #REQUEST} job is queued
+ * anywhere, and at most <code>prefetchParallelism</code> prefetch jobs run
+ * at once.  A worker runs prefetch jobs at the prefetch priority and all
+ * others at the normal one, so prefetching also yields the CPU to the rest
+ * of the application.
+ */
+final class LCTileExecutor {
+
+    private static final Logger logger = LoggerFactory.getLogger(LCTileExecutor.class);
+
+    /** The level of jobs for which a caller is blocked. */
+    static final int BLOCKING = 0;
+
+    /** The level of jobs for asynchronous tile requests. */
+    static final int REQUEST = 1;
+
+    /** The level of prefetch jobs. */
+    static final int PREFETCH = 2;
+
+    private static final int LEVELS = 3;
+
+    private final ThreadFactory threadFactory;
+
+    /** Guards worker creation and retirement, and parks idle workers. */
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition workAvailable = lock.newCondition();
+
+    /** The active workers, replaced as a whole when resized. */
+    private volatile Worker[] workers = new Worker[0];
+
+    /** The number of jobs queued at each level. */
+    private final AtomicInteger[] queued = new AtomicInteger[LEVELS];
+
+    /** The number of prefetch jobs running. */
+    private final AtomicInteger runningPrefetch = new AtomicInteger();
+
+    private volatile int prefetchParallelism;
+
+    private volatile int priority = Thread.NORM_PRIORITY;
+    private volatile int prefetchPriority = Thread.MIN_PRIORITY;
+
+    private volatile boolean shutdown;
+
+    private final LongAdder executedCount = new LongAdder();
+    private final LongAdder stealCount = new LongAdder();
+
+    LCTileExecutor(int parallelism, int prefetchParallelism,
+                   ThreadFactory threadFactory) {
+        this.threadFactory = threadFactory;
+        for (int level = 0; level < LEVELS; level++) {
+            queued[level] = new AtomicInteger();
+        }
+        setPrefetchParallelism(prefetchParallelism);
+        setParallelism(parallelism);
+    }
+
+    /**
+     * Queues a job.
+     *
+     * @param job The job to run.
+     * @param level The priority level of the job.
+     * @param owner The image the job computes tiles of.
+     * @param tileX The X index of the job's first tile.
+     * @param tileY The Y index of the job's first tile.
+     */
+    void execute(Runnable job, int level, Object owner, int tileX, int tileY) {
+        if (shutdown) {
+            throw new RejectedExecutionException("Tile executor shut down");
+        }
+        final Worker[] ws = workers;
+        final Worker home = ws[Math.floorMod(
+                home(owner, tileX >> 1, tileY >> 1), ws.length)];
+        home.queues[level].addLast(job);
+        queued[level].incrementAndGet();
+
+        // The worker may have retired after we read the array: rehome.
+        if (home.retired) {
+            rehome(home);
+        }
+        signal();
+    }
+
+    /**
+     * Removes a queued job.
+     *
+     * @return Returns <code>true</code> only if the job was still queued.
+     */
+    boolean remove(Runnable job) {
+        for (final Worker w : workers) {
+            for (int level = 0; level < LEVELS; level++) {
+                if (w.queues[level].removeFirstOccurrence(job)) {
+                    queued[level].decrementAndGet();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    int getParallelism() {
+        return workers.length;
+    }
+
+    /**
+     * Sets the number of workers, starting new ones or retiring surplus
+     * ones.  The jobs queued on a retired worker move to the others.  There
+     * is always at least one worker.
+     */
+    void setParallelism(int parallelism) {
+        parallelism = Math.max(parallelism, 1);
+        final Worker[] old;
+        lock.lock();
+        try {
+            old = workers;
+            if (parallelism == old.length || shutdown) {
+                return;
+            }
+            final Worker[] ws = Arrays.copyOf(old, parallelism);
+            for (int i = old.length; i < parallelism; i++) {
+                ws[i] = new Worker(i);
+                ws[i].thread.start();
+            }
+            workers = ws;
+            for (int i = parallelism; i < old.length; i++) {
+                old[i].retired = true;
+            }
+            workAvailable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        for (int i = parallelism; i < old.length; i++) {
+            rehome(old[i]);
+        }
+    }
+
+    int getPrefetchParallelism() {
+        return prefetchParallelism;
+    }
+
+    /** Sets the most prefetch jobs run at once, at least one. */
+    void setPrefetchParallelism(int parallelism) {
+        prefetchParallelism = Math.max(parallelism, 1);
+        signalAll();
+    }
+
+    /** Sets the thread priority for jobs other than prefetch jobs. */
+    void setPriority(int priority) {
+        this.priority = priority;
+    }
+
+    /** Sets the thread priority for prefetch jobs. */
+    void setPrefetchPriority(int priority) {
+        prefetchPriority = priority;
+    }
+
+    /** Returns the number of jobs queued at the given level. */
+    int getQueueDepth(int level) {
+        return queued[level].get();
+    }
+
+    /** Returns the number of jobs run since the executor was created. */
+    long getExecutedCount() {
+        return executedCount.sum();
+    }
+
+    /** Returns the number of jobs a worker took from another's deque. */
+    long getStealCount() {
+        return stealCount.sum();
+    }
+
+    /**
+     * Stops all workers, interrupting running jobs, and drops all queued
+     * jobs.
+     *
+     * @return Returns the jobs that never ran.
+     */
+    List<Runnable> shutdownNow() {
+        final List<Runnable> dropped = new ArrayList<>();
+        lock.lock();
+        try {
+            shutdown = true;
+            workAvailable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        for (final Worker w : workers) {
+            w.thread.interrupt();
+            for (int level = 0; level < LEVELS; level++) {
+                Runnable job;
+                while ((job = w.queues[level].pollFirst()) != null) {
+                    queued[level].decrementAndGet();
+                    dropped.add(job);
+                }
+            }
+        }
+        return dropped;
+    }
+
+    private static int home(Object owner, int blockX, int blockY) {
+        int h = System.identityHashCode(owner);
+        h = 31 * h + blockX;
+        h = 31 * h + blockY;
+        return h ^ (h >>> 16);
+    }
+
+    /** Moves the jobs queued on a retired worker to active ones. */
+    private void rehome(Worker retired) {
+        final Worker[] ws = workers;
+        for (int level = 0; level < LEVELS; level++) {
+            Runnable job;
+            int i = retired.index;
+            while ((job = retired.queues[level].pollFirst()) != null) {
+                ws[i++ % ws.length].queues[level].addLast(job);
+            }
+        }
+        signalAll();
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            workAvailable.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void signalAll() {
+        lock.lock();
+        try {
+            workAvailable.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean hasWork() {
+        return queued[BLOCKING].get() > 0
+            || queued[REQUEST].get() > 0
+            || (queued[PREFETCH].get() > 0
+                && runningPrefetch.get() < prefetchParallelism);
+    }
+
+    /**
+     * Takes the next job for a worker, blocking until there is one.
+     *
+     * @return Returns the job, or <code>null</code> if the worker should exit.
+     */
+    private Runnable take(Worker w) {
+        while (true) {
+            if (shutdown || w.retired) {
+                return null;
+            }
+            for (int level = 0; level < LEVELS; level++) {
+                if (queued[level].get() == 0) {
+                    continue;
+                }
+                if (level == PREFETCH && !reservePrefetch()) {
+                    break;
+                }
+                final Runnable job = find(w, level);
+                if (job != null) {
+                    w.level = level;
+                    return job;
+                }
+                if (level == PREFETCH) {
+                    runningPrefetch.decrementAndGet();
+                }
+            }
+            lock.lock();
+            try {
+                while (!shutdown && !w.retired && !hasWork()) {
+                    workAvailable.awaitUninterruptibly();
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /** Takes a job of the given level from the worker's or another's deque. */
+    private Runnable find(Worker w, int level) {
+        Runnable job = w.queues[level].pollFirst();
+        if (job == null) {
+            final Worker[] ws = workers;
+            for (int i = 1; i <= ws.length && job == null; i++) {
+                final Worker victim = ws[(w.index + i) % ws.length];
+                if (victim != w) {
+                    job = victim.queues[level].pollLast();
+                }
+            }
+            if (job != null) {
+                stealCount.increment();
+            }
+        }
+        if (job != null) {
+            queued[level].decrementAndGet();
+        }
+        return job;
+    }
+
+    private boolean reservePrefetch() {
+        while (true) {
+            final int running = runningPrefetch.get();
+            if (running >= prefetchParallelism) {
+                return false;
+            }
+            if (runningPrefetch.compareAndSet(running, running + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void work(Worker w) {
+        while (true) {
+            final Runnable job = take(w);
+            if (job == null) {
+                break;
+            }
+            final boolean isPrefetch = w.level == PREFETCH;
+            final int jobPriority = isPrefetch ? prefetchPriority : priority;
+            if (w.thread.getPriority() != jobPriority) {
+                w.thread.setPriority(jobPriority);
+            }
+            try {
+                job.run();
+            } catch (Throwable t) {
+                logger.error("Tile job failed", t);
+            } finally {
+                executedCount.increment();
+                if (isPrefetch) {
+                    runningPrefetch.decrementAndGet();
+                    signal();
+                }
+            }
+        }
+        rehome(w);
+    }
+
+    private final class Worker {
+        final int index;
+        final Thread thread;
+        @SuppressWarnings("unchecked")
+        final Deque<Runnable>[] queues = new Deque[LEVELS];
+        volatile boolean retired;
+        int level; // the level of the job being run
+
+        Worker(int index) {
+            this.index = index;
+            for (int level = 0; level < LEVELS; level++) {
+                queues[level] = new ConcurrentLinkedDeque<>();
+            }
+            thread = threadFactory.newThread(() -> work(this));
+            thread.setName("Tile Worker " + index);
+            thread.setDaemon(true);
+        }
+    }
+}
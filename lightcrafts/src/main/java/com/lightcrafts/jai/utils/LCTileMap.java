@@ -0,0 +1,226 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * An access-ordered hash map from primitive <code>long</code> tile keys to
+ * {@link LCCachedTile}s.
+ *
+ * <p> It plays the role of an access-ordered <code>LinkedHashMap</code> in
+ * {@link LCTileCache} without boxing the keys or allocating entries: the
+ * table is open-addressed with linear probing, and the recency list is
+ * threaded through the tiles themselves.  Looking up or touching a tile
+ * therefore allocates nothing.
+ *
+ * <p> This class is not thread-safe; each cache segment guards its own map.
+ */
+final class LCTileMap {
+
+    private static final float LOAD_FACTOR = 0.5F;
+
+    private long[] keys;
+    private LCCachedTile[] values;
+    private int size;
+    private int threshold;
+
+    /** The least recently used tile, or <code>null</code> if empty. */
+    private LCCachedTile head;
+
+    /** The most recently used tile, or <code>null</code> if empty. */
+    private LCCachedTile tail;
+
+    LCTileMap(int initialCapacity) {
+        int capacity = Integer.highestOneBit(
+            Math.max(16, (int) (initialCapacity / LOAD_FACTOR)) * 2 - 1);
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the tile having the given key and makes it the most recently
+     * used one, or returns <code>null</code>.
+     */
+    LCCachedTile get(long key) {
+        final LCCachedTile ct = peek(key);
+        if (ct != null && ct != tail) {
+            unlink(ct);
+            linkLast(ct);
+        }
+        return ct;
+    }
+
+    /**
+     * Returns the tile having the given key without changing the access
+     * order, or returns <code>null</code>.
+     */
+    LCCachedTile peek(long key) {
+        final int mask = keys.length - 1;
+        for (int i = indexFor(key, mask); ; i = (i + 1) & mask) {
+            final LCCachedTile ct = values[i];
+            if (ct == null) {
+                return null;
+            }
+            if (keys[i] == key) {
+                return ct;
+            }
+        }
+    }
+
+    /**
+     * Adds a tile as the most recently used one.  A tile already mapped to
+     * the same key is replaced and returned.
+     */
+    LCCachedTile put(LCCachedTile ct) {
+        final long key = ct.key;
+        final int mask = keys.length - 1;
+        int i = indexFor(key, mask);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                final LCCachedTile old = values[i];
+                unlink(old);
+                values[i] = ct;
+                linkLast(ct);
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = ct;
+        linkLast(ct);
+        if (++size > threshold) {
+            resize(keys.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes and returns the tile having the given key, or returns
+     * <code>null</code>.
+     */
+    LCCachedTile remove(long key) {
+        final int mask = keys.length - 1;
+        for (int i = indexFor(key, mask); ; i = (i + 1) & mask) {
+            final LCCachedTile ct = values[i];
+            if (ct == null) {
+                return null;
+            }
+            if (keys[i] == key) {
+                deleteSlot(i, mask);
+                unlink(ct);
+                size--;
+                return ct;
+            }
+        }
+    }
+
+    /**
+     * Returns the least recently used tile, or <code>null</code> if empty.
+     */
+    LCCachedTile eldest() {
+        return head;
+    }
+
+    /**
+     * Visits the tiles from the least to the most recently used one.  The
+     * action must not modify this map.
+     */
+    void forEach(Consumer<LCCachedTile> action) {
+        for (LCCachedTile ct = head; ct != null; ct = ct.after) {
+            action.accept(ct);
+        }
+    }
+
+    void clear() {
+        for (LCCachedTile ct = head; ct != null; ) {
+            final LCCachedTile next = ct.after;
+            ct.before = ct.after = null;
+            ct = next;
+        }
+        head = tail = null;
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new LCCachedTile[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private void resize(int capacity) {
+        final long[] oldKeys = keys;
+        final LCCachedTile[] oldValues = values;
+        allocate(capacity);
+        final int mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != null) {
+                int i = indexFor(oldKeys[j], mask);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    /**
+     * Empties a slot, shifting back the entries of the probe sequence that
+     * follows it so that no tombstones are needed.
+     */
+    private void deleteSlot(int hole, int mask) {
+        for (int i = (hole + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            final int home = indexFor(keys[i], mask);
+            // Move the entry only if its home slot is not within (hole, i]
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hole = i;
+            }
+        }
+        values[hole] = null;
+    }
+
+    private void linkLast(LCCachedTile ct) {
+        ct.before = tail;
+        ct.after = null;
+        if (tail == null) {
+            head = ct;
+        } else {
+            tail.after = ct;
+        }
+        tail = ct;
+    }
+
+    private void unlink(LCCachedTile ct) {
+        final LCCachedTile b = ct.before;
+        final LCCachedTile a = ct.after;
+        if (b == null) {
+            head = a;
+        } else {
+            b.after = a;
+        }
+        if (a == null) {
+            tail = b;
+        } else {
+            a.before = b;
+        }
+        ct.before = ct.after = null;
+    }
+
+    private static int indexFor(long key, int mask) {
+        // Stafford's variant 13 of the MurmurHash3 finalizer
+        key = (key ^ (key >>> 30)) * 0xbf58476d1ce4e5b9L;
+        key = (key ^ (key >>> 27)) * 0x94d049bb133111ebL;
+        key ^= key >>> 31;
+        return (int) key & mask;
+    }
+}
+/* vim:set et sw=4 ts=4: */
@@ -0,0 +1,90 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import org.eclipse.imagen.PlanarImage;
+
+import java.awt.image.RenderedImage;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A weak handle on an image that owns cached tiles, carrying a compact
+ * interned ID.
+ *
+ * <p> The ID is handed out once per image and combined with the tile index
+ * into a primitive <code>long</code> key by
+ * {@link LCCachedTile#hashKey(RenderedImage, int, int)}, so that looking up
+ * a tile allocates nothing.  <code>PlanarImage</code>s are interned by their
+ * image ID; any other image by a weak map.  Handles are compared by
+ * identity, so they can index the tiles of their owner in constant time.
+ * Handles whose image has been garbage collected are handed to the tile
+ * reaper through {@link #awaitCollected()}.
+ *
+ * @see LCTileCache
+ */
+final class LCTileOwner extends WeakReference<RenderedImage> {
+
+    /** The interned ID of the owner, never 0. */
+    final int id;
+
+    /** The <code>PlanarImage</code> image ID, or <code>null</code>. */
+    private final Object imageID;
+
+    private LCTileOwner(RenderedImage owner, Object imageID) {
+        super(owner, queue);
+        this.imageID = imageID;
+        int i;
+        do {
+            i = nextID.getAndIncrement();
+        } while (i == 0);
+        id = i;
+    }
+
+    /**
+     * Returns the handle for the given image, registering it if needed.
+     *
+     * @param owner The image the tiles belong to.
+     */
+    static LCTileOwner of(RenderedImage owner) {
+        final Object imageID = owner instanceof PlanarImage
+                ? ((PlanarImage) owner).getImageID()
+                : null;
+        if (imageID != null) {
+            final LCTileOwner handle = byImageID.get(imageID);
+            if (handle != null) {
+                return handle;
+            }
+            return byImageID.computeIfAbsent(imageID, k -> new LCTileOwner(owner, k));
+        }
+        synchronized (byImage) {
+            return byImage.computeIfAbsent(owner, k -> new LCTileOwner(k, null));
+        }
+    }
+
+    /**
+     * Waits for the image of a handle to be garbage collected, then drops
+     * the handle from the registry and returns it so that its tiles can be
+     * removed.
+     */
+    static LCTileOwner awaitCollected() throws InterruptedException {
+        final LCTileOwner handle = (LCTileOwner) queue.remove();
+        if (handle.imageID != null) {
+            byImageID.remove(handle.imageID, handle);
+        }
+        return handle;
+    }
+
+    private static final AtomicInteger nextID = new AtomicInteger(1);
+
+    private static final ReferenceQueue<RenderedImage> queue = new ReferenceQueue<>();
+
+    private static final Map<Object, LCTileOwner> byImageID = new ConcurrentHashMap<>();
+
+    private static final Map<RenderedImage, LCTileOwner> byImage = new WeakHashMap<>();
+}
+/* vim:set et sw=4 ts=4: */
@@ -24,10 +24,12 @@ import org.eclipse.imagen.util.ImagingListener;
 import java.awt.*;
 import java.awt.image.Raster;
 import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
 import java.math.BigInteger;
 import java.util.List;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.stream.IntStream;
 
 import static java.lang.Thread.MAX_PRIORITY;
 import static java.lang.Thread.MIN_PRIORITY;
@@ -144,14 +146,17 @@ sealed interface Job permits RequestJob, TileJob {
     /** Returns <code>true</code> if the job is not done. */
     boolean notDone();
 
+    /** Blocks the calling thread until the job is done. */
+    void awaitDone();
+
     /** Returns the image for which tiles are being computed. */
     PlanarImage getOwner();
 
     /**
      * Returns <code>true</code> if and only if the job should block the
-     * thread which processes it.  In this case the scheduler and the
-     * processing thread must communicate using <code>wait()</code> and
-     * <code>notify()</code>.
+     * thread which processes it.  In this case the scheduler waits for the
+     * job with <code>awaitDone()</code>, which wakes up only when this
+     * particular job completes.
      */
     boolean isBlocking();
 
@@ -167,7 +172,7 @@ sealed interface Job permits RequestJob, TileJob {
  * <code>TileRequest</code>s with which this tile is associated of
  * whether the tile was computed or the computation failed.
  */
-final class RequestJob implements Job, Comparable<Job>, Runnable {
+final class RequestJob implements Job, Runnable {
 
     final LCTileScheduler scheduler; // the TileScheduler
 
@@ -177,7 +182,8 @@ final class RequestJob implements Job, Comparable<Job>, Runnable {
     final Raster[] tiles;        // the computed tiles
     final int offset;            // offset into arrays
 
-    boolean done = false;        // flag indicating completion status
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+                                 // completed when the job is done
     Exception exception = null;  // Any exception that might have occurred
                                  // during computeTile
 
@@ -197,6 +203,15 @@ final class RequestJob implements Job, Comparable<Job>, Runnable {
      * Tile computation. Does the actual call to getTile().
      */
     public void compute() {
+        try {
+            computeRequests();
+        } finally {
+            // Signal job completion to the waiting thread, if any.
+            done.complete(null);
+        }
+    }
+
+    private void computeRequests() {
         // Get the Request List.
         List<Request> reqList;
         synchronized(scheduler.tileRequests) {
@@ -263,9 +278,6 @@ final class RequestJob implements Job, Comparable<Job>, Runnable {
                 }
             }
         }
-
-        // Set the flag indicating job completion.
-        done = true;
     }
 
     /**
@@ -273,7 +285,11 @@ final class RequestJob implements Job, Comparable<Job>, Runnable {
      * the tile is not computed and no exceptions have occurred.
      */
     public boolean notDone() {
-        return !done;
+        return !done.isDone();
+    }
+
+    public void awaitDone() {
+        done.join();
     }
 
     /** Returns the image for which the tile is being computed. */
@@ -305,21 +321,9 @@ final class RequestJob implements Job, Comparable<Job>, Runnable {
                " tile = " + tString;
     }
 
-    @Override
-    public int compareTo(@NotNull Job o) {
-        if (o instanceof TileJob) {
-            return 1;
-        }
-        return 0;
-    }
-
     @Override
     public void run() {
         compute();
-
-        synchronized (scheduler) {
-            scheduler.notify();
-        }
     }
 }
 
@@ -327,7 +331,7 @@ final class RequestJob implements Job, Comparable<Job>, Runnable {
  * A <code>Job</code> which computes one or more tiles at a time for either
  * a prefetch job or a blocking job.
  */
-final class TileJob implements Job, Comparable<Job>, Runnable {
+final class TileJob implements Job, Runnable {
 
     final LCTileScheduler scheduler; // the TileScheduler
 
@@ -338,7 +342,8 @@ final class TileJob implements Job, Comparable<Job>, Runnable {
     final int offset;          // offset into arrays
     final int numTiles;        // number of elements to use in indices array
 
-    boolean done = false;       // flag indicating completion status
+    final CompletableFuture<Void> done = new CompletableFuture<>();
+                                // completed when the job is done
     Exception exception = null; // The first exception that might have
                                 // occurred during computeTile
 
@@ -359,9 +364,13 @@ final class TileJob implements Job, Comparable<Job>, Runnable {
      * Tile computation. Does the actual calls to getTile().
      */
     public void compute() {
-        exception = scheduler.compute(owner, tileIndices, tiles,
-                                      offset, numTiles, null);
-        done = true;
+        try {
+            exception = scheduler.compute(owner, tileIndices, tiles,
+                                          offset, numTiles, null);
+        } finally {
+            // Signal job completion to the waiting thread, if any.
+            done.complete(null);
+        }
     }
 
     /**
@@ -369,7 +378,11 @@ final class TileJob implements Job, Comparable<Job>, Runnable {
      * the tile is not computed and no exceptions have occurred.
      */
     public boolean notDone() {
-        return !done;
+        return !done.isDone();
+    }
+
+    public void awaitDone() {
+        done.join();
     }
 
     /** Returns the image for which tiles are being computed. */
@@ -387,24 +400,9 @@ final class TileJob implements Job, Comparable<Job>, Runnable {
         return exception;
     }
 
-    @Override
-    public int compareTo(@NotNull Job o) {
-        if (o instanceof RequestJob) {
-            return -1;
-        }
-        return 0;
-    }
-
     @Override
     public void run() {
         compute();
-
-        // Notify the scheduler only if the Job is blocking.
-        if (isBlocking) {
-            synchronized (scheduler) {
-                scheduler.notify();
-            }
-        }
     }
 }
 
@@ -424,11 +422,15 @@ public final class LCTileScheduler implements TileScheduler {
     /** The default number of prefetch threads. */
     private static final int NUM_PREFETCH_THREADS_DEFAULT = 1;
 
-    @NotNull
-    private final ThreadPoolExecutor executor;
+    /** The largest number of adjacent tiles computed by one job. */
+    private static final int MAX_TILES_PER_JOB = 4;
 
+    /**
+     * The workers, shared by all jobs: blocking jobs go before tile
+     * requests, which go before prefetch jobs.
+     */
     @NotNull
-    private final ThreadPoolExecutor prefetchExecutor;
+    private final LCTileExecutor executor;
 
     private static final Cleaner cleaner = Cleaner.create();
 
@@ -438,15 +440,18 @@ public final class LCTileScheduler implements TileScheduler {
     /** The prefetch thread priority. */
     private int prefetchPriority = MIN_PRIORITY;
 
+    /** Gives back cached memory when a tile runs out of it, may be null. */
+    private volatile LCMemoryGovernor memoryGovernor;
+
     /**
      * <code>Map</code> of tiles currently being computed.  The key is
      * created from the image and tile indices by the <code>tileKey()</code>
-     * method.  Each key is mapped to an <code>Object[1]</code> which may
-     * contain <code>null</code>, a <code>Raster</code>, or an indefinite
-     * <code>Object</code> which represent, respectively, that the tile is
-     * being computed, the tile itself, and that the tile computation failed.
+     * method.  Each key is mapped to a <code>CompletableFuture</code> which
+     * is completed with the tile itself, or with <code>null</code> if the
+     * tile computation failed.
      */
-    private final Map<Object, Object[]> tilesInProgress = new HashMap<>();
+    private final ConcurrentMap<Object, CompletableFuture<Raster>> tilesInProgress =
+            new ConcurrentHashMap<>();
 
     /**
      * <code>Map</code> of tiles to <code>Request</code>s.  The key is
@@ -468,6 +473,65 @@ public final class LCTileScheduler implements TileScheduler {
      */
     Map<Object, Job> tileJobs = new HashMap<>();
 
+    /**
+     * The compute time of the tiles computed by each thread, for the tile
+     * cache to weigh them by.
+     */
+    private static final ThreadLocal<ComputeTimer> computeTimer =
+            ThreadLocal.withInitial(ComputeTimer::new);
+
+    /**
+     * Times the tiles computed by a thread.  Computing a tile computes the
+     * source tiles it needs that are not cached, within the same thread, so
+     * the time spent on those is subtracted: each tile is charged only for
+     * its own operation, which is what it would cost to recompute it from
+     * cached sources.
+     */
+    private static final class ComputeTimer {
+        long nested;    // time spent on tiles nested in the current one
+
+        // The last tile computed, until taken by the tile cache; weakly, not
+        // to keep its image alive on a long-lived worker thread
+        WeakReference<Object> owner;
+        int tileX;
+        int tileY;
+        long nanos;
+
+        long begin() {
+            final long outer = nested;
+            nested = 0;
+            return outer;
+        }
+
+        void end(Object owner, int tileX, int tileY, long start, long outer) {
+            final long elapsed = System.nanoTime() - start;
+            this.owner = new WeakReference<>(owner);
+            this.tileX = tileX;
+            this.tileY = tileY;
+            nanos = Math.max(0, elapsed - nested);
+            nested = outer + elapsed;
+        }
+    }
+
+    /**
+     * Returns the time it took the calling thread to compute the given tile
+     * if it is the last tile it computed, or -1.  <code>OpImage</code> adds
+     * a tile to the cache right after <code>scheduleTile()</code> returns
+     * it, within the same thread.
+     *
+     * @return The compute time in nanoseconds, excluding the time spent on
+     *         source tiles, or -1.
+     */
+    static long takeComputeTime(Object owner, int tileX, int tileY) {
+        final ComputeTimer timer = computeTimer.get();
+        if (timer.owner == null || timer.owner.get() != owner
+                || timer.tileX != tileX || timer.tileY != tileY) {
+            return -1;
+        }
+        timer.owner = null;
+        return timer.nanos;
+    }
+
     /**
      * Returns the hash table "key" as a <code>Object</code> for this
      * tile.  For <code>PlanarImage</code> and
@@ -525,27 +589,21 @@ public final class LCTileScheduler implements TileScheduler {
      * Constructor.
      *
      * @param parallelism  The number of worker threads to do tile computation.
-     *        If this number is less than 1, no multi-threading is used.
+     *        If this number is less than 1, one worker thread is used.
      * @param priority  The priority of worker threads.
      * @param prefetchParallelism  The number of threads to do prefetching.
-     *        If this number is less than 1, no multi-threading is used.
+     *        If this number is less than 1, one thread is used.
      * @param prefetchPriority  The priority of prefetch threads.
      */
     public LCTileScheduler(int parallelism, int priority,
                            int prefetchParallelism, int prefetchPriority) {
         // Create queues and set parallelism and priority to default values.
-        executor = new ThreadPoolExecutor(
-                parallelism, parallelism,
-                0L, TimeUnit.MICROSECONDS, new PriorityBlockingQueue<>(),
-                threadFactory(priority));
-        prefetchExecutor = new ThreadPoolExecutor(
-                prefetchParallelism, prefetchParallelism,
-                0L, TimeUnit.MICROSECONDS, new LinkedBlockingQueue<>(),
-                threadFactory(prefetchPriority));
+        executor = new LCTileExecutor(parallelism, prefetchParallelism,
+                                      threadFactory(priority));
         setPriority(priority);
         setPrefetchPriority(prefetchPriority);
 
-        cleaner.register(this, terminate(prefetchExecutor, executor));
+        cleaner.register(this, terminate(executor));
     }
 
     /**
@@ -560,7 +618,7 @@ public final class LCTileScheduler implements TileScheduler {
      * Constructor.
      *
      * @param parallelism  The number of worker threads to do tile computation.
-     *        If this number is less than 1, no multi-threading is used.
+     *        If this number is less than 1, one worker thread is used.
      * @param priority  The priority of worker threads.
      */
     public LCTileScheduler(int parallelism, int priority) {
@@ -583,10 +641,11 @@ public final class LCTileScheduler implements TileScheduler {
                 try {
                     tiles[j] = owner.getTile(p.x, p.y);
                 } catch (Exception e) {
-                    exception = e;
-
-                    // Abort the remaining tiles in the job.
-                    break;
+                    // Keep the first exception, but compute the remaining
+                    // tiles: a job batches tiles that are otherwise unrelated.
+                    if (exception == null) {
+                        exception = e;
+                    }
                 }
             }
         } else { // listeners present
@@ -661,13 +720,15 @@ public final class LCTileScheduler implements TileScheduler {
      * @return  The computed tile
      */
     //
-    // This method blocks on the 'tilesInProgress' Map to avoid simultaneous
+    // This method uses the 'tilesInProgress' Map to avoid simultaneous
     // computation of the same tile in two or more different threads. The idea
     // is to release the resources of all but one thread so that the computation
-    // occurs more quickly. The synchronization variable is an Object[] of length
-    // unity. The computed tile is passed from the computing thread to the
-    // waiting threads via the contents of this Object[]. Thus this method does
-    // not depend on the TileCache to transfer the data.
+    // occurs more quickly. The first thread to ask for a tile registers a
+    // CompletableFuture and computes the tile; any other thread asking for the
+    // same tile meanwhile waits on that future alone, so it wakes up only when
+    // its own tile is done. The computed tile is passed to the waiting threads
+    // via the future. Thus this method does not depend on the TileCache to
+    // transfer the data.
     //
     @Override
     public Raster scheduleTile(OpImage owner,
@@ -677,86 +738,73 @@ public final class LCTileScheduler implements TileScheduler {
             throw new IllegalArgumentException("Null owner");
         }
 
-        // Eventual tile to be returned.
-        Raster tile = null;
-
         // Get the tile's unique ID.
         final Object tileID = tileKey(owner, tileX, tileY);
 
-        // Set the computation flag and initialize or retrieve the tile cache.
-        final boolean computeTile;
-        final Object[] cache;
-        synchronized(tilesInProgress) {
-            computeTile = !tilesInProgress.containsKey(tileID);
-            if(computeTile) {
-                // Computing: add tile ID to the map.
-                cache = new Object[1];
-                tilesInProgress.put(tileID, cache);
-            } else {
-                // Waiting: get tile cache from the Map.
-                cache = tilesInProgress.get(tileID);
+        // Either become the thread computing the tile or get the future of
+        // the thread already computing it.
+        final var future = new CompletableFuture<Raster>();
+        final var inProgress = tilesInProgress.putIfAbsent(tileID, future);
+
+        if (inProgress != null) {
+            // Wait for the computation to complete: a null value indicates
+            // that it failed.
+            final Raster tile = inProgress.join();
+            if (tile == null) {
+                throw new RuntimeException("Not a Raster instance?");
             }
+            return tile;
         }
 
-        if(computeTile) {
+        // Eventual tile to be returned.
+        Raster tile = null;
+
+        final ComputeTimer timer = computeTimer.get();
+        final long outer = timer.begin();
+        final long start = System.nanoTime();
+        try {
             try {
+                // Attempt to compute the tile.
+                tile = owner.computeTile(tileX, tileY);
+            } catch (OutOfMemoryError e) {
+                // The memory governor shrinks the cache before the heap
+                // fills up; should it not have been enough, shrink it at
+                // once and try again.  Once it can't shrink the cache any
+                // further, drop the owner's tiles instead.
+                final LCMemoryGovernor governor = memoryGovernor;
+                final TileCache tileCache = owner.getTileCache();
+                if ((governor == null
+                        || !governor.relieve("out of memory computing a tile"))
+                        && tileCache != null) {
+                    tileCache.removeTiles(owner);
+                }
                 try {
-                    // Attempt to compute the tile.
+                    // Re-attempt to compute the tile.
                     tile = owner.computeTile(tileX, tileY);
-                } catch (OutOfMemoryError e) {
-                    // Free some space in cache
-                    TileCache tileCache = owner.getTileCache();
-                    if(tileCache != null) {
-                        tileCache.removeTiles(owner);
+                } catch (OutOfMemoryError e1) {
+                    // Empty the cache
+                    if (tileCache != null) {
+                        tileCache.flush();
                     }
-                    try {
-                        // Re-attempt to compute the tile.
-                        tile = owner.computeTile(tileX, tileY);
-                    } catch (OutOfMemoryError e1) {
-                        // Empty the cache
-                        if(tileCache != null) {
-                            tileCache.flush();
-                        }
-                    }
-
                     // Re-attempt to compute the tile.
                     tile = owner.computeTile(tileX, tileY);
                 }
-            } catch(Throwable e) {
-                // Re-throw the Error or Exception.
-                if(e instanceof Error) {
-                    throw (Error)e;
-                } else {
-                    sendExceptionToListener("RuntimeException", e);
-                }
-            } finally {
-                // Always set the cached tile to a non-null value.
-                cache[0] = tile != null ? tile : new Object();
-
-                // Notify the thread(s).
-//                cache.notifyAll();
-
-                // Remove the tile ID from the Map.
-                tilesInProgress.remove(tileID);
-            }
-        } else {
-            // Check the cache: a null value indicates computation is
-            // still in progress.
-            while (cache[0] == null) {
-                // Wait for the computation to complete.
-                try {
-                    cache.wait(); // XXX Should there be a timeout?
-                } catch(Exception e) {
-                    // XXX What response here?
-                }
             }
-
-            // Set the result only if cache contains a Raster.
-            if(cache[0] instanceof Raster) {
-                tile = (Raster)cache[0];
+        } catch(Throwable e) {
+            // Re-throw the Error or Exception.
+            if(e instanceof Error) {
+                throw (Error)e;
             } else {
-                throw new RuntimeException("Not a Raster instance?");
+                sendExceptionToListener("RuntimeException", e);
             }
+        } finally {
+            timer.end(owner, tileX, tileY, start, outer);
+
+            // Wake up the waiting thread(s), if any.
+            future.complete(tile);
+
+            // Remove the tile ID from the Map.
+            tilesInProgress.remove(tileID, future);
         }
 
         return tile;
@@ -802,14 +850,19 @@ public final class LCTileScheduler implements TileScheduler {
         int numTiles = tileIndices.length;
         final Raster[] tiles = new Raster[numTiles];
 
-        final var jobExecutor = isPrefetch ? prefetchExecutor : executor;
-        final int numThreads = jobExecutor.getPoolSize();
-        assert numThreads > 0;
+        final int numThreads = isPrefetch
+                ? executor.getPrefetchParallelism()
+                : executor.getParallelism();
 
         final Job[] jobs = new Job[numTiles];
 
         Object returnValue = tiles;
 
+        // For blocking and prefetch jobs, the tiles in locality order and
+        // the index of each in the requested order.
+        int[] order = null;
+        Raster[] orderedTiles = null;
+
         if(!isBlocking && !isPrefetch) {
             final var request = new Request(this, owner, tileIndices, listeners);
 
@@ -835,15 +888,30 @@ public final class LCTileScheduler implements TileScheduler {
                         jobs[i] = new RequestJob(this, owner,
                                 p.x, p.y, tiles, i);
                         tileJobs.put(tileID, jobs[i]);
-                        addJob(jobs[i], false);
+                        addJob(jobs[i], LCTileExecutor.REQUEST, owner, p);
                     }
                 }
             }
         } else {
+            // Order the tiles so that each job computes a block of adjacent
+            // tiles, which share source tiles and halos, while keeping
+            // enough jobs for all threads.
+            order = localityOrder(tileIndices);
+            final Point[] orderedIndices = new Point[numTiles];
             for (int i = 0; i < numTiles; i++) {
-                jobs[i] = new TileJob(this, isBlocking, owner,
-                        tileIndices, tiles, i, 1);
-                addJob(jobs[i], isPrefetch);
+                orderedIndices[i] = tileIndices[order[i]];
+            }
+            orderedTiles = new Raster[numTiles];
+            final int tilesPerJob = Math.max(1, Math.min(MAX_TILES_PER_JOB,
+                                                         numTiles / (2 * numThreads)));
+            final int level = isPrefetch
+                    ? LCTileExecutor.PREFETCH
+                    : LCTileExecutor.BLOCKING;
+            for (int i = 0, j = 0; i < numTiles; i += tilesPerJob, j++) {
+                jobs[j] = new TileJob(this, isBlocking, owner,
+                        orderedIndices, orderedTiles, i,
+                        Math.min(tilesPerJob, numTiles - i));
+                addJob(jobs[j], level, owner, orderedIndices[i]);
             }
         }
 
@@ -852,15 +920,10 @@ public final class LCTileScheduler implements TileScheduler {
         // case we just want to continue.
         if(isBlocking) {
             for (final var job : jobs) {
-                synchronized(this) {
-                    while (job.notDone()) {
-                        try {
-                            wait();
-                        } catch(InterruptedException ie) {
-                            // Ignore: should never happen.
-                        }
-                    }
+                if (job == null) {
+                    break;
                 }
+                job.awaitDone();
 
                 // XXX: should we re-throw the exception or
                 //      should we reschedule this job ?? krishnag
@@ -876,9 +939,30 @@ public final class LCTileScheduler implements TileScheduler {
             }
         }
 
+        if(isBlocking) {
+            for (int i = 0; i < order.length; i++) {
+                tiles[order[i]] = orderedTiles[i];
+            }
+        }
+
         return returnValue;
     }
 
+    /**
+     * Returns the indices of the given tiles ordered by 2x2 blocks of
+     * adjacent tiles, the blocks and the tiles within each in row-major
+     * order.
+     */
+    private static int[] localityOrder(Point[] tileIndices) {
+        return IntStream.range(0, tileIndices.length).boxed()
+                .sorted(Comparator.<Integer>comparingInt(i -> tileIndices[i].y >> 1)
+                        .thenComparingInt(i -> tileIndices[i].x >> 1)
+                        .thenComparingInt(i -> tileIndices[i].y)
+                        .thenComparingInt(i -> tileIndices[i].x))
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
     /**
      * Schedules multiple tiles of an image for computation.
      *
@@ -1035,6 +1119,9 @@ public final class LCTileScheduler implements TileScheduler {
      * In JAI the parallelism defaults to a value of 2 unless explicitly set
      * by the application.
      *
+     * <p> This scheduler always computes tiles on its worker threads: a
+     * parallelism of zero is raised to one worker thread.
+     *
      * @param parallelism The suggested degree of parallelism.
      * @throws IllegalArgumentException if <code>parallelism</code>
      *         is negative.
@@ -1044,9 +1131,15 @@ public final class LCTileScheduler implements TileScheduler {
         if (parallelism < 0) {
             throw new IllegalArgumentException("Negative Parallelism?");
         }
-        // Create queues and set parallelism and priority to default values.
-        executor.setCorePoolSize(parallelism);
-        executor.setMaximumPoolSize(parallelism);
+        executor.setParallelism(parallelism);
+    }
+
+    /**
+     * Sets the memory governor to shrink the tile cache when computing a
+     * tile runs out of memory.
+     */
+    public void setMemoryGovernor(LCMemoryGovernor governor) {
+        memoryGovernor = governor;
     }
 
     /**
@@ -1054,7 +1147,7 @@ public final class LCTileScheduler implements TileScheduler {
      */
     @Override
     public int getParallelism() {
-        return executor.getPoolSize();
+        return executor.getParallelism();
     }
 
     /**
@@ -1066,8 +1159,7 @@ public final class LCTileScheduler implements TileScheduler {
         if (parallelism < 0) {
             throw new IllegalArgumentException("Negative Parallelism?");
         }
-        prefetchExecutor.setCorePoolSize(parallelism);
-        prefetchExecutor.setMaximumPoolSize(parallelism);
+        executor.setPrefetchParallelism(parallelism);
     }
 
     /**
@@ -1076,7 +1168,7 @@ public final class LCTileScheduler implements TileScheduler {
      */
     @Override
     public int getPrefetchParallelism() {
-        return prefetchExecutor.getPoolSize();
+        return executor.getPrefetchParallelism();
     }
 
     /**
@@ -1097,6 +1189,7 @@ public final class LCTileScheduler implements TileScheduler {
     public void setPriority(int priority) {
         this.priority = Math.max(Math.min(priority, MAX_PRIORITY),
                                  MIN_PRIORITY);
+        executor.setPriority(this.priority);
     }
 
     /**
@@ -1113,11 +1206,12 @@ public final class LCTileScheduler implements TileScheduler {
      *
      * <p> In the Sun Microsystems reference implementation of
      * <code>TileScheduler</code>, this method sets the priority of any threads
-     * spawned to prefetch tiles.  Its initial value is
-     * <code>Thread.MIN_PRIORITY</code>.
+     * spawned to prefetch tiles.  Here the workers switch to it while they run
+     * prefetch jobs.  Its initial value is <code>Thread.MIN_PRIORITY</code>.
      */
     public void setPrefetchPriority(int priority) {
         prefetchPriority = Math.max(Math.min(priority, MAX_PRIORITY), MIN_PRIORITY);
+        executor.setPrefetchPriority(prefetchPriority);
     }
 
     /**
@@ -1129,28 +1223,54 @@ public final class LCTileScheduler implements TileScheduler {
         return prefetchPriority;
     }
 
-    /** Append a job to the appropriate queue. */
-    private void addJob(Job job, boolean isPrefetch) {
+    /**
+     * Returns the number of jobs waiting for a worker, other than prefetch
+     * jobs.
+     */
+    public int getQueueDepth() {
+        return executor.getQueueDepth(LCTileExecutor.BLOCKING)
+             + executor.getQueueDepth(LCTileExecutor.REQUEST);
+    }
+
+    /**
+     * Returns the number of prefetch jobs waiting for a worker.
+     */
+    public int getPrefetchQueueDepth() {
+        return executor.getQueueDepth(LCTileExecutor.PREFETCH);
+    }
+
+    /**
+     * Returns the number of jobs run since the scheduler was created.
+     */
+    public long getExecutedJobCount() {
+        return executor.getExecutedCount();
+    }
+
+    /**
+     * Returns the number of jobs a worker stole from another worker.
+     */
+    public long getStealCount() {
+        return executor.getStealCount();
+    }
+
+    /** Append a job to the queue of its level. */
+    private void addJob(Job job, int level, PlanarImage owner, Point tile) {
         if (job == null) {
             // Programming error: deliberately no message.
             throw new IllegalArgumentException();
         }
 
-        if (isPrefetch) {
-            prefetchExecutor.execute((Runnable) job);
-        } else {
-            executor.execute((Runnable) job);
-        }
+        executor.execute((Runnable) job, level, owner, tile.x, tile.y);
     }
 
-    /** Queue WorkerThread.TERMINATEs to all workers. */
-    private static @NotNull Runnable terminate(ThreadPoolExecutor... executors) {
-        return () -> Arrays.stream(executors).forEach(ThreadPoolExecutor::shutdownNow);
+    /** Stop all workers. */
+    private static @NotNull Runnable terminate(LCTileExecutor executor) {
+        return executor::shutdownNow;
     }
 
     @Override
     public void close() {
-        terminate(prefetchExecutor, executor).run();
+        terminate(executor).run();
     }
 
     void sendExceptionToListener(String message, Throwable e) {
@@ -0,0 +1,268 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * A bounded queue of tiles evicted from {@link LCTileCache} on their way to
+ * the disk cache, and the background thread that writes them.
+ *
+ * <p> Evicting a tile only queues it, so the thread bringing the memory
+ * usage down never waits for the disk unless the queue is full.  Until a
+ * tile is written, it can be taken back from the queue by {@link #take};
+ * a tile evicted again before it was written replaces the queued one, so
+ * it is written once.  The writer takes the tiles in batches and writes
+ * each batch in key order, i.e. grouped by owner and in tile order.
+ */
+final class LCTileSpiller {
+
+    private static final Logger logger = LoggerFactory.getLogger(LCTileSpiller.class);
+
+    /** The most tiles the writer takes from the queue at once. */
+    private static final int BATCH_SIZE = 32;
+
+    /** How long {@link #stop} waits for a tile being written, in ms. */
+    private static final long STOP_TIMEOUT = 10000;
+
+    private final Consumer<LCCachedTile> writer;
+    private final LongConsumer eraser;
+
+    private final Thread thread;
+
+    /** The most memory the queued tiles may use. */
+    private final long capacity;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /** The tiles waiting for the writer in eviction order, guarded by lock. */
+    private final LinkedHashMap<Long, LCCachedTile> queue = new LinkedHashMap<>();
+
+    /** The tiles being written, guarded by lock. */
+    private final Map<Long, LCCachedTile> inFlight = new HashMap<>();
+
+    /** The memory used by queued and in flight tiles, guarded by lock. */
+    private long queuedBytes;
+
+    private boolean stopped;
+
+    private final LongAdder stallCount = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param writer   Writes a tile to the disk cache.
+     * @param eraser   Removes the tile with the given key from the disk
+     *                 cache, for tiles taken back while being written.
+     * @param capacity The most memory the queued tiles may use, in bytes.
+     */
+    LCTileSpiller(Consumer<LCCachedTile> writer, LongConsumer eraser, long capacity) {
+        this.writer = writer;
+        this.eraser = eraser;
+        this.capacity = capacity;
+        thread = new Thread(this::run, "Tile Spill Writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a tile if there is room for it.
+     *
+     * @return Returns <code>false</code> if the queue is full.
+     */
+    boolean offer(LCCachedTile ct) {
+        lock.lock();
+        try {
+            if (isFull(ct)) {
+                return false;
+            }
+            enqueue(ct);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Queues a tile, waiting for room if the queue is full.  If the spiller
+     * has been stopped, the tile is dropped.
+     */
+    void put(LCCachedTile ct) {
+        lock.lock();
+        try {
+            if (isFull(ct)) {
+                stallCount.increment();
+                do {
+                    notFull.awaitUninterruptibly();
+                } while (isFull(ct));
+            }
+            enqueue(ct);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes back a tile that has not been written yet.
+     *
+     * @return Returns the tile, or <code>null</code> if it is not queued.
+     */
+    LCCachedTile take(long key) {
+        lock.lock();
+        try {
+            LCCachedTile ct = queue.remove(key);
+            if (ct != null) {
+                queuedBytes -= ct.tileSize;
+                notFull.signalAll();
+            } else {
+                // The writer checks for this when it is done
+                ct = inFlight.remove(key);
+            }
+            return ct;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the writer, dropping the tiles not written yet, and waits for it
+     * to finish the tile it is writing so the disk cache can be disposed of.
+     */
+    void stop() {
+        lock.lock();
+        try {
+            stopped = true;
+            queue.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join(STOP_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            logger.warn("Tile spill writer did not stop in {} ms", STOP_TIMEOUT);
+        }
+    }
+
+    /** Returns the number of tiles waiting to be written. */
+    int size() {
+        lock.lock();
+        try {
+            return queue.size() + inFlight.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Returns how many times a tile had to wait for room in the queue. */
+    long getStallCount() {
+        return stallCount.sum();
+    }
+
+    /// The caller must hold the lock.
+    private boolean isFull(LCCachedTile ct) {
+        return !stopped && queuedBytes > 0 && queuedBytes + ct.tileSize > capacity;
+    }
+
+    /// The caller must hold the lock.
+    private void enqueue(LCCachedTile ct) {
+        if (stopped) {
+            return;
+        }
+        final LCCachedTile old = queue.put(ct.key, ct);
+        if (old != null) {
+            queuedBytes -= old.tileSize;
+        }
+        queuedBytes += ct.tileSize;
+        notEmpty.signal();
+    }
+
+    private void run() {
+        final List<LCCachedTile> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !stopped) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (stopped) {
+                    return;
+                }
+                final Iterator<LCCachedTile> i = queue.values().iterator();
+                while (i.hasNext() && batch.size() < BATCH_SIZE) {
+                    final LCCachedTile ct = i.next();
+                    i.remove();
+                    inFlight.put(ct.key, ct);
+                    batch.add(ct);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            batch.sort(Comparator.comparingLong(ct -> ct.key));
+            for (LCCachedTile ct : batch) {
+                write(ct);
+            }
+            batch.clear();
+        }
+    }
+
+    private void write(LCCachedTile ct) {
+        lock.lock();
+        try {
+            if (stopped || inFlight.get(ct.key) != ct) {
+                // Taken back before it was written, or the rest of the batch
+                // is dropped
+                inFlight.remove(ct.key, ct);
+                release(ct);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            writer.accept(ct);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to spill tile to disk cache", e);
+        }
+
+        final boolean takenBack;
+        lock.lock();
+        try {
+            takenBack = !inFlight.remove(ct.key, ct);
+            release(ct);
+        } finally {
+            lock.unlock();
+        }
+        if (takenBack) {
+            eraser.accept(ct.key);
+        }
+    }
+
+    /// The caller must hold the lock.
+    private void release(LCCachedTile ct) {
+        queuedBytes -= ct.tileSize;
+        notFull.signalAll();
+    }
+}
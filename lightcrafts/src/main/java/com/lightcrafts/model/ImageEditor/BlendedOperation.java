@@ -32,6 +32,7 @@ import java.awt.image.RenderedImage;
 import java.awt.image.renderable.ParameterBlock;
 import java.lang.ref.SoftReference;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 
 public abstract class BlendedOperation extends GenericOperationImpl implements Cloneable {
@@ -54,7 +55,7 @@ public abstract class BlendedOperation extends GenericOperationImpl implements C
             BlendedOperation object = (BlendedOperation) this.clone();
             object.rendering = rendering;
             // object.mask = null;
-            object.operation = null;
+            object.levels = new HashMap<>();
             object.lastTransform = null;
             return object;
         } catch (CloneNotSupportedException e) {
@@ -143,7 +144,7 @@ public abstract class BlendedOperation extends GenericOperationImpl implements C
     @Override
     public RGBColorSelection getColorSelectionAt(Point2D p) {
         this.clickPoint = p;
-        settingsChanged();
+        settingsChangedAndWait();
 
         if (selectedColor != null) {
             float r = selectedColor.getRed() / (float) 0xff;
@@ -286,8 +287,12 @@ public abstract class BlendedOperation extends GenericOperationImpl implements C
 
             PlanarImage newRendering = update();
 
-            if (cachedImage == null || newRendering != cachedImage.getRendering())
-                cachedImage = new CachedImage(newRendering, scale);
+            if (cachedImage == null || cachedImage.key != prefixKey)
+                cachedImage = new CachedImage(newRendering, scale, prefixKey);
+            else if (newRendering != cachedImage.getRendering())
+                // Rebuilt since its soft reference was cleared: it renders
+                // the same tiles, keep those already cached.
+                cachedImage.setRendering(newRendering);
 
             return cachedImage;
         }
@@ -296,12 +301,14 @@ public abstract class BlendedOperation extends GenericOperationImpl implements C
             private final TileCache cache = JAIContext.fileCache;
             private SoftReference<PlanarImage> softRendering = new SoftReference<PlanarImage>(null);
             final float scale;
+            final long key;
 
-            public CachedImage(PlanarImage rendering, float scale) {
+            public CachedImage(PlanarImage rendering, float scale, long key) {
                 super(new ImageLayout(rendering), null, null);
                 setProperty(JAIContext.PERSISTENT_CACHE_TAG, Boolean.TRUE);
                 softRendering = new SoftReference<PlanarImage>(rendering);
                 this.scale = scale;
+                this.key = key;
                 // System.out.println("new CachedImage " + BlendedOperation.this.getClass());
             }
 
@@ -309,11 +316,18 @@ public abstract class BlendedOperation extends GenericOperationImpl implements C
                 return softRendering != null ? softRendering.get() : null;
             }
 
+            void setRendering(PlanarImage rendering) {
+                softRendering = new SoftReference<PlanarImage>(rendering);
+            }
+
             @Override
             public Raster getTile(int tileX, int tileY) {
                 Raster tile = cache.getTile(this, tileX, tileY);
 
-                if (tile == null) {
+                if (tile != null) {
+                    stageHits.increment();
+                } else {
+                    stageMisses.increment();
                     PlanarImage rendering = softRendering.get();
 
                     if (rendering == null) {
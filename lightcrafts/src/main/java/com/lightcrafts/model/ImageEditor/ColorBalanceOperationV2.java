@@ -61,7 +61,7 @@ public class ColorBalanceOperationV2 extends BlendedOperation implements com.lig
     @Override
     public Map<String, Double> setColor(Point2D p) {
         this.p = p;
-        settingsChanged();
+        settingsChangedAndWait();
         return Collections.singletonMap(MIDPOINT, midpoint);
     }
 
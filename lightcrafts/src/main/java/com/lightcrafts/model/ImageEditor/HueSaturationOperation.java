@@ -6,6 +6,7 @@ import com.lightcrafts.image.color.ColorMatrix2;
 import com.lightcrafts.jai.JAIContext;
 import com.lightcrafts.jai.opimage.HueRotateOpImage;
 import com.lightcrafts.jai.opimage.IntVibranceOpImage;
+import com.lightcrafts.jai.opimage.PointChainOpImage;
 import com.lightcrafts.jai.utils.Transform;
 import com.lightcrafts.model.OperationType;
 import com.lightcrafts.model.SliderConfig;
@@ -142,6 +143,23 @@ public class HueSaturationOperation extends BlendedOperation {
         @Override
         public PlanarImage setFront() {
             double[][] hslTransform = computeTransform();
+
+            // All three steps are per pixel: compute them in a single pass
+            PointChainOpImage chain = PointChainOpImage.append(
+                    back, new PointChainOpImage.BandCombine(hslTransform), null);
+
+            if (chain != null) {
+                if (vibrance != 0.0)
+                    chain = PointChainOpImage.append(
+                            chain, new IntVibranceOpImage.Vibrance(computeVibranceTransform()), null);
+
+                if (hue != 0.0)
+                    chain = PointChainOpImage.append(
+                            chain, new HueRotateOpImage.HueRotate(hue / 360), null);
+
+                return chain;
+            }
+
             PlanarImage image = BandCombineDescriptor.create(back, hslTransform, JAIContext.noCacheHint);
 
             if (vibrance != 0.0)
@@ -13,6 +13,8 @@ import com.lightcrafts.utils.SoftValueHashMap;
 import lombok.*;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.eclipse.imagen.OpImage;
 import org.eclipse.imagen.PlanarImage;
@@ -27,12 +29,16 @@ import java.awt.event.ComponentListener;
 import java.awt.geom.AffineTransform;
 import java.awt.image.*;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class ImageEditorDisplay extends JPanel {
+    private static final Logger logger = LoggerFactory.getLogger(ImageEditorDisplay.class);
+
     @Getter
     private PlanarImage source;
 
@@ -156,6 +162,9 @@ public class ImageEditorDisplay extends JPanel {
 
         synchronizedImage = synchronous;
 
+        viewRequestTime = System.nanoTime();
+        firstTileTime = -1;
+
         if (oldImage == null || !oldImage.getBounds().equals(image.getBounds())) {
             backgroundCache = new SoftValueHashMap<>();
 
@@ -196,6 +205,9 @@ public class ImageEditorDisplay extends JPanel {
         }
 
         if (!ctx.isPrefetch()) {
+            if (viewRequestTime >= 0 && firstTileTime < 0) {
+                firstTileTime = System.nanoTime();
+            }
             PlanarImage currentSource = source;
             boolean currentSynchronized = synchronizedImage;
             source = ctx.getImage();
@@ -323,6 +335,8 @@ public class ImageEditorDisplay extends JPanel {
             return;
         }
 
+        cancelTilesOutOfView();
+
         final var isCompleted = asyncRepaint(g2d, tileIndices);
         progressNotifier.setTiles(tileManager.pendingTiles(source, epoch));
 
@@ -388,10 +402,63 @@ public class ImageEditorDisplay extends JPanel {
 
     private boolean computingTiles = false;
 
+    /*
+        Time to first tile and time to full view, in ms: from the time a new image is set,
+        or tiles are requested after scrolling, to the first tile painted and to all the
+        visible tiles painted. -1 until measured.
+    */
+
+    @Getter
+    private long timeToFirstTile = -1;
+
+    @Getter
+    private long timeToFullView = -1;
+
+    private long viewRequestTime = -1;
+    private long firstTileTime = -1;
+
+    private Rectangle lastVisibleRect = null;
+
+    /**
+     * Cancels the requests for tiles that scrolled out of view, if the view moved.
+     */
+    private void cancelTilesOutOfView() {
+        final var visibleRect = HiDpi.imageSpaceRectFrom(getVisibleRect());
+        if (visibleRect.equals(lastVisibleRect)) {
+            return;
+        }
+        lastVisibleRect = visibleRect;
+
+        final var visibleTiles = source.getTileIndices(visibleRect);
+        final var canceled = tileManager.cancelTilesOutside(source, epoch,
+                visibleTiles != null ? new HashSet<>(List.of(visibleTiles)) : new HashSet<>());
+        if (canceled > 0) {
+            logger.debug("Canceled {} tiles out of view", canceled);
+        }
+    }
+
+    /**
+     * The tile to compute first: the one under the mouse, or else the one at the center of the view.
+     */
+    private Point focusTile() {
+        final var visibleRect = getVisibleRect();
+        Point focus = new Point((int) visibleRect.getCenterX(), (int) visibleRect.getCenterY());
+
+        final var pointerInfo = MouseInfo.getPointerInfo();
+        if (pointerInfo != null) {
+            final var mouse = pointerInfo.getLocation();
+            SwingUtilities.convertPointFromScreen(mouse, this);
+            if (visibleRect.contains(mouse)) {
+                focus = mouse;
+            }
+        }
+        focus = HiDpi.imageSpacePointFrom(focus);
+        return new Point(source.XToTileX(focus.x), source.YToTileY(focus.y));
+    }
+
     private void updateTileComputingStatus(Point[] tileIndices, Rectangle clipBounds) {
-        final var tileComparator = new TileComparator(
-                (clipBounds.x + clipBounds.width / 2) / source.getTileWidth(),
-                (clipBounds.y + clipBounds.height / 2) / source.getTileHeight());
+        final var focusTile = focusTile();
+        final var tileComparator = new TileComparator(focusTile.x, focusTile.y);
         final var dirtyTiles = Stream.of(tileIndices)
                 .filter(tileIndex -> !validImageBackground[tileIndex.x][tileIndex.y])
                 .sorted(tileComparator)
@@ -399,8 +466,20 @@ public class ImageEditorDisplay extends JPanel {
         if (!dirtyTiles.isEmpty()) {
             startGetTiles = System.currentTimeMillis();
             computingTiles = true;
+            if (viewRequestTime < 0) {
+                viewRequestTime = System.nanoTime();
+                firstTileTime = -1;
+            }
             tileManager.queueTiles(source, epoch, dirtyTiles, synchronizedImage, false, tileHandler);
         } else if (tileManager.pendingTiles(source, epoch) == 0) {
+            if (viewRequestTime >= 0) {
+                final var now = System.nanoTime();
+                timeToFullView = (now - viewRequestTime) / 1000000;
+                timeToFirstTile = ((firstTileTime >= 0 ? firstTileTime : now) - viewRequestTime) / 1000000;
+                viewRequestTime = -1;
+                logger.debug("Time to first tile: {}ms, time to full view: {}ms",
+                        timeToFirstTile, timeToFullView);
+            }
             if (paintListener != null) {
                 final var endGetTiles = System.currentTimeMillis();
                 final var time = (computingTiles && synchronizedImage && startGetTiles > 0)
@@ -52,6 +52,10 @@ import java.io.IOException;
 import java.lang.ref.Cleaner;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class ImageEditorEngine implements Engine {
     private static final Logger logger = LoggerFactory.getLogger(ImageEditorEngine.class);
@@ -255,6 +259,8 @@ public class ImageEditorEngine implements Engine {
 
         logger.debug("Disposing Engine");
 
+        graphBuilder.shutdown();
+
         if (swingTimer != null) {
             swingTimer.stop();
             Arrays.stream(swingTimer.getActionListeners())
@@ -437,7 +443,7 @@ public class ImageEditorEngine implements Engine {
                 : null;
 
         final var op = (OperationImpl) rendering.removeOperation(position);
-        op.dispose();
+        rendering.disposeOperation(op);
 
         if (currentSelection != null)
             selectedOperation = rendering.indexOf(currentSelection);
@@ -485,8 +491,8 @@ public class ImageEditorEngine implements Engine {
         return new Scale(rendering.getScaleFactor());
     }
 
-    PlanarImage scaleFinal(PlanarImage image) {
-        final var scale = rendering.getScaleFactor() > 1 ? rendering.getScaleFactor() : 1f;
+    PlanarImage scaleFinal(PlanarImage image, float scaleFactor) {
+        final var scale = scaleFactor > 1 ? scaleFactor : 1f;
 
         if (scale == 1)
             return image;
@@ -546,20 +552,126 @@ public class ImageEditorEngine implements Engine {
 
     private PlanarImage previewImage = null;
 
-    public synchronized void update(OperationImpl op, boolean isLive, Object updater) {
+    public void update(OperationImpl op, boolean isLive, Object updater) {
+        requestBuild(isLive, updater);
+    }
+
+    /**
+     * Rebuilds the pipeline and waits until it is built, for operations
+     * that read back what the build computes, like the droppers.
+     */
+    public void updateAndWait(OperationImpl op) {
+        final var build = requestBuild(false, null);
+        if (build == null)
+            return;
+        try {
+            build.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Failed to build the pipeline", e.getCause());
+        }
+    }
+
+    // Returns the pending build, or null if there is none to wait for
+    private synchronized Future<?> requestBuild(boolean isLive, Object updater) {
         // This gets called whenever the parameters of any Operation change.
         // Rerun the pipeline now, and queue a repaint on the AWT thread.
 
         if (canvas == null || !event_filter(isLive, updater))
-            return;
+            return null;
 
-        final var oldProcessedImage = processedImage;
+        final var snapshot = new PipelineSnapshot(++requestedBuild, isLive, liveFrameRequested, liveLevel,
+                                                  rendering.getScaleFactor(), !engineActive,
+                                                  proofProfile, proofIntent);
+        if (BUILD_ON_EVENT_THREAD) {
+            publish(snapshot, build(rendering, snapshot));
+            return null;
+        }
+        return graphBuilder.submit(() -> buildAndPublish(snapshot));
+    }
+
+    /*
+        The pipeline, and its conversion for the display, are built on a dedicated
+        thread, so that input handling never waits on graph construction. Each update
+        hands over a snapshot of the engine's parameters, and only the finished images
+        are published to the display, on the AWT thread. Builds superseded by a newer
+        request before they start are skipped, and finished builds older than the one
+        on display are dropped and disposed. Rendering only holds its lock briefly
+        to take a snapshot of its state, so changing it never waits for a build.
+
+        Operations keep their settings in their own fields, which the builder reads:
+        a setting changed during a build always requests another one. The droppers,
+        which read back what the build computes from the clicked pixel, wait for it
+        with updateAndWait().
+
+        Building on the AWT thread, as before, can be restored with
+        -Dlightcrafts.buildOnEventThread=true.
+    */
+
+    private static final boolean BUILD_ON_EVENT_THREAD = Boolean.getBoolean("lightcrafts.buildOnEventThread");
+
+    private final ExecutorService graphBuilder = Executors.newSingleThreadExecutor(r -> {
+        final var thread = new Thread(r, "Render Graph Builder");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile long requestedBuild = 0;
+    private long publishedBuild = 0;
 
+    private record PipelineSnapshot(long serial, boolean isLive, boolean isLiveFrame, int liveLevel,
+                                    float scaleFactor, boolean inactive, ICC_Profile proofProfile,
+                                    LCMSColorConvertDescriptor.RenderingIntent proofIntent) {}
+
+    private record PipelineGraph(PlanarImage processedImage, PlanarImage previewImage,
+                                 PlanarImage finalImage) {}
+
+    private void buildAndPublish(PipelineSnapshot snapshot) {
+        if (snapshot.serial() != requestedBuild)
+            return; // superseded
+
+        final Rendering rendering;
+        synchronized (this) {
+            if (canvas == null)
+                return;
+            rendering = this.rendering;
+        }
+        final var graph = build(rendering, snapshot);
+        EventQueue.invokeLater(() -> publish(snapshot, graph));
+    }
+
+    private PipelineGraph build(Rendering rendering, PipelineSnapshot snapshot) {
         // TODO: use disconnected cached images instead of PERSISTENT_CACHE_TAG
 
-        processedImage = rendering.getRendering(!engineActive);
+        final var processedImage = snapshot.isLiveFrame()
+                ? rendering.getLiveRendering(snapshot.inactive(), snapshot.liveLevel())
+                : rendering.getRendering(snapshot.inactive());
         processedImage.setProperty(JAIContext.PERSISTENT_CACHE_TAG, Boolean.TRUE);
 
+        final var previewImage = Functions.fromUShortToByte(Functions.toColorSpace(processedImage,
+                                                                                   JAIContext.systemColorSpace,
+                                                                                   snapshot.proofProfile(),
+                                                                                   null,
+                                                                                   snapshot.proofIntent(),
+                                                                                   null),
+                                                            null); // Cache this for the preview
+
+        previewImage.setProperty(JAIContext.PERSISTENT_CACHE_TAG, Boolean.TRUE);
+
+        return new PipelineGraph(processedImage, previewImage, scaleFinal(previewImage, snapshot.scaleFactor()));
+    }
+
+    private synchronized void publish(PipelineSnapshot snapshot, PipelineGraph graph) {
+        if (canvas == null || snapshot.serial() < publishedBuild) {
+            discard(graph);
+            return;
+        }
+        publishedBuild = snapshot.serial();
+
+        final var oldProcessedImage = processedImage;
+        processedImage = graph.processedImage();
+
         // if (oldProcessedImage != processedImage) {
             if (oldProcessedImage != null)
                 oldProcessedImage.dispose();
@@ -567,19 +679,22 @@ public class ImageEditorEngine implements Engine {
             if (previewImage != null)
                 previewImage.dispose();
 
-            previewImage = Functions.fromUShortToByte(Functions.toColorSpace(processedImage,
-                                                                             JAIContext.systemColorSpace,
-                                                                             this.proofProfile,
-                                                                             null,
-                                                                             this.proofIntent,
-                                                                             null),
-                                                      null); // Cache this for the preview
-
-            previewImage.setProperty(JAIContext.PERSISTENT_CACHE_TAG, Boolean.TRUE);
+            previewImage = graph.previewImage();
         // }
 
-        final var finalImage = scaleFinal(previewImage);
-        canvas.set(finalImage, isLive);
+        liveFrame = snapshot.isLiveFrame() ? graph.finalImage() : null;
+        canvas.set(graph.finalImage(), snapshot.isLive());
+    }
+
+    // Disposes the images of a build that is not published, except those it
+    // shares with the one on display
+    private void discard(PipelineGraph graph) {
+        if (graph.finalImage() != graph.previewImage())
+            graph.finalImage().dispose();
+        if (graph.previewImage() != previewImage)
+            graph.previewImage().dispose();
+        if (graph.processedImage() != processedImage)
+            graph.processedImage().dispose();
     }
 
     /*
@@ -588,6 +703,24 @@ public class ImageEditorEngine implements Engine {
 
     private long synchImageRepaintTime = 300; // initial estimate 300ms
 
+    /*
+        During live updates, until the user stays put long enough for a full
+        resolution rendering, we show frames rendered on a reduced source
+        whose size is adapted to keep the time to compute a frame within
+        a budget. The full resolution rendering then replaces them tile by tile.
+        The budget, in ms, can be set with -Dlightcrafts.liveFrameBudget,
+        zero disables live frames.
+    */
+
+    private static final long LIVE_FRAME_BUDGET = Long.getLong("lightcrafts.liveFrameBudget", 50);
+
+    // Each level halves the width and height of the live frames' source
+    private static final int MAX_LIVE_LEVEL = 3;
+
+    private int liveLevel = 1;
+    private long liveFrameTime = LIVE_FRAME_BUDGET;
+    private PlanarImage liveFrame = null;
+
     private long tilesRead = 0;
     private long tilesWritten = 0;
     private long tilesOnDisk = 0;
@@ -595,7 +728,10 @@ public class ImageEditorEngine implements Engine {
     class CanvasPaintListener implements PaintListener {
         @Override
         public void paintDone(PlanarImage image, Rectangle visibleRect, boolean synchronous, long time) {
-            if (synchronous) {
+            if (synchronous && image == liveFrame) {
+                adaptLiveLevel(time);
+            }
+            else if (synchronous) {
                 synchImageRepaintTime = (synchImageRepaintTime + time) / 2;
                 // System.out.println("fast repaint done in " + time
                         // + "ms, average: "
@@ -616,6 +752,13 @@ public class ImageEditorEngine implements Engine {
                     tilesOnDisk = tc.tilesOnDisk();
                     logger.debug("Tile Cache Statistics r: {}, w: {}, on disk: {}",
                             tilesRead, tilesWritten, tilesOnDisk);
+                    if (logger.isDebugEnabled()) {
+                        final var hitRates = new StringJoiner(", ");
+                        for (final var rate : rendering.getStageHitRates()) {
+                            hitRates.add(String.format("%.0f%%", rate * 100));
+                        }
+                        logger.debug("Pipeline stage hit rates: [{}]", hitRates);
+                    }
                 }
             }
 
@@ -640,11 +783,30 @@ public class ImageEditorEngine implements Engine {
         }
     }
 
+    private void adaptLiveLevel(long time) {
+        if (time <= 0)
+            return; // Nothing had to be computed
+
+        liveFrameTime = (liveFrameTime + time) / 2;
+
+        // A level has a quarter of the pixels of the one above it, leave some slack
+        if (liveFrameTime > LIVE_FRAME_BUDGET && liveLevel < MAX_LIVE_LEVEL) {
+            liveLevel++;
+            liveFrameTime /= 4;
+        }
+        else if (liveFrameTime * 4 < LIVE_FRAME_BUDGET / 2 && liveLevel > 0) {
+            liveLevel--;
+            liveFrameTime *= 4;
+        }
+        logger.debug("Live frame in {}ms, average: {}ms, level: {}", time, liveFrameTime, liveLevel);
+    }
+
     /*
         BIG NOTE: ImageN has all sorts of deadlocks in its notification management,
-        we just avoid doing any pipeline setup off the main event thread.
-        For this reason we use javax.swing.Timer instead of java.util.Timer
-        to make sure that everything happens on the AWT thread.
+        we just avoid doing any display pipeline setup concurrently: it only happens
+        on the render graph builder thread, one build at a time.
+        Update requests are filtered on the AWT thread: we use javax.swing.Timer
+        instead of java.util.Timer to make sure that they all come from it.
     */
 
     class UpdateActionListener implements ActionListener {
@@ -659,8 +821,14 @@ public class ImageEditorEngine implements Engine {
     private UpdateActionListener currentTask = null;
 
     private long lastTime = -1;
+    private long lastLiveFrameTime = -1;
+
+    // Whether the update let through by event_filter is a live frame
+    private boolean liveFrameRequested = false;
 
     private boolean event_filter(boolean isLive, Object updater) {
+        liveFrameRequested = false;
+
         if (updater != null && updater != currentTask)
             return false; // obsolete update operation
 
@@ -701,6 +869,14 @@ public class ImageEditorEngine implements Engine {
                 swingTimer.setRepeats(false);
                 swingTimer.start();
             }
+
+            // Meanwhile show a live frame, at most one per frame budget
+            if (LIVE_FRAME_BUDGET > 0 && updater == null
+                    && timeNow - lastLiveFrameTime >= LIVE_FRAME_BUDGET) {
+                lastLiveFrameTime = timeNow;
+                liveFrameRequested = true;
+                return true;
+            }
             return false;
         }
 
@@ -8,6 +8,10 @@ import com.lightcrafts.model.*;
 import org.eclipse.imagen.PlanarImage;
 import com.lightcrafts.ui.editor.EditorMode;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.prefs.Preferences;
 import java.util.prefs.PreferenceChangeListener;
 import java.util.prefs.PreferenceChangeEvent;
@@ -63,10 +67,36 @@ abstract class OperationImpl implements Operation {
 
     static int interactiveRegionUpdates = Preferences.userNodeForPackage(OperationImpl.class).getInt(InteractiveUpdateKey, 1);
 
-    protected Transform operation = null;
+    // The transforms rendering this operation, one for each level of the
+    // source it is rendered from (see Rendering), so that rendering a live
+    // frame doesn't throw away what the full resolution rendering built
+    Map<Integer, Level> levels = new HashMap<>();
 
+    static final class Level {
+        Transform operation;
+        float scale;
+        // The revision the transform was last brought up to date with
+        long revision;
+    }
+
+    // The scale of the level being rendered
     protected float scale = 1;
 
+    private static final AtomicLong nextId = new AtomicLong();
+
+    // Tells the operations apart in the fingerprints, see fingerprint()
+    private final long id = nextId.incrementAndGet();
+
+    // Bumped whenever the settings change, see fingerprint()
+    private volatile long revision;
+
+    // The fingerprint of the pipeline up to and including this operation
+    protected long prefixKey;
+
+    // Tiles of this operation's output found in, or missing from, the cache
+    final LongAdder stageHits = new LongAdder();
+    final LongAdder stageMisses = new LongAdder();
+
     OperationImpl(Rendering engine, String name) {
         this.rendering = engine;
         this.name = name;
@@ -154,10 +184,19 @@ abstract class OperationImpl implements Operation {
 
     // Whenever Operation parameters change, the Engine must update:
     void settingsChanged() {
+        revision++;
         changed = true;
         rendering.update(this, batch != 0);
     }
 
+    // For the droppers, which read back what the build computes from the
+    // clicked pixel: returns once the rendering has been rebuilt
+    void settingsChangedAndWait() {
+        revision++;
+        changed = true;
+        rendering.updateAndWait(this);
+    }
+
     @Override
     public void setRegion(Region newRegion) {
         region = newRegion;
@@ -195,29 +234,61 @@ abstract class OperationImpl implements Operation {
 
     @Override
     public void dispose() {
-        if (operation != null)
-            operation.dispose();
+        for (final var level : levels.values()) {
+            if (level.operation != null)
+                level.operation.dispose();
+        }
+        levels.clear();
     }
 
-    protected PlanarImage render(PlanarImage source, float scale) {
-        if (scale != this.scale) {
-            this.scale = scale;
-            changed = true;
-        }
+    /**
+     * Returns the fingerprint of this operation's output, given that of its
+     * input: it changes whenever the input, the settings or the scale do,
+     * and differs between operations, so reordering them changes it.
+     */
+    long fingerprint(long inputKey, float scale) {
+        long h = inputKey * 0x9E3779B97F4A7C15L + id;
+        h = (h ^ (h >>> 32)) * 0x9E3779B97F4A7C15L + revision;
+        h = (h ^ (h >>> 32)) * 0x9E3779B97F4A7C15L + Float.floatToIntBits(scale);
+        return h ^ (h >>> 29);
+    }
+
+    /**
+     * Returns the share of the tiles of this operation's output that were
+     * found in the cache, from 0 to 1.
+     */
+    double getStageHitRate() {
+        final long hits = stageHits.sum();
+        final long total = hits + stageMisses.sum();
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    protected PlanarImage render(PlanarImage source, float scale, long prefixKey, int level) {
+        final var state = levels.computeIfAbsent(level, l -> new Level());
+
+        // The settings may change on the event thread while the transform
+        // is updated: only the revision read here is up to date afterwards
+        final long revision = this.revision;
+        this.prefixKey = prefixKey;
+        this.scale = scale;
+        changed = revision != state.revision || scale != state.scale;
 
+        final var operation = state.operation;
         if (operation != null)
             operation.setSource(source);
 
         if (changed || operation == null) {
             if (operation == null)
-                operation = createOp(source);
+                state.operation = createOp(source);
             else
                 updateOp(operation);
 
             changed = false;
+            state.revision = revision;
+            state.scale = scale;
         }
 
-        return operation.render();
+        return state.operation.render();
     }
 
     public Preview getPreview() {
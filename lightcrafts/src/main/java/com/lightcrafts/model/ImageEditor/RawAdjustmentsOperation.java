@@ -234,7 +234,7 @@ public class RawAdjustmentsOperation extends BlendedOperation implements ColorDr
     @Override
     public Map<String, Float> setColor(Point2D p) {
         this.p = p;
-        settingsChanged();
+        settingsChangedAndWait();
         this.p = null;
 
         Map<String, Float> result = new TreeMap<String, Float>();
@@ -246,7 +246,7 @@ public class RawAdjustmentsOperation extends BlendedOperation implements ColorDr
     @Override
     public Map<String, Double> getAuto() {
         autoWB = true;
-        settingsChanged();
+        settingsChangedAndWait();
         autoWB = false;
 
         Map<String, Double> result = new TreeMap<String, Double>();
@@ -20,72 +20,135 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 public class Rendering implements Cloneable {
     private static final Logger logger = LoggerFactory.getLogger(Rendering.class);
 
     @Getter
-    private float scaleFactor = 1;
+    private volatile float scaleFactor = 1;
 
     @Getter
-    private CropBounds cropBounds = new CropBounds();
+    private volatile CropBounds cropBounds = new CropBounds();
 
     @Getter
     private ImageEditorEngine engine;
 
-    private AffineTransform inputTransform = new AffineTransform();
-    private AffineTransform transform = new AffineTransform();
+    private volatile AffineTransform inputTransform = new AffineTransform();
+    private volatile AffineTransform transform = new AffineTransform();
+
+    // While getLiveRendering() runs the pipeline, the input transform that its
+    // thread sees
+    private volatile Thread liveRenderingThread;
+    private AffineTransform liveInputTransform;
     private final PlanarImage sourceImage;
     private PlanarImage xformedSourceImage;
 
+    // Bumped whenever xformedSourceImage is replaced, it seeds the
+    // fingerprints of the pipeline stages
+    private long sourceRevision;
+
+    // The source reduced for live renderings, and its pyramid level
+    // relative to xformedSourceImage
+    private PlanarImage liveSourceImage;
+    private int liveSourceLevel;
+
     private LinkedList<Operation> pipeline = new LinkedList<Operation>();
     private ImagePyramid pyramid;
 
+    // Held while the pipeline is rendered, one build at a time. The state
+    // above is guarded by this object's monitor, only held briefly to take
+    // a snapshot of it, so that changing it never waits for a build.
+    private Object buildLock = new Object();
+
+    // Disposes the images and operations replaced while a build may still
+    // be using them, before the next build starts
+    private List<Runnable> pendingDisposals = new ArrayList<>();
+
+    private record Snapshot(List<Operation> pipeline, PlanarImage sourceImage,
+                            PlanarImage liveSourceImage, float scale, long sourceRevision,
+                            AffineTransform inputTransform, CropBounds cropBounds) {}
+
     public boolean cheapScale = false;
 
     private static final int MIP_SCALE_RATIO = 2;
 
+    // The level the operations render prefetch() at: its cropped source
+    // differs from that of getRendering()
+    private static final int PREFETCH_LEVEL = -1;
+
     @Override
     public Rendering clone() /* throws CloneNotSupportedException */ {
-        try {
-            final var object = (Rendering) super.clone();
-            object.engine = null;
-            object.inputTransform = buildTransform(true);
-            object.transform = buildTransform(false);
-            object.xformedSourceImage = null;
-            object.pipeline = new LinkedList<Operation>();
-            for (final var op : pipeline) {
-                object.pipeline.add(((BlendedOperation) op).clone(object));
+        // The operations' state must not change while they are copied
+        synchronized (buildLock) {
+            synchronized (this) {
+                try {
+                    final var object = (Rendering) super.clone();
+                    object.engine = null;
+                    object.inputTransform = buildTransform(true);
+                    object.transform = buildTransform(false);
+                    object.xformedSourceImage = null;
+                    object.liveSourceImage = null;
+                    object.buildLock = new Object();
+                    object.pendingDisposals = new ArrayList<>();
+                    object.pipeline = new LinkedList<Operation>();
+                    for (final var op : pipeline) {
+                        object.pipeline.add(((BlendedOperation) op).clone(object));
+                    }
+                    return object;
+                } catch (CloneNotSupportedException e) {
+                    logger.error("Failed to clone Rendering", e);
+                    return null;
+                }
             }
-            return object;
-        } catch (CloneNotSupportedException e) {
-            logger.error("Failed to clone Rendering", e);
-            return null;
         }
     }
 
     void dispose() {
-        if (pipeline != null) {
-            while (!pipeline.isEmpty())
-                pipeline.removeLast().dispose();
-            pipeline = null;
+        synchronized (buildLock) {
+            synchronized (this) {
+                disposePending();
+                if (pipeline != null) {
+                    while (!pipeline.isEmpty())
+                        pipeline.removeLast().dispose();
+                    pipeline = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Disposes an operation removed from the pipeline, once no build uses
+     * it any more.
+     */
+    synchronized void disposeOperation(Operation op) {
+        pendingDisposals.add(op::dispose);
+    }
+
+    private void disposePending() {
+        final List<Runnable> disposals;
+        synchronized (this) {
+            disposals = pendingDisposals;
+            pendingDisposals = new ArrayList<>();
         }
+        disposals.forEach(Runnable::run);
     }
 
-    void addOperation(int position, Operation op) {
+    synchronized void addOperation(int position, Operation op) {
         pipeline.add(position, op);
     }
 
-    Operation removeOperation(int position) {
+    synchronized Operation removeOperation(int position) {
         return pipeline.remove(position);
     }
 
-    public int indexOf(Operation op) {
+    public synchronized int indexOf(Operation op) {
         return pipeline.indexOf(op);
     }
 
-    public Operation getOperation(int index) {
+    public synchronized Operation getOperation(int index) {
         return pipeline.get(index);
     }
 
@@ -108,8 +171,16 @@ public class Rendering implements Cloneable {
         }
     }
 
+    public void updateAndWait(OperationImpl op) {
+        if (engine != null) {
+            engine.updateAndWait(op);
+        }
+    }
+
     public AffineTransform getInputTransform() {
-        return new AffineTransform(inputTransform);
+        return new AffineTransform(Thread.currentThread() == liveRenderingThread
+                                   ? liveInputTransform
+                                   : inputTransform);
     }
 
     public AffineTransform getTransform() {
@@ -124,7 +195,7 @@ public class Rendering implements Cloneable {
         setCropAndScale(null, scaleFactor);
     }
 
-    public void setCropAndScale(CropBounds cropBounds, float scaleFactor) {
+    public synchronized void setCropAndScale(CropBounds cropBounds, float scaleFactor) {
         final var shouldUpdatBounds = (cropBounds != null && !cropBounds.equals(this.cropBounds));
         final var shouldUpdateScale = (scaleFactor != this.scaleFactor);
 
@@ -138,21 +209,136 @@ public class Rendering implements Cloneable {
             inputTransform = buildTransform(true);
             transform = buildTransform(false);
             if (xformedSourceImage != null) {
-                xformedSourceImage.dispose();
+                pendingDisposals.add(xformedSourceImage::dispose);
                 xformedSourceImage = null;
             }
+            if (liveSourceImage != null) {
+                pendingDisposals.add(liveSourceImage::dispose);
+                liveSourceImage = null;
+            }
+            sourceRevision++;
         }
     }
 
     private PlanarImage getXformedSourceImage() {
         if (xformedSourceImage == null)
-            xformedSourceImage = transformSourceImage();
+            xformedSourceImage = transformSourceImage(inputTransform);
         return xformedSourceImage;
     }
 
+    private static AffineTransform getLiveInputTransform(AffineTransform inputTransform, int level) {
+        final var reduction = 1.0 / (1 << level);
+        final var transform = new AffineTransform(inputTransform);
+        transform.preConcatenate(AffineTransform.getScaleInstance(reduction, reduction));
+        return transform;
+    }
+
+    private PlanarImage getLiveSourceImage(int level) {
+        if (liveSourceImage == null || liveSourceLevel != level) {
+            if (liveSourceImage != null)
+                liveSourceImage.dispose();
+            liveSourceImage = transformSourceImage(getLiveInputTransform(inputTransform, level));
+            liveSourceLevel = level;
+        }
+        return liveSourceImage;
+    }
+
+    /**
+     * Takes a snapshot of the state a build needs, disposing what was
+     * replaced since the last one.  Must be called with the build lock.
+     *
+     * @param liveLevel The reduction of the live source, or 0 for none.
+     */
+    private Snapshot snapshot(int liveLevel) {
+        disposePending();
+        synchronized (this) {
+            return new Snapshot(pipeline != null ? new ArrayList<>(pipeline) : null,
+                                getXformedSourceImage(),
+                                liveLevel > 0 ? getLiveSourceImage(liveLevel) : null,
+                                scaleFactor < 1 ? scaleFactor : 1, sourceRevision,
+                                inputTransform, cropBounds);
+        }
+    }
+
+    /**
+     * Renders the pipeline.  Each operation's output is cached under a
+     * fingerprint of the pipeline up to it, so an operation whose
+     * fingerprint hasn't changed keeps its cached tiles even when its image
+     * chain has to be rebuilt, and so do the operations after it: changing
+     * operation N only invalidates operations N and later.
+     */
     public PlanarImage getRendering(boolean inactive, int stopBefore) {
-        PlanarImage processedImage = getXformedSourceImage();
+        synchronized (buildLock) {
+            final var snapshot = snapshot(0);
+            return cropSourceImage(renderPipeline(snapshot.pipeline(), snapshot.sourceImage(),
+                                                  snapshot.scale(), snapshot.sourceRevision(),
+                                                  0, inactive, stopBefore),
+                                   snapshot);
+        }
+    }
+
+    /**
+     * Renders the pipeline on a copy of the source reduced by a power of
+     * two, for a live preview that keeps up with the user, and enlarges the
+     * result to the bounds of {@link #getRendering()}.  The operations keep
+     * a transform for each level, so the full resolution rendering finds
+     * its own where it left it.
+     *
+     * @param level The reduction, from 0 (none) in steps of halving.
+     */
+    public PlanarImage getLiveRendering(boolean inactive, int level) {
+        if (level <= 0)
+            return getRendering(inactive);
+
+        synchronized (buildLock) {
+            return getLiveRendering(snapshot(level), inactive, level);
+        }
+    }
+
+    private PlanarImage getLiveRendering(Snapshot snapshot, boolean inactive, int level) {
+        final var scale = snapshot.scale() / (1 << level);
+
+        // The operations build their masks in the reduced coordinates
+        liveInputTransform = getLiveInputTransform(snapshot.inputTransform(), level);
+        liveRenderingThread = Thread.currentThread();
+        final PlanarImage processedImage;
+        try {
+            // Keep the stages' fingerprints apart from the full renderings'
+            processedImage = renderPipeline(snapshot.pipeline(), snapshot.liveSourceImage(), scale,
+                                            snapshot.sourceRevision() + ((long) level << 32),
+                                            level, inactive, -1);
+        } finally {
+            liveRenderingThread = null;
+        }
 
+        final var liveBounds = processedImage.getBounds();
+        final var fullBounds = snapshot.sourceImage().getBounds();
+        final var transform = AffineTransform.getTranslateInstance(fullBounds.x, fullBounds.y);
+        transform.scale(fullBounds.width / (double) liveBounds.width,
+                        fullBounds.height / (double) liveBounds.height);
+        transform.translate(-liveBounds.x, -liveBounds.y);
+
+        final var extenderHints = new RenderingHints(
+                ImageN.KEY_BORDER_EXTENDER,
+                BorderExtender.createInstance(BorderExtender.BORDER_COPY));
+        PlanarImage enlarged = AffineDescriptor.create(
+                processedImage, transform, Interpolation.getInstance(Interpolation.INTERP_BILINEAR),
+                null, null, false, false, null, extenderHints);
+
+        // Rounding may have added a row or column
+        if (!enlarged.getBounds().equals(fullBounds)) {
+            final var bounds = enlarged.getBounds().intersection(fullBounds);
+            enlarged = CropDescriptor.create(enlarged,
+                                             (float) bounds.x, (float) bounds.y,
+                                             (float) bounds.width, (float) bounds.height,
+                                             null, null, null, null);
+        }
+        return cropSourceImage(enlarged, snapshot);
+    }
+
+    private static PlanarImage renderPipeline(List<Operation> pipeline, PlanarImage processedImage,
+                                              float scale, long prefixKey, int level,
+                                              boolean inactive, int stopBefore) {
         if (pipeline == null) {
             logger.warn("Rendering.renderPipeline: null pipeline?");
             return processedImage;
@@ -164,27 +350,39 @@ public class Rendering implements Cloneable {
                 break;
 
             if (operation.isActive() && !(inactive && operation.isDeactivatable())) {
-                final var result = operation.render(processedImage, scaleFactor < 1 ? scaleFactor : 1);
+                prefixKey = operation.fingerprint(prefixKey, scale);
+                final var result = operation.render(processedImage, scale, prefixKey, level);
                 if (result != null)
                     processedImage = result;
             }
         }
-        return cropSourceImage(processedImage);
+        return processedImage;
     }
 
     public void prefetch(Rectangle area) {
-        if (pipeline == null) {
+        synchronized (buildLock) {
+            prefetch(snapshot(0), area);
+        }
+    }
+
+    private static void prefetch(Snapshot snapshot, Rectangle area) {
+        if (snapshot.pipeline() == null) {
             logger.warn("Rendering.renderPipeline: null pipeline?");
             return;
         }
 
-        PlanarImage processedImage = cropSourceImage(getXformedSourceImage());
+        PlanarImage processedImage = cropSourceImage(snapshot.sourceImage(), snapshot);
+        final var scale = snapshot.scale();
+        // The cropped source differs from that of getRendering()
+        long prefixKey = ~snapshot.sourceRevision();
 
-        for (final var operation : pipeline) {
+        for (final var op : snapshot.pipeline()) {
+            final var operation = (OperationImpl) op;
             if (!operation.isActive()) {
                 continue;
             }
-            PlanarImage result = ((OperationImpl)operation).render(processedImage, scaleFactor < 1 ? scaleFactor : 1);
+            prefixKey = operation.fingerprint(prefixKey, scale);
+            PlanarImage result = operation.render(processedImage, scale, prefixKey, PREFETCH_LEVEL);
             if (result == null) {
                 continue;
             }
@@ -208,6 +406,19 @@ public class Rendering implements Cloneable {
         return getRendering(false, -1);
     }
 
+    /**
+     * Returns, for each operation of the pipeline, the share of the tiles
+     * of its output that were found in the cache, from 0 to 1.
+     */
+    public synchronized double[] getStageHitRates() {
+        if (pipeline == null) {
+            return new double[0];
+        }
+        return pipeline.stream()
+                .mapToDouble(op -> ((OperationImpl) op).getStageHitRate())
+                .toArray();
+    }
+
     public PlanarImage getRendering(boolean inactive) {
         return getRendering(inactive, -1);
     }
@@ -281,13 +492,11 @@ public class Rendering implements Cloneable {
         return transform;
     }
 
-    private PlanarImage transformSourceImage() {
+    private PlanarImage transformSourceImage(AffineTransform completeInputTransform) {
         PlanarImage image = sourceImage;
 
         PlanarImage xformedSourceImage = image;
 
-        AffineTransform completeInputTransform = inputTransform;
-
         if (!completeInputTransform.isIdentity()) {
             AffineTransform transform = completeInputTransform;
 
@@ -343,9 +552,10 @@ public class Rendering implements Cloneable {
                 newDimension.getHeight() / dimension.getHeight());
     }
 
-    private PlanarImage cropSourceImage(PlanarImage xformedSourceImage) {
+    private static PlanarImage cropSourceImage(PlanarImage xformedSourceImage, Snapshot snapshot) {
+        final var cropBounds = snapshot.cropBounds();
         if (!cropBounds.isAngleOnly()) {
-            final var actualCropBounds = CropBounds.transform(inputTransform, cropBounds);
+            final var actualCropBounds = CropBounds.transform(snapshot.inputTransform(), cropBounds);
             final var bounds = new Rectangle(
                     xformedSourceImage.getMinX(), xformedSourceImage.getMinY(),
                     xformedSourceImage.getWidth(), xformedSourceImage.getHeight());
@@ -11,10 +11,12 @@ import org.slf4j.LoggerFactory;
 
 import java.awt.*;
 import java.awt.image.Raster;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static java.util.function.Predicate.not;
@@ -39,11 +41,12 @@ class PaintRequest implements PaintContext {
     private final Set<Point> handledTiles = new HashSet<>();
     private boolean cancelled = false;
 
-    PaintRequest(PlanarImage image, int epoch, Set<Point> tileIndices, boolean syncronous, boolean prefetch,
+    // The tiles are queued, and so computed, in the order of the list
+    PaintRequest(PlanarImage image, int epoch, List<Point> tileIndices, boolean syncronous, boolean prefetch,
                  TileHandler handler) {
         this.image = image;
         this.epoch = epoch;
-        this.tiles = Set.copyOf(tileIndices);
+        this.tiles = new HashSet<>(tileIndices);
         this.synchronous = syncronous;
         this.prefetch = prefetch;
         this.tileHandler = handler;
@@ -79,6 +82,24 @@ class PaintRequest implements PaintContext {
         image.cancelTiles(tileRequest, null);
     }
 
+    /**
+     * Cancels the pending tiles that match a predicate.
+     *
+     * @return The number of tiles cancelled.
+     */
+    int cancelTiles(Predicate<Point> predicate) {
+        final var canceled = tiles.stream()
+                .filter(not(handledTiles::contains))
+                .filter(predicate)
+                .toArray(Point[]::new);
+        if (canceled.length > 0) {
+            tiles.removeAll(Arrays.asList(canceled));
+            pendingTiles -= canceled.length;
+            image.cancelTiles(tileRequest, canceled);
+        }
+        return canceled.length;
+    }
+
     TileRequest getTileRequest() {
         assert tileRequest != null;
         return tileRequest;
@@ -150,6 +171,25 @@ public class TileManager implements TileComputationListener {
         requests.removeAll(canceled);
     }
 
+    /**
+     * Cancels the pending tiles of an image that are not among the given
+     * ones, e.g. those that scrolled out of view.  Prefetched tiles are kept.
+     *
+     * @return The number of tiles cancelled.
+     */
+    public synchronized int cancelTilesOutside(PlanarImage image, int epoch, Set<Point> tiles) {
+        final var paintRequests = requests.stream()
+                .filter(not(PaintRequest::isPrefetch))
+                .filter(pr -> pr.image == image)
+                .filter(pr -> pr.epoch == epoch)
+                .toList();
+        final int canceled = paintRequests.stream()
+                .mapToInt(pr -> pr.cancelTiles(not(tiles::contains)))
+                .sum();
+        requests.removeIf(pr -> pr.getPendingTiles() == 0);
+        return canceled;
+    }
+
     public synchronized int pendingTiles(PlanarImage image, int epoch) {
         return requests.stream()
                 .filter(pr -> pr.image == image)
@@ -177,7 +217,7 @@ public class TileManager implements TileComputationListener {
         tiles.removeIf(t -> paintRequests.stream().anyMatch(pr -> pr.hasTile(t)));
 
         if (!tiles.isEmpty()) {
-            PaintRequest pr = new PaintRequest(image, epoch, Set.copyOf(tiles), syncronous, prefetch, handler);
+            PaintRequest pr = new PaintRequest(image, epoch, tiles, syncronous, prefetch, handler);
             requests.add(pr);
             if (prefetch)
                 prefetchRequest = pr;
@@ -5,6 +5,7 @@ package com.lightcrafts.model.ImageEditor;
 import com.lightcrafts.image.color.ColorScience;
 import com.lightcrafts.image.types.AuxiliaryImageInfo;
 import com.lightcrafts.image.types.RawImageInfo;
+import com.lightcrafts.jai.opimage.PointChainOpImage;
 import com.lightcrafts.jai.utils.Transform;
 import com.lightcrafts.model.ColorDropperOperation;
 import com.lightcrafts.model.OperationType;
@@ -12,7 +13,6 @@ import com.lightcrafts.model.SliderConfig;
 import com.lightcrafts.utils.LCMatrix;
 import com.lightcrafts.utils.Spline;
 import org.eclipse.imagen.PlanarImage;
-import org.eclipse.imagen.RenderedOp;
 import org.eclipse.imagen.media.bandcombine.BandCombineDescriptor;
 import org.eclipse.imagen.media.lookup.LookupDescriptor;
 import org.eclipse.imagen.media.lookup.LookupTableFactory;
@@ -182,7 +182,7 @@ public class WhiteBalanceV2 extends BlendedOperation implements ColorDropperOper
     @Override
     public Map<String, Float> setColor(Point2D p) {
         this.p = p;
-        settingsChanged();
+        settingsChangedAndWait();
         this.p = null;
 
         Map<String, Float> result = new TreeMap<String, Float>();
@@ -295,6 +295,11 @@ public class WhiteBalanceV2 extends BlendedOperation implements ColorDropperOper
             for (int i = 0; i < 0x10000; i++)
                 table[2][i] = (short) (0xffff & (int) Math.min(Math.max(i + 0xff * interpolator.interpolate(i / (double) 0xffff, blueCurve), 0), 0xffff));
 
+            // Fused into the preceding band combination, if any
+            final PlanarImage fused = PointChainOpImage.append(image, new PointChainOpImage.Lookup(table), null);
+            if (fused != null)
+                return fused;
+
             final var lookupTable = LookupTableFactory.create(table, true);
             return LookupDescriptor.create(image, lookupTable, 0, null, null, false, null);
         } else
@@ -311,7 +316,9 @@ public class WhiteBalanceV2 extends BlendedOperation implements ColorDropperOper
             for (int j = 0; j < 3; j++)
                 t[i][j] = b[i][j];
 
-        RenderedOp cargb = BandCombineDescriptor.create(image, t, null);
+        PlanarImage cargb = PointChainOpImage.append(image, new PointChainOpImage.BandCombine(t), null);
+        if (cargb == null)
+            cargb = BandCombineDescriptor.create(image, t, null);
 
         if (tint != 0)
             return tintCast(cargb, tint, lightness);
@@ -45,7 +45,7 @@ class WhitePointOperationImpl extends BlendedOperation implements WhitePointOper
     @Override
     public void setWhitePoint(Point2D p) {
         this.p = p;
-        settingsChanged();
+        settingsChangedAndWait();
     }
 
     @Override
@@ -59,11 +59,13 @@ public class ImageDatum {
     // The XMP file's modification time when metadata were last cached
     private long xmpFileCacheTime;
 
-    // Selected metadata, updated asynchronously
-    private ImageMetadata meta;
+    // Selected metadata, updated asynchronously.  Volatile so
+    // getLoadedMetadata() can read them without waiting for a scan, so they
+    // must be complete when assigned.
+    private volatile ImageMetadata meta;
 
     // Thumbnail image, updated asynchronously
-    private SoftReference<RenderedImage> image;
+    private volatile SoftReference<RenderedImage> image;
 
     // This ImageDatum's LZN encoding info, computed lazily
     private ImageDatumType type;
@@ -71,6 +73,12 @@ public class ImageDatum {
     // This flag indicates whether the ImageTask needs to run
     private boolean isDirty;
 
+    // If set, the first metadata read bypasses the metadata cache
+    private boolean ignoreMetadataCache;
+
+    // Sort values extracted from the metadata, see ImageDatumComparator
+    volatile ImageDatumComparator.SortKey sortKey;
+
     // The current runnable for background work
     private ImageTask task;
 
@@ -283,8 +291,9 @@ public class ImageDatum {
         previews.clear();
     }
 
-    // Called from ImageTask when a thumbnail is ready
-    synchronized void setImage(RenderedImage image) {
+    // Called from ImageTask when a thumbnail is ready, under the lock of the
+    // ImageTaskQueue, so it must not take this monitor.
+    void setImage(RenderedImage image) {
         this.image = new SoftReference<>(image);
     }
 
@@ -304,6 +313,10 @@ public class ImageDatum {
             migrateRotateCacheToXmp();
             useCache = false;
         }
+        if (ignoreMetadataCache) {
+            ignoreMetadataCache = false;
+            useCache = false;
+        }
         if ((meta == null) && useCache) {
             readMetadataCache();
         }
@@ -338,6 +351,19 @@ public class ImageDatum {
         return meta;
     }
 
+    // Called from ImageList when it opens without trusting the cache, so
+    // the first getMetadata() rereads the file whichever thread calls it.
+    synchronized void ignoreMetadataCache() {
+        ignoreMetadataCache = true;
+    }
+
+    // The metadata if they have been read already, or null.  Unlike
+    // getMetadata(), this never reads the file or the cache, nor waits for
+    // them to be read, so sorting can use it while they are being scanned.
+    ImageMetadata getLoadedMetadata() {
+        return meta;
+    }
+
     public void setGroup(ImageGroup group) {
         this.group.removeImageDatum(this);
         this.group = group;
@@ -372,10 +398,10 @@ public class ImageDatum {
 
     // Keep only the metadata fields used for sorting and display.
     private void updateMetadata(ImageMetadata meta) {
-        this.meta = new ImageMetadata();
+        final var limited = new ImageMetadata();
 
         final var core = meta.getDirectoryFor(CoreDirectory.class, true);
-        final var thisCore = this.meta.getDirectoryFor(CoreDirectory.class, true);
+        final var thisCore = limited.getDirectoryFor(CoreDirectory.class, true);
 
         // Tags used for presentation:
         Stream.of(
@@ -399,9 +425,10 @@ public class ImageDatum {
         final var xmpValue = meta.getValue(TIFFDirectory.class, TIFF_XMP_PACKET);
         if (xmpValue != null) {
             ImageMetadataDirectory thisTiff =
-                this.meta.getDirectoryFor(TIFFDirectory.class, true);
+                limited.getDirectoryFor(TIFFDirectory.class, true);
             thisTiff.putValue(TIFF_XMP_PACKET, xmpValue);
         }
+        this.meta = limited;
     }
 
     // Perform the operations common to rotateLeft() and rotateRight().
@@ -478,6 +505,8 @@ public class ImageDatum {
         catch (IllegalArgumentException e) {
             meta.clearRating();
         }
+        // The metadata changed in place, so extract the sort values again.
+        sortKey = null;
         EventQueue.invokeLater(this::notifyImageObservers);
     }
 
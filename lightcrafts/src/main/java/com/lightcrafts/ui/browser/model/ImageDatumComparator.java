@@ -5,8 +5,13 @@ package com.lightcrafts.ui.browser.model;
 import com.lightcrafts.image.metadata.CoreDirectory;
 import com.lightcrafts.image.metadata.ImageMetadata;
 import com.lightcrafts.image.metadata.ImageMetadataDirectory;
+import com.lightcrafts.image.metadata.values.DateMetaValue;
 import com.lightcrafts.image.metadata.values.ImageMetaValue;
+import com.lightcrafts.image.metadata.values.NumericMetaValue;
+import com.lightcrafts.image.metadata.values.StringMetaValue;
 
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.Comparator;
 
@@ -96,33 +101,37 @@ public class ImageDatumComparator implements Comparator<ImageDatum> {
         if (rightLeader != null) {
             right = rightLeader;
         }
-        ImageMetadata metaLeft = left.getMetadata(true);
-        ImageMetadata metaRight = right.getMetadata(true);
+        return compare(getSortKey(left), getSortKey(right));
+    }
 
-        Class<? extends ImageMetadataDirectory> clazz = CoreDirectory.class;
-        ImageMetaValue leftValue = metaLeft.getValue(clazz, tagId);
-        ImageMetaValue rightValue = metaRight.getValue(clazz, tagId);
-
-        if (leftValue != null && rightValue != null) {
-            if (! reverse) {
-                int comp = leftValue.compareTo(rightValue);
-                if (comp == 0) {
-                    comp = compareNames(left, right);
-                }
-                return comp;
-            }
-            else {
-                int comp = rightValue.compareTo(leftValue);
-                if (comp == 0) {
-                    comp = compareNames(left, right);
-                }
-                return comp;
+    /**
+     * Get the SortKey of an ImageDatum for this comparator, extracting it
+     * from the metadata only if they changed since it was last extracted.
+     * Metadata that have not been scanned yet sort like missing values, so
+     * sorting never blocks on file I/O.
+     */
+    SortKey getSortKey(ImageDatum datum) {
+        ImageMetadata meta = datum.getLoadedMetadata();
+        SortKey key = datum.sortKey;
+        if ((key == null) || (key.comparator != this) || (key.meta != meta)) {
+            key = new SortKey(this, datum, meta);
+            datum.sortKey = key;
+        }
+        return key;
+    }
+
+    int compare(SortKey left, SortKey right) {
+        if (left.hasValue() && right.hasValue()) {
+            int comp = reverse ? right.compareValue(left) : left.compareValue(right);
+            if (comp == 0) {
+                comp = compareNames(left, right);
             }
+            return comp;
         }
-        else if ((leftValue != null) && (rightValue == null)) {
+        else if (left.hasValue() && ! right.hasValue()) {
             return reverse ? -1 : +1;
         }
-        else if ((leftValue == null) && (rightValue != null)) {
+        else if (! left.hasValue() && right.hasValue()) {
             return reverse ? +1 : -1;
         }
         else {
@@ -143,46 +152,109 @@ public class ImageDatumComparator implements Comparator<ImageDatum> {
         return name;
     }
 
-    // A copy of the compare() method that compares CORE_FILE_NAME.  It works
-    // the same as the "Name" ImageDatumComparator class variable, only without
-    // recursion.  (There are exotic files where using Name.compare() itself
-    // causes stack overflow.)
-    private int compareNames(ImageDatum left, ImageDatum right) {
-        // Sorting respects ImageGroups:
-        ImageDatum leftLeader = left.getGroup().getLeader();
-        ImageDatum rightLeader = right.getGroup().getLeader();
-
-        if (leftLeader != null) {
-            left = leftLeader;
+    // The compare() method for CORE_FILE_NAME.  It works the same as the
+    // "Name" ImageDatumComparator class variable, only without recursion.
+    private int compareNames(SortKey left, SortKey right) {
+        if (left.name != null && right.name != null) {
+            return reverse ?
+                right.name.compareTo(left.name) :
+                left.name.compareTo(right.name);
         }
-        if (rightLeader != null) {
-            right = rightLeader;
+        else if ((left.name != null) && (right.name == null)) {
+            return reverse ? -1 : +1;
         }
-        ImageMetadata metaLeft = left.getMetadata(true);
-        ImageMetadata metaRight = right.getMetadata(true);
+        else if ((left.name == null) && (right.name != null)) {
+            return reverse ? +1 : -1;
+        }
+        else {
+            return 0;
+        }
+    }
 
-        Class<? extends ImageMetadataDirectory> clazz = CoreDirectory.class;
-        ImageMetaValue leftValue = metaLeft.getValue(clazz, CORE_FILE_NAME);
-        ImageMetaValue rightValue = metaRight.getValue(clazz, CORE_FILE_NAME);
+    /**
+     * The values an ImageDatumComparator compares, extracted once from the
+     * metadata of an ImageDatum into primitives and Strings, so a sort
+     * takes no locks, metadata lookups or file system calls per comparison.
+     * Numbers and dates compare as numbers, other values as Strings, just
+     * like their ImageMetaValues do.
+     */
+    static final class SortKey {
+
+        private static final int Missing = 0;
+        private static final int Number = 1;
+        private static final int Text = 2;
+
+        // The comparator and metadata this key was extracted for
+        private final ImageDatumComparator comparator;
+        private final ImageMetadata meta;
+
+        private final int kind;
+        private final double number;
+        private final String text;
+        private final String name;
+
+        // The file modification time, for sorting ImageGroup members
+        final long modified;
+
+        private SortKey(
+            ImageDatumComparator comparator, ImageDatum datum, ImageMetadata meta
+        ) {
+            this.comparator = comparator;
+            this.meta = meta;
 
-        if (leftValue != null && rightValue != null) {
-            if (! reverse) {
-                int comp = leftValue.compareTo(rightValue);
-                return comp;
+            ImageMetaValue value = getValue(meta, comparator.tagId);
+            if (value instanceof NumericMetaValue) {
+                kind = Number;
+                number = value.getDoubleValue();
+                text = null;
+            }
+            else if (value instanceof DateMetaValue) {
+                LocalDateTime date = ((DateMetaValue) value).getDateValue();
+                kind = (date != null) ? Number : Missing;
+                number = (date != null) ?
+                    date.toEpochSecond(ZoneOffset.UTC) + date.getNano() / 1e9 : 0;
+                text = null;
             }
             else {
-                int comp = rightValue.compareTo(leftValue);
-                return comp;
+                text = toText(value);
+                kind = (text != null) ? Text : Missing;
+                number = 0;
             }
+            name = toText(getValue(meta, CORE_FILE_NAME));
+            modified = datum.getFile().lastModified();
         }
-        else if ((leftValue != null) && (rightValue == null)) {
-            return reverse ? -1 : +1;
+
+        boolean hasValue() {
+            return kind != Missing;
         }
-        else if ((leftValue == null) && (rightValue != null)) {
-            return reverse ? +1 : -1;
+
+        private int compareValue(SortKey other) {
+            if (kind != other.kind) {
+                return Integer.compare(kind, other.kind);
+            }
+            return (kind == Number) ?
+                Double.compare(number, other.number) :
+                text.compareTo(other.text);
         }
-        else {
-            return 0;
+
+        // StringMetaValues compare case-insensitively.
+        private static String toText(ImageMetaValue value) {
+            if (value == null) {
+                return null;
+            }
+            String text = value.getStringValue();
+            if ((text != null) && (value instanceof StringMetaValue)) {
+                text = text.toLowerCase();
+            }
+            return text;
         }
     }
+
+    private static ImageMetaValue getValue(ImageMetadata meta, int tagId) {
+        if (meta == null) {
+            return null;
+        }
+        Class<? extends ImageMetadataDirectory> clazz = CoreDirectory.class;
+        return meta.getValue(clazz, tagId);
+    }
 }
\ No newline at end of file
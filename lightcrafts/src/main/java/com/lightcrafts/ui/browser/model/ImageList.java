@@ -14,6 +14,10 @@ import java.awt.*;
 import java.io.File;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -30,7 +34,8 @@ import lombok.Getter;
  * <ol>
  *   <li>the event thread (to update displays);</li>
  *   <li>the polling thread (responding to file modifications);</li>
- *   <li>from the task thread (as background tasks complete).</l>
+ *   <li>the scanning threads (reading metadata after the list opens);</li>
+ *   <li>from the task threads (as background tasks complete).</l>
  * <ol>
  * <p>
  * It is presumed that all public access to this class happens on the event
@@ -57,6 +62,12 @@ public class ImageList {
     // A thread that monitors for files added, removed, and modified
     private ImageListPoller poller;
 
+    // A thread that reads the metadata of the initial files in batches
+    private final Thread scanner;
+
+    // Set when stop() is called, to end the metadata scan early
+    private volatile boolean stopped;
+
     // The Comparator that defines the ordering of ImageDatums
     private ImageDatumComparator comp;
 
@@ -82,25 +93,34 @@ public class ImageList {
     // The cancel() method can halt the directory scan in the constructor
     private static boolean cancel;
 
+    // Threads reading metadata in parallel during the initial scan
+    private static final int SCAN_THREADS = Math.max(1,
+        Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    // The size of the first metadata scan batch; later batches double, so
+    // a folder of n files is resorted O(log n) times.
+    private static final int SCAN_BATCH_SIZE = 32;
+
     /**
      * Construct an ImageList and initialize it from files in the given
      * directory.
      * <p>
-     * The files will be scanned for metadata, which can take a long time.
-     * The ProgressIndicator argument can provide feedback.
+     * The files are only listed here, so this is quick.  Their metadata are
+     * scanned in parallel batches after start(), and the list is resorted
+     * and reordering is notified after each batch.
      * <p>
-     * The background threads (for modification polling and thumbnailing)
-     * are not started here.  See start().
+     * The background threads (for metadata scanning, modification polling
+     * and thumbnailing) are not started here.  See start().
      * @param directory A directory of image files to use.
      * @param size The initial size for thumbnail images.  See setSize().
      * @param cache A FileCache where thumbnail data can be saved.  May be
      * null.
      * @param useCache A flag to indicate whether the given FileCache should
      * be trusted to initialize the ImageList, or rather all data derived from
-     * image files should be recomputed in this constructor.
+     * image files should be recomputed by the metadata scan.
      * @param comp The initial Comparator for sorting images.  See setSort().
-     * @param progress A ProgressIndicator for feedback about the initial
-     * metadata scan.
+     * @param progress A ProgressIndicator for feedback about the directory
+     * listing.
      */
     public ImageList(
         File directory,
@@ -118,33 +138,39 @@ public class ImageList {
         poller = new ImageListPoller(this, directory);
         listeners = new LinkedList<>();
 
-        synchronized(list) {
-            // Perform a synchronous, one-pass scan of the directory, to
-            // preempt an avalanche of access to the ImageList when the
-            // ImageTaskQueue thread starts.
-            final var files = FileUtil.listFiles(directory, ImageFileFilter.INSTANCE, false);
-            if (files != null) {
-                progress.setMinimum(0);
-                progress.setMaximum(files.length);
-                // Just get metadata, let painting pull out thumbnails:
+        // List the files at once and sort them by name, so the browser can
+        // paint placeholders right away.  The metadata are scanned in the
+        // background once the ImageList is started, refining the order as
+        // they arrive.
+        final var files = FileUtil.listFiles(directory, ImageFileFilter.INSTANCE, false);
+        if (files != null) {
+            progress.setMinimum(0);
+            progress.setMaximum(files.length);
+            Arrays.sort(files);
+            synchronized(list) {
                 Arrays.stream(files)
                         .map(file -> new ImageDatum(file, size, queue, cache))
-                        .forEach(datum -> {
-                            datum.getMetadata(useCache);
-                            list.add(datum);
-                            progress.incrementBy(1);
-                        });
-            } else {
-                cancel = true;
-            }
-            if (cancel) {
-                queue.removeAllTasks();
-                list.clear();
-                wasCancelled = true;
-                cancel = false;
+                        .peek(datum -> {
+                            if (! useCache) {
+                                datum.ignoreMetadataCache();
+                            }
+                        })
+                        .forEach(list::add);
             }
-            sort(); // requires metadata, but not thumbnails
+            progress.incrementBy(files.length);
+        } else {
+            cancel = true;
+        }
+        if (cancel) {
+            queue.removeAllTasks();
+            list.clear();
+            wasCancelled = true;
+            cancel = false;
         }
+        sort();
+        scanner = new Thread(() -> scanMetadata(useCache), "Image List Scanner");
+        scanner.setPriority(Thread.MIN_PRIORITY);
+        scanner.setDaemon(true);
     }
 
     /**
@@ -161,6 +187,9 @@ public class ImageList {
         if (! wasCancelled) {
             queue.start();
             poller.start();
+            if (scanner.getState() == Thread.State.NEW) {
+                scanner.start();
+            }
         }
     }
 
@@ -197,6 +226,7 @@ public class ImageList {
      */
     public void stop() {
         if (! wasCancelled) {
+            stopped = true;
             queue.stop();
             poller.stop();
         }
@@ -286,7 +316,8 @@ public class ImageList {
     // Used in ImageListPoller when a new File is discovered.
     void addFile(File file) {
         final var datum = new ImageDatum(file, size, queue, cache);
-        datum.refresh(false); // reads metadata, enqueues thumbnailing
+        datum.refresh(false); // enqueues thumbnailing
+        datum.getMetadata(true);
         synchronized(list) {
             list.add(datum);
             sort();
@@ -308,6 +339,7 @@ public class ImageList {
 
     // Called from ImageListPoller when metadata update, to update the sort.
     void metadataChanged(final ImageDatum datum) {
+        datum.getMetadata(true);
         final int oldIndex, newIndex;
         synchronized(list) {
             oldIndex = list.indexOf(datum);
@@ -319,6 +351,56 @@ public class ImageList {
         }
     }
 
+    // Read the metadata of the initial files in parallel, in batches of
+    // doubling size, and resort after each batch.
+    private void scanMetadata(boolean useCache) {
+        final List<ImageDatum> data = getAllImageData();
+        final var pool = Executors.newFixedThreadPool(SCAN_THREADS, r -> {
+            final var thread = new Thread(r, "Image List Scanner Worker");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long start = System.currentTimeMillis();
+        try {
+            int batchSize = SCAN_BATCH_SIZE;
+            for (int from = 0; from < data.size() && ! stopped; from += batchSize, batchSize *= 2) {
+                final var batch = data.subList(from, Math.min(from + batchSize, data.size()));
+                final var reads = batch.stream()
+                        .map(datum -> CompletableFuture.runAsync(() -> {
+                            if (! stopped) {
+                                datum.getMetadata(useCache);
+                            }
+                        }, pool))
+                        .toArray(CompletableFuture[]::new);
+                CompletableFuture.allOf(reads).join();
+                resort();
+            }
+        }
+        catch (CompletionException e) {
+            logger.warn("Error scanning metadata", e.getCause());
+        }
+        finally {
+            pool.shutdown();
+        }
+        logger.debug("Scanned {} files in {} ms",
+            data.size(), System.currentTimeMillis() - start);
+    }
+
+    // Apply the ImageDatumComparator again as metadata arrive, keeping the
+    // current ImageGroups, and notify if the order changed.
+    private void resort() {
+        final boolean reordered;
+        synchronized(list) {
+            final var before = new ArrayList<>(list);
+            order();
+            reordered = ! before.equals(list);
+        }
+        if (reordered) {
+            EventQueue.invokeLater(this::notifyReordered);
+        }
+    }
+
     // Sorting means first determining the ImageGroups, then applying the
     // ImageDatumComparator to sort the ImageGroup leaders, then finally
     // placing all the other ImageGroup members by their respective leaders.
@@ -332,16 +414,35 @@ public class ImageList {
             // generating bogus ImageGroup assignments:
 //            ImageGroup.checkConsistency(list);
 
+            order();
+        }
+    }
+
+    // Order the list by the current ImageGroups, without reclustering.
+    // The sort keys are extracted once per ImageDatum up front, and only
+    // for ImageDatums whose metadata changed since the last sort.  The sort
+    // then uses this copy of the keys, since a rating change can reset an
+    // ImageDatum's key at any time, without the list lock.
+    private void order() {
+        synchronized(list) {
+            final Map<ImageDatum, ImageDatumComparator.SortKey> keys = new IdentityHashMap<>();
+            list.forEach(datum -> keys.put(datum, comp.getSortKey(datum)));
+            final Function<ImageDatum, ImageDatumComparator.SortKey> keyOf =
+                    datum -> keys.computeIfAbsent(datum, comp::getSortKey);
+
+            final Comparator<ImageDatum> keyComparator =
+                    (left, right) -> comp.compare(keyOf.apply(left), keyOf.apply(right));
+
             // Sort group members by file modification time:
             final Comparator<ImageDatum> modificationTimeComparator =
-                    Comparator.comparing((ImageDatum m) -> m.getFile().lastModified()).reversed();
+                    Comparator.comparingLong((ImageDatum m) -> keyOf.apply(m).modified).reversed();
 
             final List<ImageDatum> newList = list.stream()
                     .map(ImageDatum::getGroup)
                     .distinct()
                     .map(ImageGroup::getLeader)
-                    .sorted(comp)
                     .distinct()
+                    .sorted(keyComparator)
                     .flatMap(leader -> {
                         final var members = leader.getGroup().getImageDatums();
                         return Stream.concat(Stream.of(leader),
@@ -8,21 +8,53 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.*;
 
 /**
- * Given a directory, this Thread polls image Files for changes in their
- * modification times and triggers appropriate refreshes on ImageDatums.
+ * Given a directory, this Thread detects changes to its image Files and
+ * triggers appropriate refreshes on ImageDatums.
+ * <p>
+ * Changes are detected by a WatchService on the directory.  Events are
+ * coalesced until the directory has been quiet for a moment, and then only
+ * the ImageDatums named by the events are checked.  Where the directory can't
+ * be watched, as on network file systems whose remote changes never raise
+ * events, the Thread falls back to a slow poll of every File.
  */
 class ImageListPoller implements Runnable {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageListPoller.class);
 
-    // The wait between scans for modifications, in milliseconds
-    private final static long Interval = 3000;
+    // The wait between scans for modifications when the directory can't be
+    // watched, in milliseconds
+    private final static long Interval = 10000;
+
+    // The quiet time that ends a burst of watch events, in milliseconds
+    private final static long Debounce = 300;
+
+    // The longest a burst of watch events may be delayed, in milliseconds
+    private final static long MaxDelay = 2000;
+
+    // File system types where a WatchService misses remote changes
+    private final static Set<String> NetworkFileSystems = Set.of(
+        "nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "smb3",
+        "afpfs", "webdav", "fuse.sshfs", "9p"
+    );
 
     private ImageList list;
 
@@ -32,7 +64,9 @@ class ImageListPoller implements Runnable {
 
     private boolean pause;
 
-    private boolean stop;
+    private volatile boolean stop;
+
+    private volatile WatchService watcher;
 
     ImageListPoller(ImageList list, File directory) {
         thread = new Thread(this, "Image List Poller");
@@ -42,6 +76,27 @@ class ImageListPoller implements Runnable {
     }
 
     public void run() {
+        watcher = openWatcher();
+        if (watcher != null) {
+            try {
+                watch();
+                return;
+            }
+            catch (ClosedWatchServiceException e) {
+                // Probably a call to stop()
+                if (stop) {
+                    return;
+                }
+            }
+            catch (InterruptedException e) {
+                // Probably a call to stop()
+                return;
+            }
+            catch (Throwable e) {
+                logger.warn("Error watching {}, polling instead", directory, e);
+            }
+            closeWatcher();
+        }
         while (! stop) {
             synchronized (this) {
                 try {
@@ -72,6 +127,7 @@ class ImageListPoller implements Runnable {
 
     void stop() {
         stop = true;
+        closeWatcher();
         thread.interrupt();
     }
 
@@ -89,45 +145,152 @@ class ImageListPoller implements Runnable {
         }
     }
 
-    private void poll() {
-        List<ImageDatum> data = list.getAllImageData();
-        Set<File> listFiles = new HashSet<File>();
-        for (Iterator<ImageDatum> i=data.iterator(); i.hasNext() && !stop; )  {
-            ImageDatum datum = i.next();
-            long oldTime = datum.getFileCacheTime();
-            // If oldTime == 0, the datum is still initializing
-            File file = datum.getFile();
-            listFiles.add(file);
-            if (oldTime > 0) {
-                if (! file.isFile()) {
+    // Register the directory with a new WatchService, or return null if the
+    // directory can't be watched reliably.
+    private WatchService openWatcher() {
+        final Path dir = directory.toPath();
+        try {
+            final String type = Files.getFileStore(dir).type();
+            if (NetworkFileSystems.contains(type.toLowerCase())) {
+                logger.info("Polling {} on a {} file system", dir, type);
+                return null;
+            }
+            final WatchService service = FileSystems.getDefault().newWatchService();
+            try {
+                dir.register(service, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            }
+            catch (IOException | RuntimeException e) {
+                service.close();
+                throw e;
+            }
+            return service;
+        }
+        catch (IOException | RuntimeException e) {
+            logger.info("Can't watch {}, polling instead: {}", dir, e.toString());
+            return null;
+        }
+    }
+
+    private void closeWatcher() {
+        final WatchService service = watcher;
+        if (service != null) {
+            try {
+                service.close();
+            }
+            catch (IOException e) {
+                // Nothing to do
+            }
+        }
+    }
+
+    // Check everything once, in case something changed before the directory
+    // was registered, then wait for watch events and check just the Files
+    // they name.  A lost event (OVERFLOW) triggers another full check.
+    private void watch() throws InterruptedException {
+        poll();
+        while (! stop) {
+            WatchKey key = watcher.take();
+            final Map<Path, WatchEvent.Kind<?>> changed = new HashMap<>();
+            boolean overflow = false;
+
+            // Coalesce a burst of events, like from a file copy.
+            final long deadline = System.currentTimeMillis() + MaxDelay;
+            while (key != null) {
+                overflow |= collectEvents(key, changed);
+                final long remaining = deadline - System.currentTimeMillis();
+                key = (remaining > 0)
+                    ? watcher.poll(Math.min(Debounce, remaining), TimeUnit.MILLISECONDS)
+                    : null;
+            }
+            synchronized (this) {
+                while (pause && ! stop) {
+                    wait();
+                }
+            }
+            if (stop) {
+                return;
+            }
+            if (overflow) {
+                log("events lost", directory);
+                poll();
+            }
+            else {
+                update(changed);
+            }
+        }
+    }
+
+    // Add the Files named by the events of a WatchKey to the given Map, with
+    // the kind of their latest event, and reset the key.  Returns true if
+    // events were lost.
+    private boolean collectEvents(WatchKey key, Map<Path, WatchEvent.Kind<?>> changed) {
+        boolean overflow = false;
+        final Path dir = (Path) key.watchable();
+        for (final WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                overflow = true;
+            }
+            else {
+                changed.put(dir.resolve((Path) event.context()), event.kind());
+            }
+        }
+        if (! key.reset()) {
+            log("directory disappeared", directory);
+        }
+        return overflow;
+    }
+
+    // Check the ImageDatums whose image or XMP File changed, remove those
+    // whose image File was deleted, and add the image Files that appeared.
+    private void update(Map<Path, WatchEvent.Kind<?>> changed) {
+        final List<ImageDatum> data = list.getAllImageData();
+        final Map<Path, ImageDatum> datums = new HashMap<>();
+        for (final ImageDatum datum : data) {
+            datums.put(datum.getFile().toPath(), datum);
+            final File xmpFile = datum.getXmpFile();
+            if (xmpFile != null) {
+                datums.put(xmpFile.toPath(), datum);
+            }
+        }
+        final Set<ImageDatum> touched = new HashSet<>();
+        final Set<ImageDatum> removed = new HashSet<>();
+        for (final Map.Entry<Path, WatchEvent.Kind<?>> entry : changed.entrySet()) {
+            final Path path = entry.getKey();
+            final boolean deleted = entry.getValue() == ENTRY_DELETE;
+            final ImageDatum datum = datums.get(path);
+            final File file = path.toFile();
+            if (datum != null) {
+                if (deleted && file.equals(datum.getFile()) && ! file.isFile()) {
                     log("file disappeared", file);
                     list.removeImageData(datum);
+                    removed.add(datum);
                 }
                 else {
-                    long newTime = file.lastModified();
-                    if (newTime > oldTime) {
-                        log("modification detected", file);
-                        datum.refresh(false);
-                        list.metadataChanged(datum);
-                    }
-                }
-                File xmpFile = datum.getXmpFile();
-                if (xmpFile == null) {
-                    // XMP couldn't be determined, probably a metadata error
-                    continue;
-                }
-                long oldXmpTime = datum.getXmpFileCacheTime();
-                if (! xmpFile.isFile() && (oldXmpTime > 0)) {
-                    log("XMP file disappeared", file);
-                    datum.refresh(true);
-                    list.metadataChanged(datum);
-                }
-                else if (xmpFile.lastModified() > oldXmpTime) {
-                    log("XMP modification detected", file);
-                    datum.refresh(true);
-                    list.metadataChanged(datum);
+                    touched.add(datum);
                 }
             }
+            else if (! deleted && file.isFile()
+                     && ImageFileFilter.INSTANCE.accept(file)) {
+                log("file appeared", file);
+                list.addFile(file);
+            }
+        }
+        touched.removeAll(removed);
+        for (final ImageDatum datum : touched) {
+            if (stop) {
+                return;
+            }
+            check(datum);
+        }
+    }
+
+    private void poll() {
+        List<ImageDatum> data = list.getAllImageData();
+        Set<File> listFiles = new HashSet<File>();
+        for (Iterator<ImageDatum> i=data.iterator(); i.hasNext() && !stop; )  {
+            ImageDatum datum = i.next();
+            listFiles.add(datum.getFile());
+            check(datum);
         }
         File[] dirFiles =
             FileUtil.listFiles(directory, ImageFileFilter.INSTANCE, false );
@@ -142,6 +305,44 @@ class ImageListPoller implements Runnable {
         }
     }
 
+    // Compare the modification times of an ImageDatum's Files with those
+    // noted with its metadata, and refresh it if they differ.
+    private void check(ImageDatum datum) {
+        File file = datum.getFile();
+        if (! file.isFile()) {
+            log("file disappeared", file);
+            list.removeImageData(datum);
+            return;
+        }
+        long oldTime = datum.getFileCacheTime();
+        // If oldTime == 0, the datum is still initializing
+        if (oldTime <= 0) {
+            return;
+        }
+        long newTime = file.lastModified();
+        if (newTime > oldTime) {
+            log("modification detected", file);
+            datum.refresh(false);
+            list.metadataChanged(datum);
+        }
+        File xmpFile = datum.getXmpFile();
+        if (xmpFile == null) {
+            // XMP couldn't be determined, probably a metadata error
+            return;
+        }
+        long oldXmpTime = datum.getXmpFileCacheTime();
+        if (! xmpFile.isFile() && (oldXmpTime > 0)) {
+            log("XMP file disappeared", file);
+            datum.refresh(true);
+            list.metadataChanged(datum);
+        }
+        else if (xmpFile.lastModified() > oldXmpTime) {
+            log("XMP modification detected", file);
+            datum.refresh(true);
+            list.metadataChanged(datum);
+        }
+    }
+
     private static void log(String message, File file) {
         logger.debug("{} at {}", message, file);
     }
@@ -22,6 +22,10 @@ import java.io.OutputStream;
  * A high resolution preview gets cached in the BrowserCache and also the
  * weakly referenced in-memory ImageDatum cache.  The final scaling and
  * rotation results are never cached and are recomputed every time.
+ * <p>
+ * The work is split into an I/O-bound stage, readPreview(), and a CPU-bound
+ * stage, renderThumbnail(), so the ImageTaskQueue can run them on separate
+ * worker pools.
  */
 public class ImageTask implements Runnable {
 
@@ -39,6 +43,19 @@ public class ImageTask implements Runnable {
     // The size for final stage thumbnails
     private int size;
 
+    // Handed from the I/O stage to the CPU stage
+    private ImageMetadata meta;
+    private RenderedImage preview;
+    private boolean isCached;
+
+    // Scheduling state, owned by the ImageTaskQueue
+    ImageTaskQueue queue;
+    int heapIndex = -1;
+    long raised;
+    long sequence;
+    long enqueued;
+    boolean cancelled;
+
     ImageTask(
         ImageDatum datum,
         FileCache cache,
@@ -56,43 +73,74 @@ public class ImageTask implements Runnable {
     }
 
     public void run() {
-        // First initialize metadata, if it's not already read.
-        ImageMetadata meta = datum.getMetadata(true);
+        readPreview();
+        renderThumbnail();
+    }
 
-        RenderedImage image = null;
+    /**
+     * The I/O-bound stage: read the metadata and a preview, either from the
+     * file cache or by extracting it from the image file.
+     */
+    void readPreview() {
+        // First initialize metadata, if it's not already read.
+        meta = datum.getMetadata(true);
 
         // If there's a file cache entry, use that.
         if (!datum.isBadFile() && cache != null) {
-            image = readImageCache();
-            if (image != null) {
-                // Fix the orientation.
-                image = Thumbnailer.rotate(image, meta);
-            }
+            preview = readImageCache();
+            isCached = (preview != null);
         }
         // If the file cache didn't answer, try to read the File.
-        if (!datum.isBadFile() && image == null) {
+        if (!datum.isBadFile() && preview == null) {
             File file = datum.getFile();
-            image = Thumbnailer.getImage(file, CacheImageSize);
-            if (image != null) {
-                // If there's an image and a cache, then cache the image.
-                if (cache != null) {
-                    writeImageCache(image);
-                }
-                // Fix the orientation.
-                image = Thumbnailer.rotate(image, meta);
-            }
-            else {
+            preview = Thumbnailer.getImage(file, CacheImageSize);
+            if (preview == null) {
                 datum.setBadFile(true);
             }
         }
-        // If anything worked, scale and optimize for the ImageDatum.
+    }
+
+    /**
+     * The CPU-bound stage: cache a freshly extracted preview as JPEG, then
+     * rotate, scale and optimize it for the ImageDatum.
+     */
+    void renderThumbnail() {
+        RenderedImage image = preview;
+        preview = null;
+
         if (image != null) {
-            image = fixSizeAndColors(image);
-            datum.setImage(image);
+            // If the preview came from the File and there's a cache, then
+            // cache the image, unless a newer task replaced this one.
+            if (!isCached && cache != null && !isCancelled()) {
+                writeImageCache(image);
+            }
+            // Fix the orientation.
+            image = Thumbnailer.rotate(image, meta);
+            // Scale and optimize for the ImageDatum.
+            final RenderedImage thumbnail = fixSizeAndColors(image);
+            if (!publish(() -> datum.setImage(thumbnail))) {
+                return;
+            }
+        }
+        else if (isCancelled()) {
+            return;
         }
         datum.markClean();
     }
 
+    private boolean isCancelled() {
+        return queue != null && queue.isCancelled(this);
+    }
+
+    // Don't let a superseded task overwrite the thumbnail of a newer one.
+    private boolean publish(Runnable action) {
+        if (queue == null) {
+            action.run();
+            return true;
+        }
+        return queue.runUnlessCancelled(this, action);
+    }
+
     private RenderedImage fixSizeAndColors(RenderedImage image) {
         image = Thumbnailer.constrainImage(image, size);
         image = FastImageFactory.createFastImage(image);
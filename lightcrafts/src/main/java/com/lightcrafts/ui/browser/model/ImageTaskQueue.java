@@ -5,143 +5,359 @@ package com.lightcrafts.ui.browser.model;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.awt.*;
 
-public class ImageTaskQueue implements Runnable {
+/**
+ * Runs ImageTasks on two pools of worker threads: one for the I/O-bound
+ * preview extraction and one for the CPU-bound scaling and JPEG encoding.
+ * <p>
+ * Pending tasks are kept in priority heaps.  A task raised by raiseTask(),
+ * which ImageDatum calls whenever its thumbnail is painted, goes ahead of
+ * every task that was raised before it, so the visible thumbnails are
+ * computed first; tasks that have never been raised run in the order they
+ * were added.  Raising, adding and removing a task take O(log n) time.
+ * <p>
+ * The pool sizes can be set with the "lightcrafts.thumbnail.ioThreads" and
+ * "lightcrafts.thumbnail.cpuThreads" system properties.
+ */
+public class ImageTaskQueue {
 
     private static final Logger logger = LoggerFactory.getLogger(ImageTaskQueue.class);
 
-    private final LinkedList<ImageTask> queue;
+    private static final int IO_THREADS = Math.max(1,
+        Integer.getInteger("lightcrafts.thumbnail.ioThreads", 2));
 
-    private final Thread thread;
+    private static final int CPU_THREADS = Math.max(1,
+        Integer.getInteger("lightcrafts.thumbnail.cpuThreads",
+            Runtime.getRuntime().availableProcessors() - 1));
+
+    // The I/O stage stalls when this many previews await the CPU stage,
+    // so decoded previews can't pile up in memory.
+    private static final int MAX_HANDOFF = 2 * CPU_THREADS;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+
+    // Tasks waiting for the I/O stage, and tasks waiting for the CPU stage
+    private final TaskHeap ioQueue = new TaskHeap();
+    private final TaskHeap cpuQueue = new TaskHeap();
+
+    private final List<Thread> threads;
     private boolean pause;
     private boolean stop;
 
+    // Counters for raiseTask() and addTask(), guarded by lock
+    private long raiseCount;
+    private long addCount;
+
+    // The number of tasks taken from a heap but not finished yet
+    private int running;
+
+    // Throughput and latency counters
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder ioNanos = new LongAdder();
+    private final LongAdder cpuNanos = new LongAdder();
+    private final LongAdder latencyNanos = new LongAdder();
+
+    // The start and size of the current burst of work, guarded by lock
+    private long burstStart;
+    private long burstCompleted;
+
     private final LinkedList<ImageTaskQueueListener> listeners;
 
     public ImageTaskQueue() {
-        thread = new Thread(this, "Image Task Queue");
-        thread.setPriority(Thread.MIN_PRIORITY);
-        queue = new LinkedList<>();
+        threads = new ArrayList<>(IO_THREADS + CPU_THREADS);
+        for (int n = 0; n < IO_THREADS; n++) {
+            threads.add(createThread("Image Task Queue I/O " + n, true));
+        }
+        for (int n = 0; n < CPU_THREADS; n++) {
+            threads.add(createThread("Image Task Queue CPU " + n, false));
+        }
         listeners = new LinkedList<>();
     }
 
+    private Thread createThread(String name, boolean io) {
+        final Thread thread = new Thread(() -> runStage(io), name);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }
+
     void addTask(ImageTask task) {
-        synchronized(queue) {
-            queue.add(task);
-            queue.notifyAll();
+        lock.lock();
+        try {
+            if (ioQueue.isEmpty() && cpuQueue.isEmpty() && running == 0) {
+                burstStart = System.nanoTime();
+                burstCompleted = 0;
+            }
+            task.queue = this;
+            task.sequence = ++addCount;
+            task.enqueued = System.nanoTime();
+            ioQueue.add(task);
+            changed.signalAll();
+        }
+        finally {
+            lock.unlock();
         }
     }
 
     void removeTask(ImageTask task) {
-        synchronized(queue) {
-            queue.remove(task);
+        lock.lock();
+        try {
+            if (! ioQueue.remove(task) && ! cpuQueue.remove(task)) {
+                // Already running: drop its result at the next stage.
+                task.cancelled = true;
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    boolean isCancelled(ImageTask task) {
+        lock.lock();
+        try {
+            return task.cancelled;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs an action for a task under the lock, unless the task has been
+     * cancelled.  The action must be quick and must not take other locks.
+     *
+     * @return Returns <code>false</code> if the task was cancelled.
+     */
+    boolean runUnlessCancelled(ImageTask task, Runnable action) {
+        lock.lock();
+        try {
+            if (task.cancelled) {
+                return false;
+            }
+            action.run();
+            return true;
+        }
+        finally {
+            lock.unlock();
         }
     }
 
     void removeAllTasks() {
-        synchronized(queue) {
-            queue.clear();
+        lock.lock();
+        try {
+            ioQueue.clear();
+            cpuQueue.clear();
+        }
+        finally {
+            lock.unlock();
         }
     }
 
     public void start() {
-        if (! thread.isAlive()) {
-            pause = false;
-            stop = false;
-            thread.start();
+        lock.lock();
+        try {
+            if (! threads.get(0).isAlive()) {
+                pause = false;
+                stop = false;
+                threads.forEach(Thread::start);
+            }
+        }
+        finally {
+            lock.unlock();
         }
     }
 
     public void stop() {
-        pause = false;
-        stop = true;
-        synchronized(queue) {
-            queue.notifyAll();
+        lock.lock();
+        try {
+            pause = false;
+            stop = true;
+            changed.signalAll();
         }
-        synchronized(thread) {
-            thread.notifyAll();
+        finally {
+            lock.unlock();
         }
     }
 
     public void pause() {
-        synchronized(thread) {
+        lock.lock();
+        try {
             pause = true;
         }
+        finally {
+            lock.unlock();
+        }
     }
 
     public void resume() {
-        synchronized(thread) {
+        lock.lock();
+        try {
             if (pause) {
                 pause = false;
-                thread.notifyAll();
+                changed.signalAll();
             }
         }
+        finally {
+            lock.unlock();
+        }
     }
 
+    /**
+     * Move the given task ahead of every other pending task, if it is
+     * pending.
+     */
     public void raiseTask(ImageTask task) {
-        synchronized(queue) {
-            if (queue.contains(task)) {
-                queue.remove(task);
-                queue.addFirst(task);
+        lock.lock();
+        try {
+            if (ioQueue.contains(task)) {
+                task.raised = ++raiseCount;
+                ioQueue.raised(task);
+            }
+            else if (cpuQueue.contains(task)) {
+                task.raised = ++raiseCount;
+                cpuQueue.raised(task);
             }
         }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of tasks completed since this queue was created.
+     */
+    public long getCompletedCount() {
+        return completed.sum();
+    }
+
+    /**
+     * The mean time in milliseconds from adding a task to its completion.
+     */
+    public double getMeanLatency() {
+        return meanMillis(latencyNanos);
+    }
+
+    /**
+     * The mean time in milliseconds a task spends in the I/O stage.
+     */
+    public double getMeanIOTime() {
+        return meanMillis(ioNanos);
+    }
+
+    /**
+     * The mean time in milliseconds a task spends in the CPU stage.
+     */
+    public double getMeanCPUTime() {
+        return meanMillis(cpuNanos);
     }
 
-    public void run() {
-        while (! stop) {
-            Runnable task;
-            synchronized(queue) {
-                while (queue.isEmpty() && (! stop)) {
-                    waitForNotify(queue);
-                    if (stop) {
-                        return;
-                    }
+    private double meanMillis(LongAdder nanos) {
+        final long count = completed.sum();
+        return count > 0 ? nanos.sum() / (1e6 * count) : 0;
+    }
+
+    void addListener(ImageTaskQueueListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(ImageTaskQueueListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void runStage(boolean io) {
+        final TaskHeap heap = io ? ioQueue : cpuQueue;
+        while (true) {
+            final ImageTask task;
+            lock.lock();
+            try {
+                while ((pause || heap.isEmpty() || (io && isBackedUp())) && ! stop) {
+                    changed.awaitUninterruptibly();
+                }
+                if (stop) {
+                    return;
+                }
+                task = heap.poll();
+                running++;
+                if (! io) {
+                    // Make room for the I/O stage.
+                    changed.signalAll();
                 }
-                task = queue.removeFirst();
                 logQueueSize();
             }
+            finally {
+                lock.unlock();
+            }
+            final long start = System.nanoTime();
+            boolean ok = false;
             try {
-                task.run();
+                if (io) {
+                    task.readPreview();
+                }
+                else {
+                    task.renderThumbnail();
+                }
+                ok = true;
             }
             catch (Throwable t) {
                 logTaskError(t);
             }
-            synchronized(thread) {
-                while (pause && (! stop)) {
-                    waitForNotify(thread);
+            final long end = System.nanoTime();
+            (io ? ioNanos : cpuNanos).add(end - start);
+
+            lock.lock();
+            try {
+                running--;
+                if (io && ok && ! task.cancelled) {
+                    cpuQueue.add(task);
+                    changed.signalAll();
+                }
+                else if (! io) {
+                    completed.increment();
+                    latencyNanos.add(end - task.enqueued);
+                    burstCompleted++;
+                }
+                if (ioQueue.isEmpty() && cpuQueue.isEmpty() && running == 0) {
+                    logBurst(end);
                 }
             }
+            finally {
+                lock.unlock();
+            }
         }
     }
 
-    void addListener(ImageTaskQueueListener listener) {
-        listeners.add(listener);
+    private boolean isBackedUp() {
+        return cpuQueue.size() >= MAX_HANDOFF;
     }
 
-    void removeListener(ImageTaskQueueListener listener) {
-        listeners.remove(listener);
+    private void logQueueSize() {
+        final int depth = ioQueue.size() + cpuQueue.size();
+        EventQueue.invokeLater(() -> listeners.forEach(l -> l.queueDepthChanged(depth)));
     }
 
-    private static void waitForNotify(Object monitor) {
-        synchronized(monitor) {
-            boolean interrupted;
-            do {
-                try {
-                    interrupted = false;
-                    monitor.wait();
-                }
-                catch (InterruptedException e) {
-                    interrupted = true;
-                }
-            } while (interrupted);
+    private void logBurst(long end) {
+        if (burstCompleted == 0) {
+            return;
         }
-    }
-
-    private void logQueueSize() {
-        final int depth = queue.size();
-        EventQueue.invokeLater(() -> listeners.forEach(l -> l.queueDepthChanged(depth)));
+        final double seconds = (end - burstStart) / 1e9;
+        logger.info(
+            "{} thumbnails in {} s ({}/s), mean latency {} ms, I/O {} ms, CPU {} ms",
+            burstCompleted,
+            String.format("%.1f", seconds),
+            String.format("%.1f", burstCompleted / Math.max(seconds, 1e-3)),
+            String.format("%.0f", getMeanLatency()),
+            String.format("%.1f", getMeanIOTime()),
+            String.format("%.1f", getMeanCPUTime())
+        );
+        burstCompleted = 0;
     }
 
     private void logTaskError(Throwable t) {
@@ -154,4 +370,118 @@ public class ImageTaskQueue implements Runnable {
         }
         logger.error("{}", buffer, t);
     }
+
+    /**
+     * An indexed binary heap of ImageTasks.  Each task remembers its slot,
+     * so it can be found, removed or moved up in O(log n) time.  The most
+     * recently raised task comes first; tasks never raised come after all
+     * raised ones, in the order they were added.
+     */
+    private static final class TaskHeap {
+
+        private ImageTask[] tasks = new ImageTask[64];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        boolean contains(ImageTask task) {
+            final int i = task.heapIndex;
+            return i >= 0 && i < size && tasks[i] == task;
+        }
+
+        void add(ImageTask task) {
+            if (size == tasks.length) {
+                tasks = Arrays.copyOf(tasks, size * 2);
+            }
+            task.heapIndex = size;
+            tasks[size++] = task;
+            siftUp(task.heapIndex);
+        }
+
+        ImageTask poll() {
+            final ImageTask first = tasks[0];
+            removeAt(0);
+            return first;
+        }
+
+        boolean remove(ImageTask task) {
+            if (! contains(task)) {
+                return false;
+            }
+            removeAt(task.heapIndex);
+            return true;
+        }
+
+        // The task's priority was raised: restore the heap order.
+        void raised(ImageTask task) {
+            siftUp(task.heapIndex);
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                tasks[i].heapIndex = -1;
+                tasks[i] = null;
+            }
+            size = 0;
+        }
+
+        private void removeAt(int i) {
+            tasks[i].heapIndex = -1;
+            final ImageTask last = tasks[--size];
+            tasks[size] = null;
+            if (i < size) {
+                set(i, last);
+                siftDown(i);
+                siftUp(last.heapIndex);
+            }
+        }
+
+        private void siftUp(int i) {
+            final ImageTask task = tasks[i];
+            while (i > 0) {
+                final int parent = (i - 1) >>> 1;
+                if (! isBefore(task, tasks[parent])) {
+                    break;
+                }
+                set(i, tasks[parent]);
+                i = parent;
+            }
+            set(i, task);
+        }
+
+        private void siftDown(int i) {
+            final ImageTask task = tasks[i];
+            final int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && isBefore(tasks[child + 1], tasks[child])) {
+                    child++;
+                }
+                if (! isBefore(tasks[child], task)) {
+                    break;
+                }
+                set(i, tasks[child]);
+                i = child;
+            }
+            set(i, task);
+        }
+
+        private void set(int i, ImageTask task) {
+            tasks[i] = task;
+            task.heapIndex = i;
+        }
+
+        private static boolean isBefore(ImageTask a, ImageTask b) {
+            if (a.raised != b.raised) {
+                return a.raised > b.raised;
+            }
+            return a.sequence < b.sequence;
+        }
+    }
 }
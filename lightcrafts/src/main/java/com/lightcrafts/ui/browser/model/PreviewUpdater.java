@@ -153,11 +153,7 @@ public class PreviewUpdater extends Thread {
     ) {
         final File file = meta.getFile();
         final String key = getImageKey(file);
-        final File cacheFile = cache.getFileFor(key);
-        if (cacheFile != null) {
-            return cacheFile.lastModified();
-        }
-        return -1;
+        return cache.getTimeFor(key);
     }
 
     // Called from ImageDatum.getPreview().
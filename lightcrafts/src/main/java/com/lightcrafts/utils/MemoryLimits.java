@@ -39,6 +39,15 @@ public class MemoryLimits {
         return maximum;
     }
 
+    /**
+     * The memory that recycled tile arrays may hold on to is a sixteenth of
+     * the heap, up to 256MB.  See LCRecyclingTileFactory.
+     */
+    public static int getTileBufferPoolSize() {
+        final int heap = (int) (Runtime.getRuntime().maxMemory() / (1024 * 1024));
+        return Math.min(heap / 16, 256);
+    }
+
     public static int getDefault() {
         int limit = (int) Math.round(DefaultMemoryFraction * physicalMax);
         limit = Math.max(limit, getMinimum());
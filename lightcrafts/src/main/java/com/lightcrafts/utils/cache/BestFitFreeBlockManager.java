@@ -0,0 +1,163 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.cache;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * A <code>BestFitFreeBlockManager</code> is-a {@link FreeBlockManager} that
+ * coalesces adjacent free {@link CacheBlock}s and hands out the smallest
+ * free block that fits, the lowest one among equals.
+ * <p>
+ * Free blocks are indexed both by size and by position, so finding a block
+ * and freeing one (including coalescing it with its neighbours) take
+ * O(log n) time in the number of free blocks rather than a scan of them.
+ * Preferring low positions keeps the data packed toward the start of the
+ * store, which leaves free space at its end to be trimmed.
+ */
+public final class BestFitFreeBlockManager implements FreeBlockManager {
+
+    ////////// public /////////////////////////////////////////////////////////
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void clear() {
+        m_blocksByPosition.clear();
+        m_blocksBySize.clear();
+        m_freeSize = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized CacheBlock findBlockOfSize( int objSize ) {
+        m_probe.setSize( objSize );
+        final CacheBlock block = m_blocksBySize.ceiling( m_probe );
+        if ( block == null )
+            return null;
+        remove( block );
+        final int blockSize = block.getSize();
+        if ( blockSize == objSize )
+            return block;
+        //
+        // Found a block that's bigger: give back what's left after the
+        // object.
+        //
+        final long blockPos = block.getPosition();
+        block.setPosition( blockPos + objSize );
+        block.setSize( blockSize - objSize );
+        add( block );
+        return new CacheBlock( blockPos, objSize );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void freeBlock( CacheBlock freeBlock ) {
+        long freePos = freeBlock.getPosition();
+        int freeSize = freeBlock.getSize();
+
+        final Map.Entry<Long,CacheBlock> prev =
+            m_blocksByPosition.lowerEntry( freePos );
+        if ( prev != null ) {
+            final CacheBlock block = prev.getValue();
+            if ( block.getPosition() + block.getSize() == freePos ) {
+                remove( block );
+                freePos = block.getPosition();
+                freeSize += block.getSize();
+            }
+        }
+        final CacheBlock next = m_blocksByPosition.get( freePos + freeSize );
+        if ( next != null ) {
+            remove( next );
+            freeSize += next.getSize();
+        }
+
+        freeBlock.setPosition( freePos );
+        freeBlock.setSize( freeSize );
+        add( freeBlock );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized CacheBlock takeBlockEndingAt( long end ) {
+        final Map.Entry<Long,CacheBlock> last = m_blocksByPosition.lastEntry();
+        if ( last == null )
+            return null;
+        final CacheBlock block = last.getValue();
+        if ( block.getPosition() + block.getSize() != end )
+            return null;
+        remove( block );
+        return block;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getFreeSize() {
+        return m_freeSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int getFreeBlockCount() {
+        return m_blocksByPosition.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized int getLargestFreeBlockSize() {
+        return m_blocksBySize.isEmpty() ? 0 : m_blocksBySize.last().getSize();
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    private void add( CacheBlock block ) {
+        m_blocksByPosition.put( block.getPosition(), block );
+        m_blocksBySize.add( block );
+        m_freeSize += block.getSize();
+    }
+
+    /**
+     * Removes a block from both indices.  This must be done before changing
+     * its size or position.
+     */
+    private void remove( CacheBlock block ) {
+        m_blocksByPosition.remove( block.getPosition() );
+        m_blocksBySize.remove( block );
+        m_freeSize -= block.getSize();
+    }
+
+    /**
+     * The free blocks by position.
+     */
+    private final TreeMap<Long,CacheBlock> m_blocksByPosition =
+        new TreeMap<>();
+
+    /**
+     * The free blocks by size, then position.
+     */
+    private final TreeSet<CacheBlock> m_blocksBySize = new TreeSet<>(
+        Comparator.comparingInt( CacheBlock::getSize )
+                  .thenComparingLong( CacheBlock::getPosition )
+    );
+
+    /**
+     * A block to search {@link #m_blocksBySize} with: it precedes all the
+     * blocks of its size.
+     */
+    private final CacheBlock m_probe = new CacheBlock( Long.MIN_VALUE, 0 );
+
+    /**
+     * The total size of the free blocks.
+     */
+    private long m_freeSize;
+}
+/* vim:set et sw=4 ts=4: */
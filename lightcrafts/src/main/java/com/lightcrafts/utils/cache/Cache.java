@@ -12,6 +12,7 @@ import java.lang.ref.Cleaner;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A <code>Cache</code> is like a {@link Map} but with two differences:
@@ -52,7 +53,9 @@ public final class Cache {
      * Removes all objects from the cache.
      */
     public synchronized void clear() throws IOException {
+        ++m_generation;
         m_blockMap.clear();
+        m_keysByPosition.clear();
         m_freeBlockMgr.clear();
         m_objMap.clear();
         m_store.clear();
@@ -91,6 +94,60 @@ public final class Cache {
         return m_objMap.getOnce( key, aux );
     }
 
+    /**
+     * Gets how much of the {@link CacheStore} is free space, i.e., how much
+     * it could shrink by if compacted.
+     *
+     * @return Returns the size of the free blocks over the size of the
+     * store, from 0 to 1.
+     */
+    public synchronized double getFragmentation() {
+        try {
+            final long size = m_store.getSize();
+            return size > 0 ? (double)m_freeBlockMgr.getFreeSize() / size : 0;
+        }
+        catch ( IOException e ) {
+            return 0;
+        }
+    }
+
+    /**
+     * Moves the object at the end of the {@link CacheStore} to the free block
+     * that best fits it nearer the start, and shortens the store by the
+     * space freed at its end.  Each call moves one object so that the cache
+     * is never locked for long.
+     *
+     * @return Returns <code>true</code> only if an object was moved.
+     */
+    public synchronized boolean compactStep() throws IOException {
+        final Map.Entry<Long,Object> last = m_keysByPosition.lastEntry();
+        if ( last == null )
+            return false;
+        final Object key = last.getValue();
+        final CacheBlock block = m_blockMap.get( key );
+        final CacheBlock dest = m_freeBlockMgr.findBlockOfSize( block.getSize() );
+        if ( dest == null )
+            return false;
+        if ( dest.getPosition() > block.getPosition() ) {
+            m_freeBlockMgr.freeBlock( dest );
+            return false;
+        }
+        final ByteBuffer buf = m_store.getByteBuffer( block.getSize() );
+        try {
+            m_store.readFromStore( block.getPosition(), buf );
+            m_store.writeToStore( dest.getPosition(), buf );
+        }
+        catch ( IOException e ) {
+            m_freeBlockMgr.freeBlock( dest );
+            throw e;
+        }
+        m_keysByPosition.remove( block.getPosition() );
+        m_keysByPosition.put( dest.getPosition(), key );
+        m_blockMap.put( key, dest );
+        freeBlock( block );
+        return true;
+    }
+
     /**
      * Gets the {@link CacheObjectBroker} in use by the <code>Cache</code>.
      *
@@ -152,6 +209,11 @@ public final class Cache {
      * Reads an object from the {@link CacheStore} being used.  This method is
      * meant to be called only by methods of classes that implement the
      * {@link CacheObjectMap} interface.
+     * <p>
+     * The <code>Cache</code> is locked only to take the object's block out of
+     * the map and to free it afterwards, so objects can be read and decoded
+     * concurrently if the {@link CacheStore} allows it.  Since the block is
+     * not free while it's being read, no write can overwrite it.
      *
      * @param key The object's key.
      * @param aux An auxiliary object passed through to
@@ -160,17 +222,29 @@ public final class Cache {
      * any purpose.
      * @return Returns the read object.
      */
-    public synchronized Object readFromStore( Object key, Object aux )
-        throws IOException
-    {
-        final CacheBlock block = m_blockMap.remove( key );
+    public Object readFromStore( Object key, Object aux ) throws IOException {
+        final CacheBlock block;
+        final int generation;
+        synchronized ( this ) {
+            block = m_blockMap.remove( key );
+            if ( block != null )
+                m_keysByPosition.remove( block.getPosition() );
+            generation = m_generation;
+        }
         if ( block == null )
             return null;
-        final ByteBuffer buf = m_store.getByteBuffer( block.getSize() );
-        m_store.readFromStore( block.getPosition(), buf );
-        final Object obj = m_objBroker.decodeFromByteBuffer( buf, aux );
-        m_freeBlockMgr.freeBlock( block );
-        return obj;
+        try {
+            final ByteBuffer buf = m_store.getByteBuffer( block.getSize() );
+            m_store.readFromStore( block.getPosition(), buf );
+            return m_objBroker.decodeFromByteBuffer( buf, aux );
+        }
+        finally {
+            synchronized ( this ) {
+                // A block from before a clear() no longer exists.
+                if ( generation == m_generation )
+                    freeBlock( block );
+            }
+        }
     }
 
     /**
@@ -184,7 +258,8 @@ public final class Cache {
     public synchronized boolean removeFromStore( Object key ) {
         final CacheBlock block = m_blockMap.remove( key );
         if ( block != null ) {
-            m_freeBlockMgr.freeBlock( block );
+            m_keysByPosition.remove( block.getPosition() );
+            freeBlock( block );
             return true;
         }
         return false;
@@ -227,13 +302,41 @@ public final class Cache {
                 m_store.writeToStore( block.getPosition(), buf );
             }
         } else
-            m_store.writeToStore( block.getPosition(), buf );
+            try {
+                m_store.writeToStore( block.getPosition(), buf );
+            }
+            catch ( IOException e ) {
+                freeBlock( block );
+                throw e;
+            }
 
         m_blockMap.put( key, block );
+        m_keysByPosition.put( block.getPosition(), key );
     }
 
     ////////// private ////////////////////////////////////////////////////////
 
+    /**
+     * Frees a block and, if that leaves free space at the end of the
+     * {@link CacheStore}, shortens the store.
+     *
+     * @param block The block to free.
+     */
+    private void freeBlock( CacheBlock block ) {
+        m_freeBlockMgr.freeBlock( block );
+        CacheBlock tail = null;
+        try {
+            tail = m_freeBlockMgr.takeBlockEndingAt( m_store.getSize() );
+            if ( tail != null )
+                m_store.truncate( tail.getPosition() );
+        }
+        catch ( IOException e ) {
+            logger.warn("Failed to shorten cache store", e);
+            if ( tail != null )
+                m_freeBlockMgr.freeBlock( tail );
+        }
+    }
+
 
     /**
      * A mapping for those objects that have been cached.  The key is the
@@ -241,6 +344,18 @@ public final class Cache {
      */
     private final Map<Object,CacheBlock> m_blockMap;
 
+    /**
+     * The keys of the objects in {@link #m_blockMap} by the position of
+     * their blocks.
+     */
+    private final TreeMap<Long,Object> m_keysByPosition = new TreeMap<>();
+
+    /**
+     * The number of calls to {@link #clear()}, to tell blocks allocated
+     * before one.
+     */
+    private int m_generation;
+
     /**
      * The {@link FreeBlockManager} to use.
      */
@@ -0,0 +1,36 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.cache;
+
+/**
+ * A <code>CacheCodec</code> losslessly compresses the bytes of objects
+ * written to a cache.  A {@link CacheObjectBroker} may use one to make the
+ * objects it encodes smaller.
+ */
+public interface CacheCodec {
+
+    /**
+     * Compresses bytes.
+     *
+     * @param src The bytes to compress.
+     * @param srcLen The number of bytes to compress.
+     * @param dst The array to compress the bytes into.
+     * @param dstLen The most bytes to use in <code>dst</code>.
+     * @return Returns the number of compressed bytes or -1 if they don't fit
+     * in <code>dstLen</code> bytes.
+     */
+    int compress( byte[] src, int srcLen, byte[] dst, int dstLen );
+
+    /**
+     * Decompresses bytes.
+     *
+     * @param src The bytes to decompress.
+     * @param srcLen The number of bytes to decompress.
+     * @param dst The array to decompress the bytes into.
+     * @param dstLen The number of decompressed bytes.
+     * @throws IllegalArgumentException if the bytes are corrupt.
+     */
+    void decompress( byte[] src, int srcLen, byte[] dst, int dstLen );
+
+}
+/* vim:set et sw=4 ts=4: */
@@ -0,0 +1,136 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A <code>CacheCompactor</code> compacts the {@link CacheStore} of a
+ * {@link Cache} from a background thread whenever too much of it is free
+ * space, one object at a time with {@link Cache#compactStep()}, until the
+ * free space is down to half the threshold.
+ */
+public final class CacheCompactor {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheCompactor.class);
+
+    ////////// public /////////////////////////////////////////////////////////
+
+    /**
+     * Construct a <code>CacheCompactor</code> and start its thread.
+     *
+     * @param cache The {@link Cache} to compact.
+     * @param threshold The {@link Cache#getFragmentation() fragmentation}
+     * above which to compact.
+     */
+    public CacheCompactor( Cache cache, double threshold ) {
+        m_cache = cache;
+        m_threshold = threshold;
+        m_thread = new Thread( this::run, "Cache Compactor" );
+        m_thread.setDaemon( true );
+        m_thread.setPriority( Thread.MIN_PRIORITY );
+        m_thread.start();
+    }
+
+    /**
+     * Gets the number of times compaction was started.
+     *
+     * @return Returns said number.
+     */
+    public long getCompactionCount() {
+        return m_compactionCount.sum();
+    }
+
+    /**
+     * Gets the number of objects moved by compaction.
+     *
+     * @return Returns said number.
+     */
+    public long getMovedCount() {
+        return m_movedCount.sum();
+    }
+
+    /**
+     * Stops the compactor's thread once it's done moving the current object,
+     * and waits for it, so the cache can be disposed afterwards.
+     */
+    public void stop() {
+        synchronized ( this ) {
+            m_stopped = true;
+            notifyAll();
+        }
+        try {
+            m_thread.join( STOP_TIMEOUT );
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        if ( m_thread.isAlive() )
+            logger.warn( "Cache compactor did not stop in {} ms", STOP_TIMEOUT );
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    /**
+     * Waits for the next time to check the fragmentation.
+     *
+     * @return Returns <code>false</code> if the compactor has been stopped.
+     */
+    private synchronized boolean await() {
+        try {
+            if ( !m_stopped )
+                wait( CHECK_INTERVAL );
+        }
+        catch ( InterruptedException e ) {
+            m_stopped = true;
+        }
+        return !m_stopped;
+    }
+
+    private void run() {
+        while ( await() ) {
+            if ( m_cache.getFragmentation() <= m_threshold )
+                continue;
+            m_compactionCount.increment();
+            try {
+                while ( !m_stopped &&
+                        m_cache.getFragmentation() > m_threshold / 2 &&
+                        m_cache.compactStep() ) {
+                    m_movedCount.increment();
+                    // Let waiting readers and writers at the cache
+                    Thread.yield();
+                }
+            }
+            catch ( IOException e ) {
+                logger.warn("Failed to compact cache store", e);
+            }
+        }
+    }
+
+    /**
+     * How often to check the fragmentation (in milliseconds).
+     */
+    private static final long CHECK_INTERVAL = 1000;
+
+    /**
+     * How long to wait for the thread to stop (in milliseconds).
+     */
+    private static final long STOP_TIMEOUT = 10000;
+
+    private final Cache m_cache;
+
+    private final double m_threshold;
+
+    private final Thread m_thread;
+
+    private final LongAdder m_compactionCount = new LongAdder();
+
+    private final LongAdder m_movedCount = new LongAdder();
+
+    private volatile boolean m_stopped;
+}
+/* vim:set et sw=4 ts=4: */
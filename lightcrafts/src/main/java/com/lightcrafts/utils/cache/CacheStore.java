@@ -50,6 +50,14 @@ public interface CacheStore {
      */
     void readFromStore( long pos, ByteBuffer buf ) throws IOException;
 
+    /**
+     * Shortens the {@link CacheStore}.  Nothing past the new size may be
+     * being read or written.
+     *
+     * @param size The new size of the store.
+     */
+    void truncate( long size ) throws IOException;
+
     /**
      * Write data to the {@link CacheStore}.
      *
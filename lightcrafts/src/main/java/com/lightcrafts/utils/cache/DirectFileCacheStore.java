@@ -75,6 +75,13 @@ public final class DirectFileCacheStore implements CacheStore {
         buf.position( 0 );
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void truncate( long size ) throws IOException {
+        m_file.setLength( size );
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -33,5 +33,36 @@ public interface FreeBlockManager {
      */
     void freeBlock( CacheBlock block );
 
+    /**
+     * Takes the free block that ends at the given position, e.g., at the end
+     * of the store so the store can be shortened.
+     *
+     * @param end The position just past the block.
+     * @return Returns said block, no longer free, or <code>null</code> if the
+     * position doesn't end a free block.
+     */
+    CacheBlock takeBlockEndingAt( long end );
+
+    /**
+     * Gets the total size of the free blocks.
+     *
+     * @return Returns said size (in bytes).
+     */
+    long getFreeSize();
+
+    /**
+     * Gets the number of free blocks.
+     *
+     * @return Returns said number.
+     */
+    int getFreeBlockCount();
+
+    /**
+     * Gets the size of the largest free block.
+     *
+     * @return Returns said size (in bytes).
+     */
+    int getLargestFreeBlockSize();
+
 }
 /* vim:set et sw=4 ts=4: */
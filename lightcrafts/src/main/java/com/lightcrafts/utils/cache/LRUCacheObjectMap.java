@@ -136,7 +136,7 @@ public final class LRUCacheObjectMap implements CacheObjectMap {
             throw new IllegalArgumentException();
         final ByteBuffer buf = m_lruMap.remove( key );
         if ( buf != null ) {
-            m_curSize -=  buf.limit();
+            m_curSize -=  buf.capacity();
             final boolean freed = m_bufAlloc.freeByteBuffer( buf );
             assert freed;
             return true;
@@ -211,7 +211,7 @@ public final class LRUCacheObjectMap implements CacheObjectMap {
         catch ( IOException e ) {
             throw new CacheIOException( e );
         }
-        m_curSize -= buf.limit();
+        m_curSize -= buf.capacity();
         final boolean freed = m_bufAlloc.freeByteBuffer( buf );
         assert freed;
     }
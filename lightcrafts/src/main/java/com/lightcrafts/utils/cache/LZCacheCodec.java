@@ -0,0 +1,187 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.cache;
+
+import java.util.Arrays;
+
+/**
+ * An <code>LZCacheCodec</code> is-a {@link CacheCodec} that uses a fast
+ * LZ77 variant in the style of LZ4: the bytes are a sequence of literal runs
+ * each followed by a back-reference of at least 4 bytes within the last
+ * 64 KB, found through a hash table of 4-byte sequences.  It trades
+ * compression ratio for speed, so that spilling a tile costs less than
+ * writing it raw.
+ */
+public final class LZCacheCodec implements CacheCodec {
+
+    ////////// public /////////////////////////////////////////////////////////
+
+    /**
+     * The singleton instance of <code>LZCacheCodec</code>.
+     */
+    public static final LZCacheCodec INSTANCE = new LZCacheCodec();
+
+    /**
+     * {@inheritDoc}
+     */
+    public int compress( byte[] src, int srcLen, byte[] dst, int dstLen ) {
+        final int[] table = m_table.get();
+        Arrays.fill( table, -1 );
+
+        int anchor = 0;
+        int ip = 0;
+        int op = 0;
+        while ( ip <= srcLen - MIN_MATCH ) {
+            final int seq = readInt( src, ip );
+            final int h = (seq * 0x9E3779B1) >>> (32 - HASH_BITS);
+            final int ref = table[ h ];
+            table[ h ] = ip;
+            if ( ref < 0 || ip - ref > MAX_OFFSET || readInt( src, ref ) != seq ) {
+                // Skip faster through bytes that don't compress.
+                ip += 1 + ((ip - anchor) >>> SKIP_SHIFT);
+                continue;
+            }
+            int len = MIN_MATCH;
+            while ( ip + len < srcLen && src[ ref + len ] == src[ ip + len ] )
+                ++len;
+            final int token = op;
+            op = writeSequence( src, anchor, ip - anchor, dst, op, dstLen );
+            if ( op < 0 || op + 2 + lengthBytes( len - MIN_MATCH ) > dstLen )
+                return -1;
+            dst[ op++ ] = (byte)(ip - ref);
+            dst[ op++ ] = (byte)((ip - ref) >>> 8);
+            op = writeLength( dst, op, len - MIN_MATCH );
+            // The match length goes in the low half of the token.
+            dst[ token ] |= (byte)Math.min( len - MIN_MATCH, 15 );
+            ip += len;
+            anchor = ip;
+        }
+        return writeSequence( src, anchor, srcLen - anchor, dst, op, dstLen );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void decompress( byte[] src, int srcLen, byte[] dst, int dstLen ) {
+        int ip = 0;
+        int op = 0;
+        while ( true ) {
+            // Every sequence, the last included, starts with a token.
+            check( ip < srcLen, "truncated data" );
+            final int token = src[ ip++ ] & 0xFF;
+            int lit = token >>> 4;
+            if ( lit == 15 ) {
+                int b;
+                do {
+                    check( ip < srcLen, "truncated length" );
+                    b = src[ ip++ ] & 0xFF;
+                    lit += b;
+                } while ( b == 255 );
+            }
+            check( lit <= srcLen - ip && lit <= dstLen - op, "corrupt literals" );
+            System.arraycopy( src, ip, dst, op, lit );
+            ip += lit;
+            op += lit;
+            if ( ip == srcLen )
+                break;
+            check( ip + 2 <= srcLen, "truncated match" );
+            final int offset = (src[ ip ] & 0xFF) | (src[ ip + 1 ] & 0xFF) << 8;
+            ip += 2;
+            int len = token & 15;
+            if ( len == 15 ) {
+                int b;
+                do {
+                    check( ip < srcLen, "truncated length" );
+                    b = src[ ip++ ] & 0xFF;
+                    len += b;
+                } while ( b == 255 );
+            }
+            len += MIN_MATCH;
+            final int ref = op - offset;
+            check( offset != 0 && ref >= 0 && len <= dstLen - op, "corrupt match" );
+            if ( offset >= len )
+                System.arraycopy( dst, ref, dst, op, len );
+            else
+                for ( int i = 0; i < len; ++i )
+                    dst[ op + i ] = dst[ ref + i ];
+            op += len;
+        }
+        check( op == dstLen, "corrupt length" );
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    /**
+     * Construct an <code>LZCacheCodec</code>.
+     */
+    private LZCacheCodec() {
+        // do nothing
+    }
+
+    /**
+     * Rejects corrupt data.
+     *
+     * @throws IllegalArgumentException if the condition doesn't hold.
+     */
+    private static void check( boolean condition, String message ) {
+        if ( !condition )
+            throw new IllegalArgumentException( message );
+    }
+
+    /**
+     * Write a token and a run of literals.  The match length, if any, is
+     * added to the token afterwards.
+     *
+     * @return Returns the new position in <code>dst</code> or -1 if it's
+     * full.
+     */
+    private int writeSequence( byte[] src, int start, int len,
+                               byte[] dst, int op, int dstLen ) {
+        if ( op + 1 + lengthBytes( len ) + len > dstLen )
+            return -1;
+        dst[ op++ ] = (byte)(Math.min( len, 15 ) << 4);
+        op = writeLength( dst, op, len );
+        System.arraycopy( src, start, dst, op, len );
+        return op + len;
+    }
+
+    /**
+     * Write the part of a length that doesn't fit in a token.
+     */
+    private static int writeLength( byte[] dst, int op, int len ) {
+        if ( len >= 15 ) {
+            len -= 15;
+            while ( len >= 255 ) {
+                dst[ op++ ] = (byte)255;
+                len -= 255;
+            }
+            dst[ op++ ] = (byte)len;
+        }
+        return op;
+    }
+
+    private static int lengthBytes( int len ) {
+        return len < 15 ? 0 : (len - 15) / 255 + 1;
+    }
+
+    private static int readInt( byte[] b, int i ) {
+        return (b[ i ] & 0xFF) | (b[ i + 1 ] & 0xFF) << 8 |
+               (b[ i + 2 ] & 0xFF) << 16 | (b[ i + 3 ] & 0xFF) << 24;
+    }
+
+    private static final int HASH_BITS = 14;
+
+    private static final int MAX_OFFSET = 65535;
+
+    private static final int MIN_MATCH = 4;
+
+    private static final int SKIP_SHIFT = 6;
+
+    /**
+     * The hash table of each thread: the last position of each hashed 4-byte
+     * sequence.
+     */
+    private final ThreadLocal<int[]> m_table =
+        ThreadLocal.withInitial( () -> new int[ 1 << HASH_BITS ] );
+}
+/* vim:set et sw=4 ts=4: */
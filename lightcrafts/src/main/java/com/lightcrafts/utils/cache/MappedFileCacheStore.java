@@ -0,0 +1,287 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A <code>MappedFileCacheStore</code> is-a {@link CacheStore} that uses a
+ * {@link File} for its backing store without locking it, so any number of
+ * threads can read from it, and write to it, at once.
+ * <p>
+ * Data is written with positional writes on a {@link FileChannel}, so that
+ * running out of disk space is an {@link IOException}.  It is read through
+ * read-only memory mappings of fixed-size regions of the file, each mapped
+ * once the file has grown past its end, which saves a system call and a copy
+ * per read; the last, partial region is read with positional reads.
+ * <p>
+ * A {@link FileChannel} is closed when a thread blocked in it is
+ * interrupted.  Since an interrupted tile job must not break the store for
+ * every other thread, the channel is reopened when that happens: the
+ * interrupted thread still gets its {@link ClosedByInterruptException}, but
+ * the threads whose I/O was cut short by it retry.
+ */
+public final class MappedFileCacheStore implements CacheStore {
+
+    ////////// public /////////////////////////////////////////////////////////
+
+    /**
+     * Construct a <code>MappedFileCacheStore</code>.
+     *
+     * @param cacheFile The {@link File} to use for the cache.
+     */
+    public MappedFileCacheStore( File cacheFile ) throws IOException {
+        cacheFile.deleteOnExit();
+        m_file = cacheFile;
+        m_channel = open();
+        m_channel.truncate( 0 );
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The file is not truncated since the mapped regions may be being read:
+     * its space is reused by subsequent writes instead.
+     */
+    public synchronized void clear() throws IOException {
+        m_size.set( 0 );
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void dispose() throws IOException {
+        if ( m_channel != null ) {
+            m_channel.close();
+            m_channel = null;
+            m_regions = new MappedByteBuffer[0];
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ByteBuffer getByteBuffer( int size ) {
+        final ByteBuffer buf = ByteBuffer.allocate( size );
+        buf.order( ByteOrder.nativeOrder() );
+        return buf;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public long getSize() {
+        return m_size.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This method does not lock the store.
+     */
+    public void readFromStore( long pos, ByteBuffer buf ) throws IOException {
+        buf.position( 0 );
+        while ( buf.hasRemaining() ) {
+            final long at = pos + buf.position();
+            final MappedByteBuffer region = getRegion( at );
+            if ( region == null ) {
+                readFromChannel( pos, buf );
+                break;
+            }
+            final int offset = (int)(at & REGION_MASK);
+            final int n = Math.min( buf.remaining(), REGION_SIZE - offset );
+            buf.put( buf.position(), region, offset, n );
+            buf.position( buf.position() + n );
+        }
+        buf.position( 0 );
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Since nothing past the new size is being read, the mapped regions are
+     * only used below it and the file can be truncated under them.  Where
+     * that's not allowed, as on Windows, the file keeps its length and its
+     * space is reused by subsequent writes.
+     */
+    public synchronized void truncate( long size ) throws IOException {
+        m_size.set( size );
+        try {
+            channel().truncate( size );
+        }
+        catch ( ClosedChannelException e ) {
+            throw e;
+        }
+        catch ( IOException e ) {
+            // A mapped region prevents it
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * This method does not lock the store.
+     */
+    public void writeToStore( long pos, ByteBuffer buf ) throws IOException {
+        buf.position( 0 );
+        while ( buf.hasRemaining() ) {
+            final FileChannel channel = channel();
+            try {
+                channel.write( buf, pos + buf.position() );
+            }
+            catch ( ClosedChannelException e ) {
+                reopen( channel, e );
+            }
+        }
+        m_size.accumulateAndGet( pos + buf.limit(), Math::max );
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    /**
+     * Gets the current {@link FileChannel}.
+     *
+     * @throws ClosedChannelException if the store has been disposed of.
+     */
+    private FileChannel channel() throws ClosedChannelException {
+        final FileChannel channel = m_channel;
+        if ( channel == null )
+            throw new ClosedChannelException();
+        return channel;
+    }
+
+    /**
+     * Gets the mapped region containing the given position, mapping it if
+     * the file has grown past its end.
+     *
+     * @param pos A position within the store.
+     * @return Returns said region or <code>null</code> if the region is not
+     * yet complete or can't be mapped now.
+     */
+    private MappedByteBuffer getRegion( long pos ) throws IOException {
+        final int index = (int)(pos >>> REGION_SHIFT);
+        final MappedByteBuffer[] regions = m_regions;
+        if ( index < regions.length && regions[ index ] != null )
+            return regions[ index ];
+        // The file is never shorter than the data, so the region is within
+        // it.
+        final long end = (long)(index + 1) << REGION_SHIFT;
+        if ( end > m_size.get() )
+            return null;
+        try {
+            return mapRegion( index );
+        }
+        catch ( ClosedChannelException e ) {
+            // Let the positional read reopen the channel.
+            return null;
+        }
+    }
+
+    private synchronized MappedByteBuffer mapRegion( int index )
+        throws IOException
+    {
+        MappedByteBuffer[] regions = m_regions;
+        if ( index < regions.length && regions[ index ] != null )
+            return regions[ index ];
+        final MappedByteBuffer region = channel().map(
+            FileChannel.MapMode.READ_ONLY, (long)index << REGION_SHIFT,
+            REGION_SIZE
+        );
+        if ( index >= regions.length )
+            regions = Arrays.copyOf( regions, index + 1 );
+        else
+            regions = regions.clone();
+        regions[ index ] = region;
+        m_regions = regions;
+        return region;
+    }
+
+    private FileChannel open() throws IOException {
+        return FileChannel.open( m_file.toPath(), CREATE, READ, WRITE );
+    }
+
+    /**
+     * Reads into a {@link ByteBuffer} from its position on with positional
+     * reads.
+     *
+     * @param pos The position within the store of the start of the buffer.
+     * @param buf The {@link ByteBuffer} to read into.
+     */
+    private void readFromChannel( long pos, ByteBuffer buf )
+        throws IOException
+    {
+        while ( buf.hasRemaining() ) {
+            final FileChannel channel = channel();
+            try {
+                if ( channel.read( buf, pos + buf.position() ) < 0 )
+                    break;
+            }
+            catch ( ClosedChannelException e ) {
+                reopen( channel, e );
+            }
+        }
+    }
+
+    /**
+     * Replaces a {@link FileChannel} that an interrupt closed.  Rethrows the
+     * given exception if the current thread was the one interrupted, or if
+     * the store has been disposed of.
+     *
+     * @param closed The {@link FileChannel} found closed.
+     * @param e The exception its use threw.
+     */
+    private synchronized void reopen( FileChannel closed,
+                                      ClosedChannelException e )
+        throws IOException
+    {
+        if ( m_channel == null )
+            throw e;
+        if ( m_channel == closed )
+            m_channel = open();
+        if ( e instanceof ClosedByInterruptException ||
+             !(e instanceof AsynchronousCloseException) && closed.isOpen() )
+            throw e;
+    }
+
+    /**
+     * The size of the mapped regions: 64MB.
+     */
+    private static final int REGION_SHIFT = 26;
+    private static final int REGION_SIZE = 1 << REGION_SHIFT;
+    private static final long REGION_MASK = REGION_SIZE - 1;
+
+    /**
+     * The {@link File} used as the backing store.
+     */
+    private final File m_file;
+
+    /**
+     * The {@link FileChannel} on {@link #m_file}, or <code>null</code> once
+     * disposed of.
+     */
+    private volatile FileChannel m_channel;
+
+    /**
+     * The regions mapped so far, indexed by position / {@link #REGION_SIZE};
+     * replaced as a whole when a region is added.
+     */
+    private volatile MappedByteBuffer[] m_regions = new MappedByteBuffer[0];
+
+    /**
+     * The end of the data written to the store.
+     */
+    private final AtomicLong m_size = new AtomicLong();
+}
+/* vim:set et sw=4 ts=4: */
@@ -31,8 +31,20 @@ public final class NativeByteBufferAllocator implements ByteBufferAllocator {
      * @param chunkSize The size of each chunk to allocate.
      */
     public NativeByteBufferAllocator( int chunkSize ) {
+        this( chunkSize, Integer.MAX_VALUE );
+    }
+
+    /**
+     * Construct a <code>NativeByteBufferAllocator</code> that allocates at
+     * most the given number of chunks.
+     *
+     * @param chunkSize The size of each chunk to allocate.
+     * @param maxChunks The maximum number of chunks to allocate.
+     */
+    public NativeByteBufferAllocator( int chunkSize, int maxChunks ) {
         m_chunkList = new LinkedList<>();
         m_chunkSize = chunkSize;
+        m_maxChunks = maxChunks;
         m_freeBlockManagerList = new LinkedList<>();
         m_allocdBlocks = new HashMap<>();
         m_allocdFBMs = new HashMap<>();
@@ -45,7 +57,8 @@ public final class NativeByteBufferAllocator implements ByteBufferAllocator {
      *
      * @param size The size of the {@link ByteBuffer} to allocate.  It must not
      * exceed the chunk size given to the constructor.
-     * @return Returns said {@link ByteBuffer}.
+     * @return Returns said {@link ByteBuffer} or <code>null</code> if no chunk
+     * has room for it and the maximum number of chunks is allocated.
      *
      * @throws IllegalArgumentException if the requested size is greater than
      * the chunk size given to the constructor.
@@ -64,6 +77,8 @@ public final class NativeByteBufferAllocator implements ByteBufferAllocator {
             if ( buf != null )
                 return buf;
         }
+        if ( m_chunkList.size() >= m_maxChunks )
+            return null;
         addChunk();
         final NativeChunk chunk = m_chunkList.getFirst();
         final FreeBlockManager fbm = m_freeBlockManagerList.getFirst();
@@ -114,7 +129,7 @@ public final class NativeByteBufferAllocator implements ByteBufferAllocator {
     private void addChunk() {
         final NativeChunk chunk = new NativeChunk( m_chunkSize );
         m_chunkList.addFirst( chunk );
-        final FreeBlockManager fbm = new CoalescingFreeBlockManager();
+        final FreeBlockManager fbm = new BestFitFreeBlockManager();
         m_freeBlockManagerList.addFirst( fbm );
         //
         // Prime the FreeBlockManager by creating a free block that's the
@@ -208,6 +223,11 @@ public final class NativeByteBufferAllocator implements ByteBufferAllocator {
      */
     private final int m_chunkSize;
 
+    /**
+     * The maximum number of chunks to allocate.
+     */
+    private final int m_maxChunks;
+
     /**
      * A list of all the {@link FreeBlockManager}s in use.  For every entry,
      * there is a corresponding entry in {@link #m_chunkList}.
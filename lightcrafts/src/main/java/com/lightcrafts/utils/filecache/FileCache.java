@@ -13,11 +13,15 @@ import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.lang.ref.Cleaner;
-import java.nio.channels.FileChannel;
 
 /**
  * A <code>FileCache</code> is used to cache files until a maximum capacity is
  * reached.  Once reached, files having the oldest access time are removed.
+ * <p>
+ * Entries written through {@link #putToStream(String)} are packed into a
+ * single {@link PackedFileCacheStore} rather than written as individual files,
+ * unless they are very large.  Entries written through
+ * {@link #putToFile(String)} are always individual files.
  *
  * @author Paul J. Lucas [paul@lightcrafts.com]
  */
@@ -44,14 +48,16 @@ public final class FileCache {
     {
         m_mapper = mapper;
         m_capacity = maxSize;
+        final File cacheDir = getCacheDirectory();
+        m_pack = new PackedFileCacheStore( cacheDir );
         if ( m_capacity > 0 )
             m_monitor = new FileCacheMonitor( this );
-        final File cacheDir = getCacheDirectory();
         final File versionFile = new File( cacheDir, "version" );
         if ( !checkVersion( versionFile ) ) {
             clear();
             createVersionFile( versionFile );
         }
+        addToCacheSize( m_pack.getLiveBytes() );
 
         cleaner.register(this, cleanup(this));
     }
@@ -67,6 +73,7 @@ public final class FileCache {
             FileUtil.listFiles( cacheDir, FileCacheFilter.INSTANCE, true );
         if ( !FileUtil.delete( contents, FileCacheFilter.INSTANCE, true ) )
             throw new IOException( "Could not delete old cache" );
+        m_pack.clear();
         m_size = 0;
     }
 
@@ -81,6 +88,8 @@ public final class FileCache {
         if (key == null) {
             return false;
         }
+        if ( m_pack.contains( key ) )
+            return true;
         final File file = m_mapper.mapKeyToFile( key, false );
         synchronized ( this ) {
             //
@@ -101,6 +110,7 @@ public final class FileCache {
             m_monitor.dispose();
             m_monitor = null;
         }
+        m_pack.close();
     }
 
     /**
@@ -124,7 +134,10 @@ public final class FileCache {
     }
 
     /**
-     * Gets an existing entry from the cache.
+     * Gets an existing entry from the cache that was written as an individual
+     * file.  Packed entries are not returned: use
+     * {@link #getStreamFor(String)} for entries written through
+     * {@link #putToStream(String)}.
      *
      * @param key The key.
      * @return Returns the {@link File} to read the entry from or
@@ -165,7 +178,18 @@ public final class FileCache {
      * @see #getFileFor(String)
      */
     @SuppressWarnings({"ConstantConditions"})
-    public FileInputStream getStreamFor( String key ) {
+    public InputStream getStreamFor( String key ) {
+        try {
+            final byte[] packed = m_pack.get( key );
+            if ( packed != null ) {
+                logger.debug("FileCache.getStreamFor(\"{}\") --> packed cache hit", key);
+                return new ByteArrayInputStream( packed );
+            }
+        }
+        catch ( IOException e ) {
+            logger.warn("Couldn't read \"{}\" from the packed cache", key, e);
+            removePacked( key );
+        }
         final File file = m_mapper.mapKeyToFile( key, true );
         logger.debug("FileCache.getStreamFor(\"{}\"); file = \"{}\"", key, file);
         try {
@@ -214,22 +238,39 @@ public final class FileCache {
      * @see #putToStream(String)
      */
     public File putToFile( String key ) throws IOException {
+        removePacked( key );
         final File file = m_mapper.mapKeyToFile( key, true );
         remove( file );
         return file;
     }
 
     /**
-     * Gets a new {@link FileOutputStream} to which a new entry is to be
-     * written into the cache.
+     * Gets a new {@link OutputStream} to which a new entry is to be written
+     * into the cache.  The entry is packed when the stream is closed, or
+     * written to an individual file if it is larger than
+     * {@link PackedFileCacheStore#MAX_ENTRY_SIZE}.
      *
      * @param key The key.
-     * @return Returns a {@link FileOutputStream} to write the new entry to.
+     * @return Returns an {@link OutputStream} to write the new entry to.
      * @see #putToFile(String)
      */
-    public FileOutputStream putToStream( String key ) throws IOException {
-        final File file = putToFile( key );
-        return new FileCacheOutputStream( file, this );
+    public OutputStream putToStream( String key ) throws IOException {
+        return new PackedOutputStream( key );
+    }
+
+    /**
+     * Gets the time an entry was written to the cache.
+     *
+     * @param key The key.
+     * @return Returns said time in milliseconds since epoch, or -1 if no such
+     * entry exists.
+     */
+    public long getTimeFor( String key ) {
+        final long time = m_pack.getModificationTime( key );
+        if ( time >= 0 )
+            return time;
+        final File file = m_mapper.mapKeyToFile( key, false );
+        return file.exists() ? file.lastModified() : -1;
     }
 
     /**
@@ -240,8 +281,9 @@ public final class FileCache {
      * was removed.
      */
     public boolean remove( String key ) throws IOException {
+        final boolean packed = removePacked( key );
         final File file = m_mapper.mapKeyToFile( key, false );
-        return remove( file );
+        return remove( file ) || packed;
     }
 
     /**
@@ -260,6 +302,15 @@ public final class FileCache {
 
     ////////// package ////////////////////////////////////////////////////////
 
+    /**
+     * Gets the store of packed entries.
+     *
+     * @return Returns said store.
+     */
+    PackedFileCacheStore getPackedStore() {
+        return m_pack;
+    }
+
     /**
      * Add to the cache size.
      *
@@ -342,6 +393,100 @@ public final class FileCache {
         return m_monitor == null || m_monitor.removeFile( file );
     }
 
+    /**
+     * A <code>PackedOutputStream</code> buffers an entry in memory and, upon
+     * close, packs it into the {@link PackedFileCacheStore}.  If the entry
+     * grows too large, or the store is owned by another process, it is
+     * written to an individual file instead.
+     */
+    private final class PackedOutputStream extends ByteArrayOutputStream {
+
+        PackedOutputStream( String key ) {
+            super( 32 * 1024 );
+            m_key = key;
+            if ( !m_pack.isAvailable() )
+                spill();
+        }
+
+        public synchronized void write( byte[] b, int off, int len ) {
+            if ( m_file == null && count + len > PackedFileCacheStore.MAX_ENTRY_SIZE )
+                spill();
+            if ( m_file != null ) {
+                try {
+                    m_file.write( b, off, len );
+                }
+                catch ( IOException e ) {
+                    m_error = e;
+                }
+                return;
+            }
+            super.write( b, off, len );
+        }
+
+        public synchronized void write( int b ) {
+            if ( m_file == null && count + 1 > PackedFileCacheStore.MAX_ENTRY_SIZE )
+                spill();
+            if ( m_file != null ) {
+                try {
+                    m_file.write( b );
+                }
+                catch ( IOException e ) {
+                    m_error = e;
+                }
+                return;
+            }
+            super.write( b );
+        }
+
+        public synchronized void close() throws IOException {
+            if ( m_closed )
+                return;
+            m_closed = true;
+            if ( m_file != null ) {
+                m_file.close();
+                if ( m_error != null )
+                    throw m_error;
+                return;
+            }
+            final long delta = m_pack.put( m_key, buf, count );
+            addToCacheSize( delta );
+            wakeUpMonitor();
+        }
+
+        // Move the buffered bytes to an individual cache file.
+        private void spill() {
+            try {
+                m_file = new FileCacheOutputStream(
+                    putToFile( m_key ), FileCache.this
+                );
+                m_file.write( buf, 0, count );
+            }
+            catch ( IOException e ) {
+                m_error = e;
+                m_file = OutputStream.nullOutputStream();
+            }
+            reset();
+        }
+
+        private final String m_key;
+        private OutputStream m_file;
+        private IOException m_error;
+        private boolean m_closed;
+    }
+
+    /**
+     * Remove an entry from the packed store.
+     *
+     * @param key The key.
+     * @return Returns <code>true</code> only if the entry was removed.
+     */
+    private boolean removePacked( String key ) {
+        final long size = m_pack.remove( key );
+        if ( size > 0 )
+            addToCacheSize( -size );
+        return size > 0;
+    }
+
     /**
      * Notify the {@link FileCacheMonitor} that it may need to do something.
      */
@@ -381,6 +526,11 @@ public final class FileCache {
      */
     private FileCacheMonitor m_monitor;
 
+    /**
+     * The store of packed entries.
+     */
+    private final PackedFileCacheStore m_pack;
+
     /**
      * The current total size of all the files in the cache (in bytes).
      */
@@ -402,10 +552,8 @@ public final class FileCache {
             }
             logger.info("main(): putting {}, size = {} MB", file.getAbsolutePath(), (file.length() / (1024 * 1024)));
             try (FileInputStream fis = new FileInputStream(file);
-                 FileOutputStream fos = cache.putToStream(file.getAbsolutePath())) {
-                final FileChannel fic = fis.getChannel();
-                final FileChannel foc = fos.getChannel();
-                fic.transferTo(0, fic.size(), foc);
+                 OutputStream os = cache.putToStream(file.getAbsolutePath())) {
+                fis.transferTo(os);
             }
         }
     }
@@ -30,16 +30,31 @@ final class FileCacheMonitor extends Thread {
 
     /**
      * Monitor the owning {@link FileCache}'s size: if it becomes greater than
-     * its capacity, remove files having the oldest access times.
+     * its capacity, remove files or packed entries having the oldest access
+     * times.  Then compact the packed entries if enough space is dead.
      */
     @SuppressWarnings({"ConstantConditions"})
     public void run() {
         initialize();
+        final PackedFileCacheStore pack = m_owningCache.getPackedStore();
         while ( !m_stop ) {
             while ( m_owningCache.getSize() > m_owningCache.getCapacity() ) {
                 if ( m_stop )
                     return;
                 logger.debug("run(): cache size = {} MB", (m_owningCache.getSize() / (1024 * 1024)));
+                final CacheFile oldestFile;
+                synchronized ( m_filesByLastAccessTime ) {
+                    oldestFile = m_filesByLastAccessTime.peek();
+                }
+                if ( oldestFile == null ||
+                     pack.getOldestAccessTime() <= oldestFile.lastAccessTime() ) {
+                    final long size = pack.evictOldest();
+                    if ( size == 0 && oldestFile == null )
+                        break;
+                    logger.debug("run(): purging packed entry, size = {} KB", (size / 1024));
+                    m_owningCache.addToCacheSize( -size );
+                    continue;
+                }
                 final CacheFile fileToRemove = getNextFileToRemove();
                 final long size = fileToRemove.length();
                 fileToRemove.delete();
@@ -48,6 +63,12 @@ final class FileCacheMonitor extends Thread {
                 m_owningCache.addToCacheSize( -size );
                 logger.debug("run(): cache size = {} MB", (m_owningCache.getSize() / (1024 * 1024)));
             }
+            try {
+                pack.compactIfNeeded();
+            }
+            catch ( IOException e ) {
+                logger.warn("Couldn't compact the packed cache", e);
+            }
             synchronized ( this ) {
                 try {
                     wait();
@@ -0,0 +1,623 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.filecache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A <code>PackedFileCacheStore</code> stores many small {@link FileCache}
+ * entries in a single append-only data file, rather than one file per entry.
+ * <p>
+ * The entries are located through an index file of records (data offset,
+ * length, modification time, last access time, liveness and key) that is
+ * memory-mapped, so that marking an entry as accessed or removed is a store
+ * into memory.  A cache hit is therefore a hash lookup followed by a single
+ * positional read of the data file.
+ * <p>
+ * Removed and replaced entries leave dead space in the data file that is
+ * reclaimed by {@link #compactIfNeeded()}.  The entries are kept in least
+ * recently used order so {@link FileCacheMonitor} can evict them together
+ * with the cache's individual files.
+ * <p>
+ * Both files carry a generation number: if they disagree, as after a crash
+ * during compaction, the store starts out empty.
+ * <p>
+ * The cache directory is shared by every process of the same user, so the
+ * store is owned by whichever process first takes the lock on its lock file.
+ * In every other process the store stays unavailable: it is empty and
+ * {@link FileCache} stores entries in files of their own.
+ *
+ * @see FileCache
+ */
+final class PackedFileCacheStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(PackedFileCacheStore.class);
+
+    ////////// package ////////////////////////////////////////////////////////
+
+    /**
+     * Entries larger than this (in bytes) are better stored in files of their
+     * own.
+     */
+    static final int MAX_ENTRY_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Open a <code>PackedFileCacheStore</code>, creating its files if needed.
+     *
+     * @param cacheDir The directory of the cache.
+     */
+    PackedFileCacheStore( File cacheDir ) throws IOException {
+        m_dataFile = new File( cacheDir, DATA_FILE_NAME );
+        m_indexFile = new File( cacheDir, INDEX_FILE_NAME );
+        m_lockChannel = FileChannel.open(
+            new File( cacheDir, LOCK_FILE_NAME ).toPath(), CREATE, WRITE
+        );
+        try {
+            m_lock = m_lockChannel.tryLock();
+        }
+        catch ( OverlappingFileLockException e ) {
+            m_lock = null;
+        }
+        if ( m_lock == null ) {
+            logger.info(
+                "The packed cache in {} is in use by another process", cacheDir
+            );
+            m_index = null;
+            return;
+        }
+        m_index = FileChannel.open( m_indexFile.toPath(), CREATE, READ, WRITE );
+        openData();
+        if ( !load() ) {
+            reset();
+        }
+    }
+
+    /**
+     * Checks whether this process owns the store.  If not, the store is
+     * always empty and must not be written to.
+     */
+    boolean isAvailable() {
+        return m_lock != null;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    synchronized void clear() throws IOException {
+        if ( isAvailable() )
+            reset();
+    }
+
+    /**
+     * Closes the store's files and releases the lock on them.
+     */
+    synchronized void close() {
+        try {
+            if ( isAvailable() ) {
+                unmapIndex();
+                m_data.close();
+                m_index.close();
+                m_lock.release();
+            }
+            m_lockChannel.close();
+        }
+        catch ( IOException e ) {
+            logger.warn("Couldn't close the packed cache", e);
+        }
+    }
+
+    /**
+     * Checks whether there is an entry for the given key.
+     */
+    synchronized boolean contains( String key ) {
+        return m_entries.containsKey( key );
+    }
+
+    /**
+     * Gets an entry's contents and marks it as the most recently used one.
+     *
+     * @param key The key.
+     * @return Returns the contents or <code>null</code> if no such entry
+     * exists.
+     */
+    synchronized byte[] get( String key ) throws IOException {
+        final Entry entry = m_entries.get( key );
+        if ( entry == null )
+            return null;
+        entry.m_accessTime = System.currentTimeMillis();
+        m_indexMap.putLong(
+            (int)entry.m_indexPos + REC_ACCESS_TIME, entry.m_accessTime
+        );
+        final ByteBuffer buf = ByteBuffer.allocate( entry.m_length );
+        readFully( m_data, buf, entry.m_offset );
+        return buf.array();
+    }
+
+    /**
+     * Gets the time an entry was written.
+     *
+     * @param key The key.
+     * @return Returns said time in milliseconds since epoch, or -1 if no such
+     * entry exists.
+     */
+    synchronized long getModificationTime( String key ) {
+        final Entry entry = m_entries.get( key );
+        return entry != null ? entry.m_modTime : -1;
+    }
+
+    /**
+     * Gets the total size of all entries.
+     *
+     * @return Returns said size (in bytes).
+     */
+    synchronized long getLiveBytes() {
+        return m_liveBytes;
+    }
+
+    /**
+     * Gets the last access time of the least recently used entry.
+     *
+     * @return Returns said time in milliseconds since epoch, or
+     * {@link Long#MAX_VALUE} if the store is empty.
+     */
+    synchronized long getOldestAccessTime() {
+        final Iterator<Entry> i = m_entries.values().iterator();
+        return i.hasNext() ? i.next().m_accessTime : Long.MAX_VALUE;
+    }
+
+    /**
+     * Removes the least recently used entry.
+     *
+     * @return Returns the size of the removed entry (in bytes), or 0 if the
+     * store is empty.
+     */
+    synchronized long evictOldest() {
+        final Iterator<Entry> i = m_entries.values().iterator();
+        if ( !i.hasNext() )
+            return 0;
+        final Entry entry = i.next();
+        i.remove();
+        kill( entry );
+        return entry.m_length;
+    }
+
+    /**
+     * Adds an entry, replacing any entry having the same key.
+     *
+     * @param key The key.
+     * @param buf The contents.
+     * @param length The number of bytes of the contents.
+     * @return Returns the change of the total size of all entries (in bytes).
+     */
+    synchronized long put( String key, byte[] buf, int length )
+        throws IOException
+    {
+        if ( !isAvailable() )
+            throw new IOException( "The packed cache is in use by another process" );
+        final long removed = remove( key );
+        final long offset = m_dataEnd;
+        writeFully( m_data, ByteBuffer.wrap( buf, 0, length ), offset );
+        m_dataEnd += length;
+
+        final long now = System.currentTimeMillis();
+        final Entry entry =
+            appendRecord( key, offset, length, now, now );
+        m_entries.put( key, entry );
+        m_liveBytes += length;
+        return length - removed;
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @param key The key.
+     * @return Returns the size of the removed entry (in bytes), or 0 if no
+     * such entry exists.
+     */
+    synchronized long remove( String key ) {
+        final Entry entry = m_entries.remove( key );
+        if ( entry == null )
+            return 0;
+        kill( entry );
+        return entry.m_length;
+    }
+
+    /**
+     * Rewrites the store without its dead space, if the dead space exceeds
+     * both the live data and {@link #MIN_COMPACTION_BYTES}.
+     *
+     * @return Returns <code>true</code> only if the store was compacted.
+     */
+    synchronized boolean compactIfNeeded() throws IOException {
+        if ( !isAvailable() )
+            return false;
+        final long deadBytes = m_dataEnd - DATA_HEADER_SIZE - m_liveBytes;
+        if ( deadBytes < MIN_COMPACTION_BYTES || deadBytes < m_liveBytes )
+            return false;
+        final long start = System.currentTimeMillis();
+        compact();
+        logger.info(
+            "Compacted packed cache: {} entries, {} MB freed in {} ms",
+            m_entries.size(), deadBytes / (1024 * 1024),
+            System.currentTimeMillis() - start
+        );
+        return true;
+    }
+
+    ////////// private ////////////////////////////////////////////////////////
+
+    /**
+     * An <code>Entry</code> locates the contents of a key in the data file
+     * and its record in the index file.
+     */
+    private static final class Entry {
+        final String m_key;
+        long m_indexPos;
+        long m_offset;
+        final int m_length;
+        final long m_modTime;
+        long m_accessTime;
+
+        Entry( String key, long indexPos, long offset, int length,
+               long modTime, long accessTime ) {
+            m_key = key;
+            m_indexPos = indexPos;
+            m_offset = offset;
+            m_length = length;
+            m_modTime = modTime;
+            m_accessTime = accessTime;
+        }
+    }
+
+    /**
+     * Appends a record to the index and then commits it by advancing the
+     * index's end.
+     */
+    private Entry appendRecord( String key, long offset, int length,
+                                long modTime, long accessTime )
+        throws IOException
+    {
+        final byte[] keyBytes = key.getBytes( StandardCharsets.UTF_8 );
+        if ( keyBytes.length > Short.MAX_VALUE )
+            throw new IOException( "Key too long for the packed cache" );
+        final int recordSize = REC_KEY + keyBytes.length;
+        ensureIndexCapacity( m_indexEnd + recordSize );
+        final int pos = (int)m_indexEnd;
+        m_indexMap.putLong( pos + REC_OFFSET, offset );
+        m_indexMap.putInt( pos + REC_LENGTH, length );
+        m_indexMap.putLong( pos + REC_MOD_TIME, modTime );
+        m_indexMap.putLong( pos + REC_ACCESS_TIME, accessTime );
+        m_indexMap.put( pos + REC_LIVE, (byte)1 );
+        m_indexMap.putShort( pos + REC_KEY_LENGTH, (short)keyBytes.length );
+        m_indexMap.put( pos + REC_KEY, keyBytes );
+        m_indexEnd += recordSize;
+        m_indexMap.putLong( INDEX_END, m_indexEnd );
+        return new Entry( key, pos, offset, length, modTime, accessTime );
+    }
+
+    /**
+     * Rewrites the live entries, in least recently used order, into a new
+     * data file that replaces the current one, then rewrites the index in
+     * place.  The index file is never renamed because it is mapped.
+     */
+    private void compact() throws IOException {
+        final long generation = newGeneration();
+        final File tempFile = new File( m_dataFile.getPath() + ".tmp" );
+        final List<Entry> entries = new ArrayList<>( m_entries.values() );
+        try ( FileChannel temp = FileChannel.open(
+                  tempFile.toPath(), CREATE, TRUNCATE_EXISTING, WRITE ) ) {
+            writeFully( temp, dataHeader( generation ), 0 );
+            long offset = DATA_HEADER_SIZE;
+            for ( Entry entry : entries ) {
+                long copied = 0;
+                while ( copied < entry.m_length ) {
+                    copied += m_data.transferTo(
+                        entry.m_offset + copied, entry.m_length - copied,
+                        temp.position( offset + copied )
+                    );
+                }
+                entry.m_offset = offset;
+                offset += entry.m_length;
+            }
+            temp.force( true );
+        }
+        m_data.close();
+        Files.move(
+            tempFile.toPath(), m_dataFile.toPath(),
+            StandardCopyOption.REPLACE_EXISTING
+        );
+        openData();
+
+        writeIndexHeader( generation );
+        m_generation = generation;
+        for ( Entry entry : entries ) {
+            final Entry moved = appendRecord(
+                entry.m_key, entry.m_offset, entry.m_length,
+                entry.m_modTime, entry.m_accessTime
+            );
+            entry.m_indexPos = moved.m_indexPos;
+        }
+        m_indexMap.force();
+    }
+
+    /**
+     * Makes sure the index is mapped up to at least the given size.  The
+     * superseded mapping is unmapped rather than left to the garbage
+     * collector.
+     */
+    private void ensureIndexCapacity( long size ) throws IOException {
+        if ( m_indexMap != null && size <= m_indexMap.capacity() )
+            return;
+        long capacity = INITIAL_INDEX_SIZE;
+        while ( capacity < size )
+            capacity *= 2;
+        if ( capacity > Integer.MAX_VALUE )
+            throw new IOException( "Packed cache index too large" );
+        unmapIndex();
+        m_indexMap = m_index.map( FileChannel.MapMode.READ_WRITE, 0, capacity );
+    }
+
+    /**
+     * Marks an entry's record as dead.
+     */
+    private void kill( Entry entry ) {
+        m_indexMap.put( (int)entry.m_indexPos + REC_LIVE, (byte)0 );
+        m_liveBytes -= entry.m_length;
+    }
+
+    /**
+     * Loads the entries from the index file.
+     *
+     * @return Returns <code>false</code> if the files are missing, of another
+     * version, or of different generations.
+     */
+    private boolean load() throws IOException {
+        final long indexSize = m_index.size();
+        final long dataSize = m_data.size();
+        if ( indexSize < INDEX_HEADER_SIZE || dataSize < DATA_HEADER_SIZE )
+            return false;
+        ensureIndexCapacity( indexSize );
+        final ByteBuffer dataHeader = ByteBuffer.allocate( DATA_HEADER_SIZE );
+        readFully( m_data, dataHeader, 0 );
+        if ( m_indexMap.getInt( 0 ) != INDEX_MAGIC ||
+             m_indexMap.getInt( 4 ) != VERSION ||
+             dataHeader.getInt( 0 ) != DATA_MAGIC ||
+             dataHeader.getInt( 4 ) != VERSION ||
+             m_indexMap.getLong( INDEX_GENERATION ) != dataHeader.getLong( 8 ) )
+            return false;
+        m_generation = dataHeader.getLong( 8 );
+
+        final long end = m_indexMap.getLong( INDEX_END );
+        if ( end < INDEX_HEADER_SIZE || end > indexSize )
+            return false;
+        final List<Entry> entries = new ArrayList<>();
+        final LinkedHashMap<String, Entry> byKey = new LinkedHashMap<>();
+        int pos = INDEX_HEADER_SIZE;
+        while ( pos + REC_KEY <= end ) {
+            final int keyLength = m_indexMap.getShort( pos + REC_KEY_LENGTH );
+            if ( keyLength < 0 || pos + REC_KEY + keyLength > end )
+                return false;
+            if ( m_indexMap.get( pos + REC_LIVE ) != 0 ) {
+                final long offset = m_indexMap.getLong( pos + REC_OFFSET );
+                final int length = m_indexMap.getInt( pos + REC_LENGTH );
+                if ( offset < DATA_HEADER_SIZE || length < 0 ||
+                     offset + length > dataSize )
+                    return false;
+                final byte[] keyBytes = new byte[ keyLength ];
+                m_indexMap.get( pos + REC_KEY, keyBytes );
+                final Entry entry = new Entry(
+                    new String( keyBytes, StandardCharsets.UTF_8 ), pos,
+                    offset, length,
+                    m_indexMap.getLong( pos + REC_MOD_TIME ),
+                    m_indexMap.getLong( pos + REC_ACCESS_TIME )
+                );
+                final Entry old = byKey.put( entry.m_key, entry );
+                if ( old != null )
+                    m_indexMap.put( (int)old.m_indexPos + REC_LIVE, (byte)0 );
+            }
+            pos += REC_KEY + keyLength;
+        }
+        entries.addAll( byKey.values() );
+        entries.sort( Comparator.comparingLong( e -> e.m_accessTime ) );
+        m_entries.clear();
+        m_liveBytes = 0;
+        for ( Entry entry : entries ) {
+            m_entries.put( entry.m_key, entry );
+            m_liveBytes += entry.m_length;
+        }
+        m_indexEnd = end;
+        m_dataEnd = dataSize;
+        return true;
+    }
+
+    /**
+     * Writes back and unmaps the index.  Every access to the mapping is made
+     * under this object's lock through {@link #m_indexMap}, so nothing can
+     * touch it once it is unmapped.
+     */
+    private void unmapIndex() {
+        final MappedByteBuffer map = m_indexMap;
+        if ( map == null )
+            return;
+        m_indexMap = null;
+        map.force();
+        if ( INVOKE_CLEANER == null )
+            return;
+        try {
+            INVOKE_CLEANER.invoke( UNSAFE, map );
+        }
+        catch ( ReflectiveOperationException e ) {
+            logger.debug("Couldn't unmap the packed cache index", e);
+        }
+    }
+
+    private void openData() throws IOException {
+        m_data = FileChannel.open( m_dataFile.toPath(), CREATE, READ, WRITE );
+        m_dataEnd = m_data.size();
+    }
+
+    /**
+     * Empties both files and starts a new generation.
+     */
+    private void reset() throws IOException {
+        final long generation = newGeneration();
+        m_data.truncate( 0 );
+        writeFully( m_data, dataHeader( generation ), 0 );
+        m_dataEnd = DATA_HEADER_SIZE;
+        writeIndexHeader( generation );
+        m_generation = generation;
+        m_entries.clear();
+        m_liveBytes = 0;
+    }
+
+    private void writeIndexHeader( long generation ) throws IOException {
+        ensureIndexCapacity( INDEX_HEADER_SIZE );
+        m_indexMap.putInt( 0, INDEX_MAGIC );
+        m_indexMap.putInt( 4, VERSION );
+        m_indexMap.putLong( INDEX_GENERATION, generation );
+        m_indexEnd = INDEX_HEADER_SIZE;
+        m_indexMap.putLong( INDEX_END, m_indexEnd );
+    }
+
+    private static ByteBuffer dataHeader( long generation ) {
+        final ByteBuffer buf = ByteBuffer.allocate( DATA_HEADER_SIZE );
+        buf.putInt( DATA_MAGIC ).putInt( VERSION ).putLong( generation );
+        buf.flip();
+        return buf;
+    }
+
+    private long newGeneration() {
+        long generation;
+        do {
+            generation = ThreadLocalRandom.current().nextLong();
+        } while ( generation == m_generation );
+        return generation;
+    }
+
+    private static void readFully( FileChannel channel, ByteBuffer buf,
+                                   long position ) throws IOException {
+        while ( buf.hasRemaining() ) {
+            final int n = channel.read( buf, position + buf.position() );
+            if ( n < 0 )
+                throw new IOException( "Packed cache data truncated" );
+        }
+        buf.flip();
+    }
+
+    private static void writeFully( FileChannel channel, ByteBuffer buf,
+                                    long position ) throws IOException {
+        final int start = buf.position();
+        while ( buf.hasRemaining() )
+            channel.write( buf, position + buf.position() - start );
+    }
+
+    private static final String DATA_FILE_NAME = "packed.lzd";
+    private static final String INDEX_FILE_NAME = "packed.lzi";
+    private static final String LOCK_FILE_NAME = "packed.lck";
+
+    private static final int VERSION = 1;
+    private static final int DATA_MAGIC = 0x4c5a5044;   // "LZPD"
+    private static final int INDEX_MAGIC = 0x4c5a5049;  // "LZPI"
+
+    /**
+     * The data file header: magic, version, generation.
+     */
+    private static final int DATA_HEADER_SIZE = 16;
+
+    /**
+     * The index file header: magic, version, generation, end of records.
+     */
+    private static final int INDEX_GENERATION = 8;
+    private static final int INDEX_END = 16;
+    private static final int INDEX_HEADER_SIZE = 24;
+
+    /**
+     * The layout of an index record; the UTF-8 key comes last.
+     */
+    private static final int REC_OFFSET = 0;
+    private static final int REC_LENGTH = 8;
+    private static final int REC_MOD_TIME = 12;
+    private static final int REC_ACCESS_TIME = 20;
+    private static final int REC_LIVE = 28;
+    private static final int REC_KEY_LENGTH = 29;
+    private static final int REC_KEY = 31;
+
+    private static final int INITIAL_INDEX_SIZE = 64 * 1024;
+
+    /**
+     * The minimum dead space (in bytes) worth compacting.
+     */
+    private static final long MIN_COMPACTION_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * <code>sun.misc.Unsafe.invokeCleaner()</code>, the only way to unmap a
+     * {@link MappedByteBuffer} before it is garbage collected, or
+     * <code>null</code> if it isn't available.
+     */
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            final Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+            final Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+            theUnsafe.setAccessible( true );
+            unsafe = theUnsafe.get( null );
+            invokeCleaner =
+                unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class );
+        }
+        catch ( ReflectiveOperationException | RuntimeException e ) {
+            logger.debug("Can't unmap buffers; leaving them to the GC", e);
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final File m_dataFile;
+    private final File m_indexFile;
+
+    private final FileChannel m_lockChannel;
+    private FileLock m_lock;
+
+    private FileChannel m_data;
+    private final FileChannel m_index;
+    private MappedByteBuffer m_indexMap;
+
+    /**
+     * The live entries, from the least to the most recently used one.
+     */
+    private final LinkedHashMap<String, Entry> m_entries =
+        new LinkedHashMap<>( 1024, 0.75f, true );
+
+    private long m_generation;
+    private long m_dataEnd;
+    private long m_indexEnd;
+    private long m_liveBytes;
+}
+/* vim:set et sw=4 ts=4: */
@@ -12,7 +12,6 @@ import com.lightcrafts.jai.JAIContext;
 import com.lightcrafts.platform.Platform;
 import com.lightcrafts.utils.LRUHashMap;
 import com.lightcrafts.utils.UserCanceledException;
-import com.lightcrafts.utils.bytebuffer.ByteBufferUtil;
 import lombok.Getter;
 import lombok.NonNull;
 import lombok.experimental.Accessors;
@@ -25,7 +24,6 @@ import java.awt.image.*;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Instant;
@@ -35,6 +33,10 @@ import java.time.ZoneOffset;
 import java.time.format.DateTimeParseException;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
 import static java.time.format.DateTimeFormatter.ISO_LOCAL_DATE_TIME;
 
@@ -53,13 +55,51 @@ public final class DCRaw extends RawDecoder {
     static private final Map<String,DCRaw> dcrawCache =
         new LRUHashMap<>(100);
 
-    public static synchronized DCRaw getInstanceFor( String fileName ) {
-        DCRaw instance = dcrawCache.get(fileName);
-        if (instance == null) {
-            instance = new DCRaw(fileName);
-            dcrawCache.put(fileName, instance);
+    /**
+     * The instances being constructed, so that concurrent requests for the
+     * same file share a single dcraw info run.  Guarded by dcrawCache.
+     */
+    static private final Map<String,CompletableFuture<DCRaw>> pendingInstances =
+        new HashMap<>();
+
+    public static DCRaw getInstanceFor( String fileName ) {
+        final CompletableFuture<DCRaw> pending;
+        final boolean constructing;
+        synchronized (dcrawCache) {
+            final DCRaw instance = dcrawCache.get(fileName);
+            if (instance != null) {
+                return instance;
+            }
+            final var inFlight = pendingInstances.get(fileName);
+            constructing = inFlight == null;
+            if (constructing) {
+                pending = new CompletableFuture<>();
+                pendingInstances.put(fileName, pending);
+            } else {
+                pending = inFlight;
+            }
+        }
+        if (!constructing) {
+            return pending.join();
+        }
+
+        // Run dcraw outside of the lock, so that different files are
+        // inspected in parallel.
+        try {
+            final DCRaw instance = new DCRaw(fileName);
+            synchronized (dcrawCache) {
+                dcrawCache.put(fileName, instance);
+                pendingInstances.remove(fileName);
+            }
+            pending.complete(instance);
+            return instance;
+        } catch (RuntimeException e) {
+            synchronized (dcrawCache) {
+                pendingInstances.remove(fileName);
+            }
+            pending.completeExceptionally(e);
+            throw e;
         }
-        return instance;
     }
 
     /**
@@ -212,39 +252,87 @@ public final class DCRaw extends RawDecoder {
         return s;
     }
 
-    private int runDCRawInfo(boolean secondary) throws IOException {
-        final var cmd = new ArrayList<>(Arrays.asList(DCRAW_PATH, "-v", "-i", "-t", "0"));
-        if (secondary) {
-            cmd.addAll(Arrays.asList("-s", "1"));
-        }
-        cmd.add(m_fileName);
+    /**
+     * The maximum number of dcraw processes running at once.  It can be set
+     * with the <code>lightcrafts.dcraw.parallelism</code> system property and
+     * defaults to the number of processors.
+     */
+    private static final int DCRAW_PARALLELISM = Math.max(1, Integer.getInteger(
+            "lightcrafts.dcraw.parallelism",
+            Runtime.getRuntime().availableProcessors()));
 
-        final int error;
+    private static final Semaphore dcrawPermits =
+        new Semaphore(DCRAW_PARALLELISM, true);
 
-        synchronized (DCRaw.class) {
+    /**
+     * Waits for one of the {@link #DCRAW_PARALLELISM} slots to be free.  The
+     * caller must release it.
+     */
+    private static void acquireDCRawPermit() throws InterruptedIOException {
+        try {
+            dcrawPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to run dcraw");
+        }
+    }
+
+    /**
+     * Runs dcraw, waiting first for one of the {@link #DCRAW_PARALLELISM}
+     * slots to be free.
+     *
+     * @param cmd The command line.
+     * @param parseStdErr Whether the interesting output is on stderr rather
+     * than on stdout.  The other stream is drained afterwards.
+     * @param lineHandler Called with each line of the interesting output.
+     * @return Returns the exit value of dcraw.
+     */
+    private static int runDCRawProcess(List<String> cmd, boolean parseStdErr,
+                                       Consumer<String> lineHandler)
+            throws IOException
+    {
+        acquireDCRawPermit();
+        try {
             final Process p = new ProcessBuilder(cmd).start();
             try (final var dcrawStdErr = new BufferedInputStream(p.getErrorStream());
                  final var dcrawStdOut = p.getInputStream()) {
+                final var parsed = parseStdErr ? dcrawStdErr : dcrawStdOut;
+                final var drained = parseStdErr ? dcrawStdOut : dcrawStdErr;
                 String line;
-                while ((line = readln(dcrawStdOut)) != null) {
-                    // System.out.println(line);
-                    parseDCRawInfo(line, secondary);
+                while ((line = readln(parsed)) != null) {
+                    lineHandler.accept(line);
                 }
 
-                // Flush stderr just in case...
-                while ((line = readln(dcrawStdErr)) != null)
+                // Flush the other stream just in case...
+                while ((line = readln(drained)) != null)
                     ; // System.out.println(line);
 
                 p.waitFor();
             } catch (InterruptedException e) {
-                logger.warn("Interrupted while waiting for dcraw info process", e);
+                logger.warn("Interrupted while waiting for dcraw process", e);
                 Thread.currentThread().interrupt();
             } finally {
-                error = p.exitValue();
                 p.destroy();
             }
+            try {
+                return p.exitValue();
+            } catch (IllegalThreadStateException e) {
+                // Interrupted before dcraw exited
+                return 1;
+            }
+        } finally {
+            dcrawPermits.release();
+        }
+    }
+
+    private int runDCRawInfo(boolean secondary) throws IOException {
+        final var cmd = new ArrayList<>(Arrays.asList(DCRAW_PATH, "-v", "-i", "-t", "0"));
+        if (secondary) {
+            cmd.addAll(Arrays.asList("-s", "1"));
         }
-        return error;
+        cmd.add(m_fileName);
+
+        return runDCRawProcess(cmd, false, line -> parseDCRawInfo(line, secondary));
     }
 
     private void parseDCRawInfo(String line, boolean secondary) {
@@ -381,17 +469,41 @@ public final class DCRaw extends RawDecoder {
         }
     }
 
+    /**
+     * The size of the chunks in which 16-bit samples are byte-swapped into
+     * the image data.
+     */
+    private static final int READ_CHUNK_SIZE = 1024 * 1024;
+
     private static ImageData readPPM(File file) throws BadImageFileException {
-        try (FileInputStream s = new FileInputStream(file)) {
-            final var S1 = readln(s);
-            if (S1 == null) {
-                throw new BadImageFileException(file);
-            }
+        try (var s = new BufferedInputStream(new FileInputStream(file))) {
+            return readPPM(s, file);
+        } catch (IOException e) {
+            logger.error("Failed to read PPM file: {}", file, e);
+            throw new BadImageFileException(file, e);
+        }
+    }
 
-            final int width;
-            final int height;
-            final int bands;
-            final int dataType;
+    /**
+     * Reads a PGM, PPM or PAM image from a stream, which is either a file or
+     * the standard output of dcraw.
+     *
+     * @param s The stream, positioned at the start of the header.
+     * @param file The file reported in exceptions.
+     */
+    private static ImageData readPPM(InputStream s, File file)
+            throws IOException, BadImageFileException
+    {
+        final var S1 = readln(s);
+        if (S1 == null) {
+            throw new BadImageFileException(file);
+        }
+
+        final int width;
+        final int height;
+        final int bands;
+        final int dataType;
+        try {
             switch (S1) {
                 case "P5":
                 case "P6":
@@ -407,59 +519,56 @@ public final class DCRaw extends RawDecoder {
                     dataType = S3.equals("255") ? DataBuffer.TYPE_BYTE : DataBuffer.TYPE_USHORT;
                     break;
                 case "P7":
-                    final var SWIDTH = readln(s);
-                    final var SHEIGHT = readln(s);
-                    final var SDEPTH = readln(s);
-                    final var SMAXVAL = readln(s);
-                    if (SWIDTH == null || SHEIGHT == null || SDEPTH == null || SMAXVAL == null) {
+                    final var header = new HashMap<String, String>();
+                    String line;
+                    while ((line = readln(s)) != null && !line.equals("ENDHDR")) {
+                        final int space = line.indexOf(' ');
+                        if (space > 0) {
+                            header.put(line.substring(0, space), line.substring(space + 1));
+                        }
+                    }
+                    if (line == null || !header.keySet().containsAll(
+                            Arrays.asList("WIDTH", "HEIGHT", "DEPTH", "MAXVAL"))) {
                         throw new BadImageFileException(file);
                     }
-                    final var WIDTH = "WIDTH ";
-                    width = Integer.parseInt(SWIDTH.substring(WIDTH.length()));
-                    final var HEIGHT = "HEIGHT ";
-                    height = Integer.parseInt(SHEIGHT.substring(HEIGHT.length()));
-                    final var DEPTH = "DEPTH ";
-                    bands = Integer.parseInt(SDEPTH.substring(DEPTH.length()));
-                    final var MAXVAL = "MAXVAL ";
-                    dataType = SMAXVAL.substring(MAXVAL.length()).equals("65535")
+                    width = Integer.parseInt(header.get("WIDTH"));
+                    height = Integer.parseInt(header.get("HEIGHT"));
+                    bands = Integer.parseInt(header.get("DEPTH"));
+                    dataType = header.get("MAXVAL").equals("65535")
                             ? DataBuffer.TYPE_USHORT
                             : DataBuffer.TYPE_BYTE;
                     break;
                 default:
                     throw new BadImageFileException(file);
             }
-            final var imageData = new ImageData(width, height, bands, dataType);
-            final var totalData = width * height * bands * (dataType == DataBuffer.TYPE_BYTE ? 1 : 2);
-
-            try (FileChannel c = s.getChannel()) {
-                if (file.length() != totalData + c.position()) {
-                    throw new BadImageFileException(file);
-                }
-
-                ByteBuffer bb = c.map(FileChannel.MapMode.READ_ONLY, c.position(), totalData);
-
-                if (dataType == DataBuffer.TYPE_USHORT) {
-                    bb.order(ByteOrder.nativeOrder());
-                    bb.asShortBuffer().get((short[]) imageData.data);
+        } catch (NumberFormatException e) {
+            throw new BadImageFileException(file, e);
+        }
 
-                    // Dirty hack to prevent crash on Arch Linux (issue #125)
-                    if (ByteOrder.nativeOrder() != ByteOrder.BIG_ENDIAN) {
-                        for (int i = 0; i < ((short[]) imageData.data).length; ++i) {
-                            ((short[]) imageData.data)[i] =
-                                    Short.reverseBytes(((short[]) imageData.data)[i]);
-                        }
-                    }
-                } else {
-                    bb.get((byte[]) imageData.data);
+        final var imageData = new ImageData(width, height, bands, dataType);
+
+        if (dataType == DataBuffer.TYPE_USHORT) {
+            // PNM samples are big-endian: let the buffer view swap the bytes
+            // in bulk, one chunk at a time, on little-endian hosts.
+            final var samples = (short[]) imageData.data;
+            final var chunk = new byte[READ_CHUNK_SIZE];
+            final var chunkBuffer = ByteBuffer.wrap(chunk).order(ByteOrder.BIG_ENDIAN);
+            for (int offset = 0; offset < samples.length; ) {
+                final int count = Math.min(chunk.length / 2, samples.length - offset);
+                if (s.readNBytes(chunk, 0, count * 2) != count * 2) {
+                    throw new BadImageFileException(file, "Truncated image data");
                 }
-
-                ByteBufferUtil.clean(bb);
+                chunkBuffer.clear();
+                chunkBuffer.asShortBuffer().get(samples, offset, count);
+                offset += count;
+            }
+        } else {
+            final var samples = (byte[]) imageData.data;
+            if (s.readNBytes(samples, 0, samples.length) != samples.length) {
+                throw new BadImageFileException(file, "Truncated image data");
             }
-            return imageData;
-        } catch (Exception e) {
-            logger.error("Failed to read PPM file: {}", file, e);
-            throw new BadImageFileException(file, e);
         }
+        return imageData;
     }
 
     private static final String DCRAW_OUTPUT = "Writing data to ";
@@ -472,7 +581,61 @@ public final class DCRaw extends RawDecoder {
         return runDCRaw(mode, false);
     }
 
-    public synchronized RenderedImage runDCRaw(dcrawMode mode, boolean secondaryPixels)
+    /**
+     * Runs dcraw on the file.  Concurrent requests for the same mode share a
+     * single dcraw process and get the same image, which must therefore be
+     * treated as read-only.
+     */
+    public RenderedImage runDCRaw(dcrawMode mode, boolean secondaryPixels)
+            throws IOException, UnknownImageTypeException, BadImageFileException
+    {
+        final var key = mode.name() + (secondaryPixels ? "-secondary" : "");
+        final CompletableFuture<RenderedImage> pending;
+        final boolean running;
+        synchronized (m_inFlight) {
+            final var inFlight = m_inFlight.get(key);
+            running = inFlight == null;
+            if (running) {
+                pending = new CompletableFuture<>();
+                m_inFlight.put(key, pending);
+            } else {
+                pending = inFlight;
+            }
+        }
+        if (!running) {
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                final var cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                } else if (cause instanceof UnknownImageTypeException) {
+                    throw (UnknownImageTypeException) cause;
+                } else if (cause instanceof BadImageFileException) {
+                    throw (BadImageFileException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw e;
+            }
+        }
+
+        try {
+            final var result = runDCRawNow(mode, secondaryPixels);
+            pending.complete(result);
+            return result;
+        } catch (IOException | UnknownImageTypeException | BadImageFileException
+                 | RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (m_inFlight) {
+                m_inFlight.remove(key);
+            }
+        }
+    }
+
+    private RenderedImage runDCRawNow(dcrawMode mode, boolean secondaryPixels)
             throws IOException, UnknownImageTypeException, BadImageFileException
     {
         if (!m_decodable || (mode == dcrawMode.full && m_rawColors != 3)) {
@@ -492,11 +655,19 @@ public final class DCRaw extends RawDecoder {
             if (secondaryPixels)
                 runDCRawInfo(true);
 
-            of = getDcrawOutputFile(mode, secondaryPixels);
+            final ImageData streamed;
+            if (mode == dcrawMode.thumb) {
+                // Embedded thumbnails may be JPEG or TIFF: keep a file around
+                // for the image readers.
+                of = getDcrawOutputFile(mode, secondaryPixels);
+                streamed = null;
+            } else {
+                streamed = streamDcrawOutput(mode, secondaryPixels);
+            }
 
             final long t2;
             final int totalData;
-            if (of.getName().endsWith(".jpg") || of.getName().endsWith(".tiff")) {
+            if (of != null && (of.getName().endsWith(".jpg") || of.getName().endsWith(".tiff"))) {
                 try {
                     final var readerFactory = new LCImageReaderFactory();
                     final var reader = readerFactory.create(of);
@@ -513,7 +684,7 @@ public final class DCRaw extends RawDecoder {
                         result.getColorModel().getNumColorComponents() *
                         (result.getColorModel().getTransferType() == DataBuffer.TYPE_BYTE ? 1 : 2);
             } else {
-                final var imageData = readPPM(of);
+                final var imageData = streamed != null ? streamed : readPPM(of);
                 t2 = System.currentTimeMillis();
                 totalData = imageData.width *
                         imageData.height *
@@ -539,19 +710,19 @@ public final class DCRaw extends RawDecoder {
         return result;
     }
 
-    public synchronized RenderedImage getPreview()
+    public RenderedImage getPreview()
             throws BadImageFileException, UnknownImageTypeException, IOException
     {
         return runDCRaw(DCRaw.dcrawMode.preview);
     }
 
-    public synchronized RenderedImage getThumbnail()
+    public RenderedImage getThumbnail()
             throws UnknownImageTypeException, BadImageFileException, IOException
     {
         return runDCRaw(DCRaw.dcrawMode.thumb);
     }
 
-    public synchronized RenderedImage getImage()
+    public RenderedImage getImage()
             throws BadImageFileException, UnknownImageTypeException, IOException
     {
         return runDCRaw(DCRaw.dcrawMode.full, false);
@@ -561,39 +732,18 @@ public final class DCRaw extends RawDecoder {
             throws IOException, BadImageFileException
     {
         File of = File.createTempFile("LZRAWTMP", ".ppm");
-        String ofName = null;
+        final String[] ofName = new String[1];
 
         final var cmd = dcrawCommandLine(mode, secondaryPixels, of);
 
-        final int error;
+        // output expected on stderr
+        final int error = runDCRawProcess(cmd, true, line -> {
+            logger.debug(line);
 
-        synchronized (DCRaw.class) {
-            final Process p = new ProcessBuilder(cmd).start();
-            try (final var dcrawStdErr = new BufferedInputStream(p.getErrorStream());
-                 final var dcrawStdOut = p.getInputStream()) {
-                String line;
-                // output expected on stderr
-                while ((line = readln(dcrawStdErr)) != null) {
-                    logger.debug(line);
-
-                    final var args = match(line, DCRAW_OUTPUT);
-                    if (args != null)
-                        ofName = args.substring(0, args.indexOf(" ..."));
-                }
-
-                // Flush stdout just in case...
-                while ((line = readln(dcrawStdOut)) != null)
-                    ; // System.out.println(line);
-
-                p.waitFor();
-            } catch (InterruptedException e) {
-                logger.warn("Interrupted while waiting for dcraw output process", e);
-                Thread.currentThread().interrupt();
-            } finally {
-                error = p.exitValue();
-                p.destroy();
-            }
-        }
+            final var args = match(line, DCRAW_OUTPUT);
+            if (args != null)
+                ofName[0] = args.substring(0, args.indexOf(" ..."));
+        });
 
         logger.debug("dcraw value: {}", error);
 
@@ -601,23 +751,82 @@ public final class DCRaw extends RawDecoder {
             throw new BadImageFileException(of);
         }
 
-        if (ofName == null) {
+        if (ofName[0] == null) {
             logger.warn("Cannot get output filename. Falling back to: {}", of.getPath());
-        } else if (!ofName.equals(of.getPath())) {
+        } else if (!ofName[0].equals(of.getPath())) {
             if (!of.delete()) {
                 logger.warn("Could not delete temporary file: {}", of);
             }
-            of = new File(ofName);
+            of = new File(ofName[0]);
         }
         return of;
     }
 
+    /**
+     * Runs dcraw writing the image to its standard output and reads it
+     * straight into the image data, without a temporary file.
+     */
+    private ImageData streamDcrawOutput(dcrawMode mode, boolean secondaryPixels)
+            throws IOException, BadImageFileException
+    {
+        final var cmd = dcrawCommandLine(mode, secondaryPixels, null);
+        final var rawFile = new File(m_fileName);
+
+        acquireDCRawPermit();
+        try {
+            final Process p = new ProcessBuilder(cmd).start();
+
+            // Drain stderr concurrently, so that dcraw never blocks on it
+            // while we are reading the image.
+            final var stderrDrain = new Thread(() -> {
+                try (final var dcrawStdErr = new BufferedInputStream(p.getErrorStream())) {
+                    String line;
+                    while ((line = readln(dcrawStdErr)) != null) {
+                        logger.debug(line);
+                    }
+                } catch (IOException e) {
+                    logger.debug("Failed to drain dcraw stderr", e);
+                }
+            }, "dcraw stderr");
+            stderrDrain.setDaemon(true);
+            stderrDrain.start();
+
+            try (final var dcrawStdOut = p.getInputStream()) {
+                final var imageData = readPPM(dcrawStdOut, rawFile);
+
+                p.waitFor();
+                stderrDrain.join();
+
+                final int error = p.exitValue();
+                logger.debug("dcraw value: {}", error);
+                if (error > 0) {
+                    throw new BadImageFileException(rawFile);
+                }
+                return imageData;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading dcraw output");
+            } finally {
+                p.destroy();
+            }
+        } finally {
+            dcrawPermits.release();
+        }
+    }
+
+    /**
+     * Builds the dcraw command line.
+     *
+     * @param of The output file, or <code>null</code> to have dcraw write
+     * the image to its standard output.
+     */
     private List<String> dcrawCommandLine(dcrawMode mode, boolean secondaryPixels, File of) {
         final var makeModel = (m_make + ' ' + m_model).toUpperCase();
         final var four_colors = four_color_cameras.contains(makeModel);
-        final var path = of.getAbsolutePath();
 
-        final var cmd = new ArrayList<>(Arrays.asList(DCRAW_PATH, "-F", path, "-v"));
+        final var cmd = new ArrayList<>(of != null
+                ? Arrays.asList(DCRAW_PATH, "-F", of.getAbsolutePath(), "-v")
+                : Arrays.asList(DCRAW_PATH, "-c", "-v"));
 
         switch (mode) {
         case full:
@@ -676,6 +885,10 @@ public final class DCRaw extends RawDecoder {
 
     private final String m_fileName;
 
+    /** The dcraw runs in progress, by mode, so that they can be shared. */
+    private final Map<String,CompletableFuture<RenderedImage>> m_inFlight =
+        new HashMap<>();
+
     @Getter @Accessors(prefix = "m_")
     private String m_make;
 
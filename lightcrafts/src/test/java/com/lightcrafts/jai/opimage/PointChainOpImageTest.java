@@ -0,0 +1,175 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.opimage;
+
+import com.lightcrafts.image.color.ColorMatrix2;
+import org.eclipse.imagen.PlanarImage;
+import org.eclipse.imagen.media.bandcombine.BandCombineDescriptor;
+import org.eclipse.imagen.media.lookup.LookupDescriptor;
+import org.eclipse.imagen.media.lookup.LookupTableFactory;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that fusing per-pixel operations into a {@link PointChainOpImage}
+ * gives the same pixels as running them one after the other.
+ */
+class PointChainOpImageTest {
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 200;
+
+    private final PlanarImage source = source();
+
+    /** Random pixels, with some at both ends of the range. */
+    private static PlanarImage source() {
+        final WritableRaster raster = Raster.createInterleavedRaster(
+                DataBuffer.TYPE_USHORT, WIDTH, HEIGHT, 3, null);
+        final Random random = new Random(3);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int b = 0; b < 3; b++) {
+                    final int v = switch (random.nextInt(16)) {
+                        case 0 -> 0;
+                        case 1 -> 0xffff;
+                        default -> random.nextInt(0x10000);
+                    };
+                    raster.setSample(x, y, b, v);
+                }
+            }
+        }
+        final ComponentColorModel colorModel = new ComponentColorModel(
+                ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB), false, false,
+                Transparency.OPAQUE, DataBuffer.TYPE_USHORT);
+        return PlanarImage.wrapRenderedImage(
+                new BufferedImage(colorModel, raster, false, null));
+    }
+
+    private static int[] pixels(RenderedImage image) {
+        return image.getData().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null);
+    }
+
+    /** A band combination that also clips at both ends, as in Hue/Saturation. */
+    private static double[][] bandCombineMatrix() {
+        final float[][] matrix = {
+                {1, 0, 0, 0},
+                {0, 1, 0, 0},
+                {0, 0, 1, 0},
+                {0, 0, 0, 1},
+        };
+        ColorMatrix2.saturatemat(matrix, 1.4f);
+        ColorMatrix2.cscalemat(matrix, 1.1f, 1.1f, 1.1f);
+        final double[][] transform = new double[3][4];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 4; j++) {
+                transform[i][j] = matrix[j][i];
+            }
+        }
+        transform[1][3] = -300;
+        return transform;
+    }
+
+    private static float[][] vibranceMatrix() {
+        final float[][] matrix = {
+                {1, 0, 0, 0},
+                {0, 1, 0, 0},
+                {0, 0, 1, 0},
+                {0, 0, 0, 1},
+        };
+        ColorMatrix2.saturatemat(matrix, 1.3f);
+        final float[][] transform = new float[3][4];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 4; j++) {
+                transform[i][j] = matrix[j][i];
+            }
+        }
+        return transform;
+    }
+
+    /** A tint table as in White Balance: an offset per band, clipped. */
+    private static short[][] lookupTable() {
+        final short[][] table = new short[3][0x10000];
+        for (int i = 0; i < 0x10000; i++) {
+            table[0][i] = (short) Math.min(i + 1200, 0xffff);
+            table[1][i] = (short) Math.max(i - 800, 0);
+            table[2][i] = (short) (0xffff - i);
+        }
+        return table;
+    }
+
+    @Test
+    void testBandCombineMatchesBandCombineDescriptor() {
+        final double[][] matrix = bandCombineMatrix();
+        final PlanarImage fused = PointChainOpImage.append(
+                source, new PointChainOpImage.BandCombine(matrix), null);
+        assertThat(pixels(fused)).isEqualTo(
+                pixels(BandCombineDescriptor.create(source, matrix, null)));
+    }
+
+    @Test
+    void testLookupMatchesLookupDescriptor() {
+        final short[][] table = lookupTable();
+        final PlanarImage fused = PointChainOpImage.append(
+                source, new PointChainOpImage.Lookup(table), null);
+        assertThat(pixels(fused)).isEqualTo(pixels(LookupDescriptor.create(
+                source, LookupTableFactory.create(table, true),
+                0, null, null, false, null)));
+    }
+
+    @Test
+    void testHueSaturationChainMatchesSeparateOperations() {
+        final double[][] matrix = bandCombineMatrix();
+        final float[][] vibrance = vibranceMatrix();
+        final float angle = 0.15f;
+
+        PointChainOpImage fused = PointChainOpImage.append(
+                source, new PointChainOpImage.BandCombine(matrix), null);
+        fused = PointChainOpImage.append(
+                fused, new IntVibranceOpImage.Vibrance(vibrance), null);
+        fused = PointChainOpImage.append(
+                fused, new HueRotateOpImage.HueRotate(angle), null);
+        assertThat(fused.getStageCount()).isEqualTo(3);
+
+        PlanarImage separate = BandCombineDescriptor.create(source, matrix, null);
+        separate = new IntVibranceOpImage(separate, vibrance, null);
+        separate = new HueRotateOpImage(separate, angle, null);
+
+        assertThat(pixels(fused)).isEqualTo(pixels(separate));
+    }
+
+    @Test
+    void testWhiteBalanceChainMatchesSeparateOperations() {
+        final double[][] matrix = bandCombineMatrix();
+        final short[][] table = lookupTable();
+
+        PointChainOpImage fused = PointChainOpImage.append(
+                source, new PointChainOpImage.BandCombine(matrix), null);
+        fused = PointChainOpImage.append(
+                fused, new PointChainOpImage.Lookup(table), null);
+        assertThat(fused.getStageCount()).isEqualTo(2);
+
+        final PlanarImage separate = LookupDescriptor.create(
+                BandCombineDescriptor.create(source, matrix, null),
+                LookupTableFactory.create(table, true),
+                0, null, null, false, null);
+
+        assertThat(pixels(fused)).isEqualTo(pixels(separate));
+    }
+
+    @Test
+    void testOtherLayoutsAreNotFused() {
+        final BufferedImage bytes = new BufferedImage(8, 8, BufferedImage.TYPE_3BYTE_BGR);
+        assertThat(PointChainOpImage.append(
+                bytes, new PointChainOpImage.Lookup(lookupTable()), null)).isNull();
+    }
+}
@@ -0,0 +1,77 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import org.eclipse.imagen.TiledImage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LCTileCacheTest {
+    private static final int TILE_SIZE = 16;
+
+    // 4 x 3 tiles, the first of which is at (-2, -1)
+    private final TiledImage image = new TiledImage(
+            -2 * TILE_SIZE, -TILE_SIZE, 4 * TILE_SIZE, 3 * TILE_SIZE, 0, 0,
+            new PixelInterleavedSampleModel(DataBuffer.TYPE_BYTE, TILE_SIZE, TILE_SIZE,
+                                            1, TILE_SIZE, new int[]{0}),
+            null);
+
+    private final LCTileCache cache = new LCTileCache(1 << 24, false);
+
+    @AfterEach
+    void tearDown() throws IOException {
+        cache.dispose();
+    }
+
+    @Test
+    void testTileIndexIsRelativeToGridOrigin() {
+        assertThat(image.getMinTileX()).isEqualTo(-2);
+        assertThat(image.getMinTileY()).isEqualTo(-1);
+
+        final Set<Integer> indices = new HashSet<>();
+        for (int ty = image.getMinTileY(); ty <= image.getMaxTileY(); ty++) {
+            for (int tx = image.getMinTileX(); tx <= image.getMaxTileX(); tx++) {
+                final int index = LCCachedTile.tileIndex(image, tx, ty);
+                assertThat(index).isBetween(0, 11);
+                indices.add(index);
+            }
+        }
+        assertThat(indices).hasSize(12);
+        assertThat(LCCachedTile.hashKey(image, -1, 1))
+                .isNotEqualTo(LCCachedTile.hashKey(image, image.getMaxTileX(), 0));
+    }
+
+    @Test
+    void testNegativeOrigin() {
+        for (int ty = image.getMinTileY(); ty <= image.getMaxTileY(); ty++) {
+            for (int tx = image.getMinTileX(); tx <= image.getMaxTileX(); tx++) {
+                cache.add(image, tx, ty, image.getTile(tx, ty));
+            }
+        }
+        for (int ty = image.getMinTileY(); ty <= image.getMaxTileY(); ty++) {
+            for (int tx = image.getMinTileX(); tx <= image.getMaxTileX(); tx++) {
+                assertThat(cache.getTile(image, tx, ty).getBounds())
+                        .isEqualTo(image.getTile(tx, ty).getBounds());
+            }
+        }
+
+        cache.remove(image, -2, -1);
+        assertThat(cache.getTile(image, -2, -1)).isNull();
+        assertThat(cache.getTile(image, -1, -1)).isNotNull();
+
+        cache.removeTiles(image);
+        for (int ty = image.getMinTileY(); ty <= image.getMaxTileY(); ty++) {
+            for (int tx = image.getMinTileX(); tx <= image.getMaxTileX(); tx++) {
+                assertThat(cache.getTile(image, tx, ty)).isNull();
+            }
+        }
+    }
+}
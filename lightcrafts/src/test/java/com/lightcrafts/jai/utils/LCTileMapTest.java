@@ -0,0 +1,96 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LCTileMapTest {
+    private final BufferedImage image = new BufferedImage(8, 8, BufferedImage.TYPE_BYTE_GRAY);
+    private final Raster raster = image.getRaster();
+    private final LCTileOwner owner = LCTileOwner.of(image);
+
+    private LCCachedTile tile(int index) {
+        return new LCCachedTile(owner, index, 0, raster, null,
+                LCCachedTile.hashKey(owner.id, index));
+    }
+
+    private List<Long> keysInOrder(LCTileMap map) {
+        final List<Long> keys = new ArrayList<>();
+        map.forEach(ct -> keys.add(ct.key));
+        return keys;
+    }
+
+    @Test
+    void testOwnerIsInterned() {
+        assertThat(LCTileOwner.of(image)).isSameAs(owner);
+        assertThat(LCCachedTile.hashKey(image, 3, 0))
+                .isEqualTo(LCCachedTile.hashKey(owner.id, 3));
+    }
+
+    @Test
+    void testGetMovesTileToMostRecentlyUsed() {
+        final var map = new LCTileMap(4);
+        final var t0 = tile(0);
+        final var t1 = tile(1);
+        final var t2 = tile(2);
+        map.put(t0);
+        map.put(t1);
+        map.put(t2);
+
+        assertThat(map.get(t0.key)).isSameAs(t0);
+        assertThat(map.eldest()).isSameAs(t1);
+        assertThat(keysInOrder(map)).containsExactly(t1.key, t2.key, t0.key);
+
+        assertThat(map.peek(t1.key)).isSameAs(t1);
+        assertThat(map.eldest()).isSameAs(t1);
+    }
+
+    @Test
+    void testRemoveAndGrow() {
+        final var map = new LCTileMap(1);
+        final int count = 1000;
+        for (int i = 0; i < count; i++) {
+            assertThat(map.put(tile(i))).isNull();
+        }
+        assertThat(map.size()).isEqualTo(count);
+
+        for (int i = 0; i < count; i += 2) {
+            assertThat(map.remove(LCCachedTile.hashKey(owner.id, i))).isNotNull();
+        }
+        assertThat(map.size()).isEqualTo(count / 2);
+        for (int i = 0; i < count; i++) {
+            final var ct = map.peek(LCCachedTile.hashKey(owner.id, i));
+            if (i % 2 == 0) {
+                assertThat(ct).isNull();
+            } else {
+                assertThat(ct).isNotNull();
+            }
+        }
+        assertThat(map.eldest().key).isEqualTo(LCCachedTile.hashKey(owner.id, 1));
+    }
+
+    @Test
+    void testPutReplacesExistingTile() {
+        final var map = new LCTileMap(4);
+        final var old = tile(7);
+        map.put(old);
+        map.put(tile(8));
+
+        final var replacement = tile(7);
+        assertThat(map.put(replacement)).isSameAs(old);
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get(old.key)).isSameAs(replacement);
+
+        map.clear();
+        assertThat(map.size()).isZero();
+        assertThat(map.eldest()).isNull();
+    }
+}
+/* vim:set et sw=4 ts=4: */
@@ -0,0 +1,163 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.jai.utils;
+
+import com.lightcrafts.jai.utils.LCTileCache.TileCacheCacheObjectBroker;
+import com.lightcrafts.utils.cache.CacheIOException;
+import com.lightcrafts.utils.cache.LZCacheCodec;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TileCacheCacheObjectBrokerTest {
+    private static final int WIDTH = 64;
+    private static final int HEIGHT = 64;
+
+    private final TileCacheCacheObjectBroker broker =
+            new TileCacheCacheObjectBroker(LZCacheCodec.INSTANCE);
+
+    /** A smooth gradient per band with a little noise, like a photo tile. */
+    private static int sample(Random random, int x, int y, int band, int max) {
+        final int v = (x * (band + 1) * 3 + y * (3 - band) * 2) * max / 1024
+                + random.nextInt(4);
+        return Math.min(v, max);
+    }
+
+    private static byte[] byteTile(int bands) {
+        final Random random = new Random(bands);
+        final byte[] a = new byte[WIDTH * HEIGHT * bands];
+        for (int i = 0; i < a.length; i++) {
+            final int p = i / bands;
+            a[i] = (byte) sample(random, p % WIDTH, p / WIDTH, i % bands, 255);
+        }
+        return a;
+    }
+
+    private static short[] shortTile(int bands) {
+        final Random random = new Random(bands);
+        final short[] a = new short[WIDTH * HEIGHT * bands];
+        for (int i = 0; i < a.length; i++) {
+            final int p = i / bands;
+            a[i] = (short) sample(random, p % WIDTH, p / WIDTH, i % bands, 65535);
+        }
+        return a;
+    }
+
+    private static int[] intTile(int bands) {
+        final Random random = new Random(bands);
+        final int[] a = new int[WIDTH * HEIGHT * bands];
+        for (int i = 0; i < a.length; i++) {
+            final int p = i / bands;
+            a[i] = sample(random, p % WIDTH, p / WIDTH, i % bands, 1 << 20);
+        }
+        return a;
+    }
+
+    private ByteBuffer encode(Object tile, boolean direct) {
+        final int size = broker.getEncodedSizeOf(tile);
+        final ByteBuffer buf = direct ? ByteBuffer.allocateDirect(size)
+                                      : ByteBuffer.allocate(size);
+        broker.encodeToByteBuffer(buf, tile);
+        return buf;
+    }
+
+    private Object decode(ByteBuffer buf, Object like) {
+        final Object obj;
+        if (like instanceof byte[]) {
+            obj = new byte[((byte[]) like).length];
+        } else if (like instanceof short[]) {
+            obj = new short[((short[]) like).length];
+        } else {
+            obj = new int[((int[]) like).length];
+        }
+        return broker.decodeFromByteBuffer(buf, obj);
+    }
+
+    private void assertRoundTrip(Object tile, int bands) {
+        final ByteBuffer buf = encode(tile, false);
+        // Packed, with the delta stride of the band count
+        assertThat(buf.get(0)).isEqualTo((byte) 1);
+        assertThat(buf.get(1)).isEqualTo((byte) bands);
+        assertThat(buf.limit()).isLessThan(broker.getEncodedSizeOf(tile));
+        assertThat(decode(buf, tile)).isEqualTo(tile);
+    }
+
+    @Test
+    void testRoundTrip() {
+        for (int bands : new int[] {1, 3, 4}) {
+            assertRoundTrip(byteTile(bands), bands);
+            assertRoundTrip(shortTile(bands), bands);
+            assertRoundTrip(intTile(bands), bands);
+        }
+        assertThat(broker.getRawTileCount()).isZero();
+        assertThat(broker.getCompressionRatio()).isGreaterThan(1.0);
+    }
+
+    @Test
+    void testIncompressibleTileIsStoredRaw() {
+        final Random random = new Random(7);
+        final byte[] bytes = new byte[WIDTH * HEIGHT * 3];
+        random.nextBytes(bytes);
+        final short[] shorts = new short[WIDTH * HEIGHT];
+        for (int i = 0; i < shorts.length; i++) {
+            shorts[i] = (short) random.nextInt();
+        }
+        final int[] ints = random.ints(WIDTH * HEIGHT).toArray();
+
+        int count = 0;
+        for (Object tile : new Object[] {bytes, shorts, ints}) {
+            for (boolean direct : new boolean[] {false, true}) {
+                final ByteBuffer buf = encode(tile, direct);
+                assertThat(buf.get(0)).isEqualTo((byte) 0);
+                assertThat(buf.limit()).isEqualTo(broker.getEncodedSizeOf(tile));
+                assertThat(decode(buf, tile)).isEqualTo(tile);
+                count++;
+            }
+        }
+        assertThat(broker.getRawTileCount()).isEqualTo(count);
+    }
+
+    @Test
+    void testCorruptTileIsRejected() {
+        final short[] tile = shortTile(3);
+
+        // Truncated payload
+        final ByteBuffer truncated = encode(tile, false);
+        truncated.order(ByteOrder.LITTLE_ENDIAN);
+        truncated.putInt(4, truncated.getInt(4) / 2);
+        assertThatThrownBy(() -> decode(truncated, tile))
+                .isInstanceOf(CacheIOException.class);
+
+        // Payload larger than the buffer
+        final ByteBuffer tooLong = encode(tile, false);
+        tooLong.order(ByteOrder.LITTLE_ENDIAN);
+        tooLong.putInt(4, tooLong.limit());
+        assertThatThrownBy(() -> decode(tooLong, tile))
+                .isInstanceOf(CacheIOException.class);
+
+        // Bad stride
+        final ByteBuffer badStride = encode(tile, false);
+        badStride.put(1, (byte) 0);
+        assertThatThrownBy(() -> decode(badStride, tile))
+                .isInstanceOf(CacheIOException.class);
+
+        // Unknown encoding
+        final ByteBuffer badType = encode(tile, false);
+        badType.put(0, (byte) 9);
+        assertThatThrownBy(() -> decode(badType, tile))
+                .isInstanceOf(CacheIOException.class);
+
+        // Garbled payload
+        final ByteBuffer garbled = encode(tile, false);
+        for (int i = 8; i < garbled.limit(); i += 5) {
+            garbled.put(i, (byte) 0xFF);
+        }
+        assertThatThrownBy(() -> decode(garbled, tile))
+                .isInstanceOf(CacheIOException.class);
+    }
+}
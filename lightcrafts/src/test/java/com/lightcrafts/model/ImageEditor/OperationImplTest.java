@@ -0,0 +1,37 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.model.ImageEditor;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OperationImplTest {
+    private static final long SOURCE_KEY = 42;
+
+    @Test
+    void testFingerprintIsStable() {
+        final var op = new GaussianBlurOperation(null);
+        assertThat(op.fingerprint(SOURCE_KEY, 1)).isEqualTo(op.fingerprint(SOURCE_KEY, 1));
+        assertThat(op.fingerprint(SOURCE_KEY, 1)).isNotEqualTo(op.fingerprint(SOURCE_KEY, 0.5f));
+        assertThat(op.fingerprint(SOURCE_KEY, 1)).isNotEqualTo(op.fingerprint(SOURCE_KEY + 1, 1));
+    }
+
+    @Test
+    void testReorderingChangesLaterStages() {
+        // Two new tools of the same kind, with the same revisions
+        final var first = new GaussianBlurOperation(null);
+        final var second = new GaussianBlurOperation(null);
+        final var third = new GaussianBlurOperation(null);
+
+        final long firstKey = first.fingerprint(SOURCE_KEY, 1);
+        final long secondKey = second.fingerprint(SOURCE_KEY, 1);
+        assertThat(firstKey).isNotEqualTo(secondKey);
+
+        // first, second, third against second, first, third
+        final long inOrder = third.fingerprint(second.fingerprint(firstKey, 1), 1);
+        final long swapped = third.fingerprint(first.fingerprint(secondKey, 1), 1);
+        assertThat(second.fingerprint(firstKey, 1)).isNotEqualTo(first.fingerprint(secondKey, 1));
+        assertThat(inOrder).isNotEqualTo(swapped);
+    }
+}
@@ -0,0 +1,86 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BestFitFreeBlockManagerTest {
+    private final BestFitFreeBlockManager manager = new BestFitFreeBlockManager();
+
+    private void free(long pos, int size) {
+        manager.freeBlock(new CacheBlock(pos, size));
+    }
+
+    private static void assertBlock(CacheBlock block, long pos, int size) {
+        assertThat(block).isNotNull();
+        assertThat(block.getPosition()).isEqualTo(pos);
+        assertThat(block.getSize()).isEqualTo(size);
+    }
+
+    @Test
+    void testBestFit() {
+        free(0, 100);
+        free(200, 30);
+        free(300, 50);
+        free(400, 30);
+
+        // The smallest block that fits, the lowest one among equals
+        assertBlock(manager.findBlockOfSize(30), 200, 30);
+        assertBlock(manager.findBlockOfSize(30), 400, 30);
+
+        // A larger block is split, and the rest stays free
+        assertBlock(manager.findBlockOfSize(40), 300, 40);
+        assertThat(manager.getFreeBlockCount()).isEqualTo(2);
+        assertBlock(manager.findBlockOfSize(10), 340, 10);
+
+        assertThat(manager.findBlockOfSize(101)).isNull();
+        assertThat(manager.getFreeSize()).isEqualTo(100);
+        assertThat(manager.getLargestFreeBlockSize()).isEqualTo(100);
+    }
+
+    @Test
+    void testCoalescing() {
+        free(0, 10);
+        free(20, 10);
+        free(40, 10);
+        assertThat(manager.getFreeBlockCount()).isEqualTo(3);
+
+        // Merges with the blocks on both sides
+        free(10, 10);
+        assertThat(manager.getFreeBlockCount()).isEqualTo(2);
+        assertThat(manager.getLargestFreeBlockSize()).isEqualTo(30);
+
+        // Merges with the block before it only
+        free(30, 5);
+        assertThat(manager.getFreeBlockCount()).isEqualTo(2);
+        assertThat(manager.getLargestFreeBlockSize()).isEqualTo(35);
+
+        // Merges with the block after it only
+        free(36, 4);
+        assertThat(manager.getFreeBlockCount()).isEqualTo(2);
+        assertThat(manager.getFreeSize()).isEqualTo(49);
+
+        free(35, 1);
+        assertThat(manager.getFreeBlockCount()).isEqualTo(1);
+        assertBlock(manager.findBlockOfSize(50), 0, 50);
+        assertThat(manager.getFreeSize()).isZero();
+    }
+
+    @Test
+    void testTakeBlockEndingAt() {
+        free(0, 10);
+        free(50, 25);
+        assertThat(manager.takeBlockEndingAt(100)).isNull();
+        assertThat(manager.takeBlockEndingAt(10)).isNull();
+        assertBlock(manager.takeBlockEndingAt(75), 50, 25);
+        assertThat(manager.getFreeBlockCount()).isEqualTo(1);
+        assertThat(manager.getFreeSize()).isEqualTo(10);
+
+        manager.clear();
+        assertThat(manager.getFreeBlockCount()).isZero();
+        assertThat(manager.getLargestFreeBlockSize()).isZero();
+        assertThat(manager.findBlockOfSize(1)).isNull();
+    }
+}
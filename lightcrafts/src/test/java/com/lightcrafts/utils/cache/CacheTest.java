@@ -0,0 +1,190 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.cache;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CacheTest {
+    /** Stores byte arrays as they are. */
+    private static final class BytesBroker implements CacheObjectBroker {
+        @Override
+        public Object decodeFromByteBuffer(ByteBuffer buf, Object aux) {
+            final byte[] bytes = new byte[buf.limit()];
+            buf.get(0, bytes);
+            return bytes;
+        }
+
+        @Override
+        public void encodeToByteBuffer(ByteBuffer buf, Object obj) {
+            buf.put(0, (byte[]) obj);
+        }
+
+        @Override
+        public int getEncodedSizeOf(Object obj) {
+            return ((byte[]) obj).length;
+        }
+    }
+
+    @TempDir
+    File dir;
+
+    private Cache cache;
+    private CacheStore store;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        store = new DirectFileCacheStore(new File(dir, "cache.cce"));
+        cache = new Cache(new BytesBroker(), new WriteThroughCacheObjectMap(),
+                          store, new BestFitFreeBlockManager());
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        cache.dispose();
+    }
+
+    private static byte[] contents(Random random, int key) {
+        final byte[] bytes = new byte[1 + random.nextInt(4096)];
+        random.nextBytes(bytes);
+        bytes[0] = (byte) key;
+        return bytes;
+    }
+
+    /** The store holds the live objects and the free blocks, and no more. */
+    private void assertAccounted(Map<Integer, byte[]> live) throws IOException {
+        long liveSize = 0;
+        for (byte[] bytes : live.values()) {
+            liveSize += bytes.length;
+        }
+        assertThat(store.getSize())
+                .isEqualTo(liveSize + cache.getFreeBlockManager().getFreeSize());
+    }
+
+    @Test
+    void testRandomPutGetRemove() throws IOException {
+        final Random random = new Random(17);
+        final Map<Integer, byte[]> live = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            final int key = random.nextInt(2000);
+            final int op = random.nextInt(3);
+            if (op == 0) {
+                final byte[] bytes = contents(random, key);
+                if (live.containsKey(key)) {
+                    cache.remove(key);
+                }
+                cache.put(key, bytes);
+                live.put(key, bytes);
+            } else if (op == 1) {
+                assertThat(cache.getOnce(key, null)).isEqualTo(live.remove(key));
+            } else {
+                assertThat(cache.remove(key)).isEqualTo(live.remove(key) != null);
+            }
+        }
+        assertAccounted(live);
+        for (Map.Entry<Integer, byte[]> e : live.entrySet()) {
+            assertThat(cache.getOnce(e.getKey(), null)).isEqualTo(e.getValue());
+        }
+        // All free space is at the end, so the store is empty again.
+        assertThat(store.getSize()).isZero();
+        assertThat(cache.getFreeBlockManager().getFreeSize()).isZero();
+    }
+
+    @Test
+    void testTruncate() throws IOException {
+        cache.put(1, new byte[100]);
+        cache.put(2, new byte[200]);
+        cache.put(3, new byte[300]);
+        assertThat(store.getSize()).isEqualTo(600);
+
+        // A hole in the middle doesn't shorten the store...
+        cache.remove(2);
+        assertThat(store.getSize()).isEqualTo(600);
+        assertThat(cache.getFragmentation()).isEqualTo(200.0 / 600);
+
+        // ...but it goes with the free block at the end.
+        cache.remove(3);
+        assertThat(store.getSize()).isEqualTo(100);
+        assertThat(cache.getFreeBlockManager().getFreeSize()).isZero();
+        assertThat(cache.getFragmentation()).isZero();
+    }
+
+    @Test
+    void testCompactStep() throws IOException {
+        final Random random = new Random(5);
+        final Map<Integer, byte[]> live = new HashMap<>();
+        for (int key = 0; key < 1000; key++) {
+            final byte[] bytes = contents(random, key);
+            cache.put(key, bytes);
+            live.put(key, bytes);
+        }
+        for (int key = 0; key < 1000; key += 2) {
+            cache.remove(key);
+            live.remove(key);
+        }
+        assertThat(cache.getFragmentation()).isGreaterThan(0.4);
+        final long fragmentedSize = store.getSize();
+
+        int moves = 0;
+        while (cache.compactStep()) {
+            moves++;
+            assertAccounted(live);
+        }
+        assertThat(moves).isPositive();
+        assertThat(store.getSize()).isLessThan(fragmentedSize);
+        assertThat(cache.getFragmentation()).isLessThan(0.1);
+
+        for (Map.Entry<Integer, byte[]> e : live.entrySet()) {
+            assertThat(cache.getOnce(e.getKey(), null)).isEqualTo(e.getValue());
+        }
+        assertThat(store.getSize()).isZero();
+    }
+
+    @Test
+    void testCompactor() throws IOException, InterruptedException {
+        final Map<Integer, byte[]> kept = new HashMap<>();
+        for (int key = 0; key < 400; key++) {
+            final byte[] bytes = new byte[1000];
+            bytes[0] = (byte) key;
+            cache.put(key, bytes);
+            kept.put(key, bytes);
+        }
+        // Keep the last object so the free space isn't all at the end.
+        for (int key = 0; key < 399; key++) {
+            if (key % 4 != 0) {
+                cache.remove(key);
+                kept.remove(key);
+            }
+        }
+        assertThat(cache.getFragmentation()).isGreaterThan(0.5);
+
+        final CacheCompactor compactor = new CacheCompactor(cache, 0.25);
+        try {
+            final long deadline = System.currentTimeMillis() + 10000;
+            while (cache.getFragmentation() > 0.125
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+        } finally {
+            compactor.stop();
+        }
+        assertThat(cache.getFragmentation()).isLessThanOrEqualTo(0.125);
+        assertThat(compactor.getCompactionCount()).isPositive();
+        assertThat(compactor.getMovedCount()).isPositive();
+
+        for (Map.Entry<Integer, byte[]> e : kept.entrySet()) {
+            assertThat(cache.getOnce(e.getKey(), null)).isEqualTo(e.getValue());
+        }
+    }
+}
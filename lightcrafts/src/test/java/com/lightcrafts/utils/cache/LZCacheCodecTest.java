@@ -0,0 +1,94 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LZCacheCodecTest {
+    private final LZCacheCodec codec = LZCacheCodec.INSTANCE;
+
+    /** Compresses into a buffer large enough for any input. */
+    private byte[] compress(byte[] src) {
+        final byte[] dst = new byte[src.length + src.length / 255 + 16];
+        final int n = codec.compress(src, src.length, dst, dst.length);
+        assertThat(n).isGreaterThan(0);
+        return Arrays.copyOf(dst, n);
+    }
+
+    private byte[] roundTrip(byte[] src) {
+        final byte[] packed = compress(src);
+        final byte[] out = new byte[src.length];
+        codec.decompress(packed, packed.length, out, out.length);
+        assertThat(out).isEqualTo(src);
+        return packed;
+    }
+
+    @Test
+    void testRoundTrip() {
+        final Random random = new Random(42);
+        final byte[] noise = new byte[70000];
+        random.nextBytes(noise);
+        final byte[] pattern = new byte[70000];
+        for (int i = 0; i < pattern.length; i++) {
+            pattern[i] = (byte) (i % 7 == 0 ? random.nextInt() : i / 100);
+        }
+
+        roundTrip(new byte[0]);
+        roundTrip(new byte[] {1, 2, 3});
+        roundTrip(noise);
+        roundTrip(pattern);
+
+        // A run much longer than one length byte, matched at offset 1.
+        assertThat(roundTrip(new byte[100000]).length).isLessThan(1000);
+    }
+
+    @Test
+    void testIncompressibleDataDoesNotFit() {
+        final byte[] noise = new byte[4096];
+        new Random(1).nextBytes(noise);
+        final byte[] dst = new byte[noise.length];
+        assertThat(codec.compress(noise, noise.length, dst, noise.length - noise.length / 16))
+                .isEqualTo(-1);
+    }
+
+    @Test
+    void testTruncatedDataIsRejected() {
+        final byte[] src = new byte[10000];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = (byte) (i / 10);
+        }
+        final byte[] packed = compress(src);
+        final byte[] out = new byte[src.length];
+        for (int n = 0; n < packed.length; n++) {
+            final int srcLen = n;
+            // The bytes past srcLen are still in the array and must be ignored.
+            assertThatThrownBy(() -> codec.decompress(packed, srcLen, out, out.length))
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void testCorruptDataIsRejected() {
+        final byte[] out = new byte[64];
+        // A match before the start of the output.
+        final byte[] badOffset = {0x10, 1, 0x10, 0x00, 0x00};
+        assertThatThrownBy(() -> codec.decompress(badOffset, badOffset.length, out, out.length))
+                .isInstanceOf(IllegalArgumentException.class);
+        // More literals than the output holds.
+        final byte[] tooLong = new byte[80];
+        tooLong[0] = (byte) 0xF0;
+        tooLong[1] = 60;
+        assertThatThrownBy(() -> codec.decompress(tooLong, tooLong.length, out, out.length))
+                .isInstanceOf(IllegalArgumentException.class);
+        // Fewer bytes than expected.
+        final byte[] tooShort = compress(new byte[32]);
+        assertThatThrownBy(() -> codec.decompress(tooShort, tooShort.length, out, out.length))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
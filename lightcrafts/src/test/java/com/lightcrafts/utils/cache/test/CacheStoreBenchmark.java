@@ -0,0 +1,120 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.cache.test;
+
+import com.lightcrafts.utils.cache.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares the {@link CacheStore} implementations the tile cache can use, by
+ * filling a {@link Cache} with tile-sized objects and reading them all back
+ * from 1, 2, 4 and 8 threads, as when workers page tiles in after a zoom.
+ * <p>
+ * Usage: CacheStoreBenchmark [tiles [tileKB [directory]]]
+ * <p>
+ * Use a file larger than RAM, or drop the OS caches between runs, to
+ * measure the disk rather than the page cache.
+ */
+public class CacheStoreBenchmark {
+
+    interface StoreFactory {
+        CacheStore create(File file) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int tiles = args.length > 0 ? Integer.parseInt(args[0]) : 2048;
+        final int tileSize = (args.length > 1 ? Integer.parseInt(args[1]) : 384) * 1024;
+        final File dir = args.length > 2
+            ? new File(args[2])
+            : new File(System.getProperty("java.io.tmpdir"));
+
+        System.out.printf(
+            "%d tiles of %d KB in %s%n", tiles, tileSize / 1024, dir
+        );
+        for (int threads = 1; threads <= 8; threads *= 2) {
+            run("DirectFileCacheStore", DirectFileCacheStore::new,
+                dir, tiles, tileSize, threads);
+            run("MappedFileCacheStore", MappedFileCacheStore::new,
+                dir, tiles, tileSize, threads);
+        }
+    }
+
+    private static void run(String name, StoreFactory factory, File dir,
+                            int tiles, int tileSize, int threads)
+        throws Exception
+    {
+        final File file = File.createTempFile("CacheStoreBenchmark", ".cce", dir);
+        final Cache cache = new Cache(
+            new ByteArrayBroker(),
+            new WriteThroughCacheObjectMap(),
+            factory.create(file),
+            new BestFitFreeBlockManager()
+        );
+        try {
+            final byte[] tile = new byte[tileSize];
+            new Random(0).nextBytes(tile);
+            for (int i = 0; i < tiles; i++) {
+                cache.put(i, tile);
+            }
+
+            final ExecutorService pool = Executors.newFixedThreadPool(threads);
+            final List<Callable<Void>> readers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int first = t;
+                readers.add(() -> {
+                    final byte[] buf = new byte[tileSize];
+                    for (int i = first; i < tiles; i += threads) {
+                        cache.getOnce(i, buf);
+                    }
+                    return null;
+                });
+            }
+            final long start = System.nanoTime();
+            for (Future<Void> f : pool.invokeAll(readers)) {
+                f.get();
+            }
+            final long nanos = System.nanoTime() - start;
+            pool.shutdown();
+
+            System.out.printf(
+                "%-22s %d thread(s): %8.1f MB/s, %6.2f ms/tile%n",
+                name, threads,
+                (double) tiles * tileSize * 1e9 / nanos / (1024 * 1024),
+                nanos / 1e6 / tiles * threads
+            );
+        }
+        finally {
+            cache.dispose();
+            file.delete();
+        }
+    }
+
+    /**
+     * Stores <code>byte[]</code> tiles as is.
+     */
+    private static class ByteArrayBroker implements CacheObjectBroker {
+
+        public int getEncodedSizeOf(Object obj) {
+            return ((byte[]) obj).length;
+        }
+
+        public Object decodeFromByteBuffer(ByteBuffer buf, Object obj) {
+            buf.get((byte[]) obj);
+            return obj;
+        }
+
+        public void encodeToByteBuffer(ByteBuffer buf, Object obj) {
+            buf.put((byte[]) obj);
+        }
+    }
+}
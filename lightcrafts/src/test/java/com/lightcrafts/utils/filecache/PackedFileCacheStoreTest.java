@@ -0,0 +1,131 @@
+/* Copyright (C) 2026-     Masahiro Kitagawa */
+
+package com.lightcrafts.utils.filecache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PackedFileCacheStoreTest {
+    @TempDir
+    File dir;
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testPutGetRemove() throws IOException {
+        final var store = new PackedFileCacheStore(dir);
+        try {
+            assertThat(store.isAvailable()).isTrue();
+            assertThat(store.get("a")).isNull();
+
+            assertThat(store.put("a", bytes("alpha"), 5)).isEqualTo(5);
+            assertThat(store.put("b", bytes("beta-gamma"), 4)).isEqualTo(4);
+            assertThat(store.contains("a")).isTrue();
+            assertThat(store.get("a")).isEqualTo(bytes("alpha"));
+            assertThat(store.get("b")).isEqualTo(bytes("beta"));
+            assertThat(store.getLiveBytes()).isEqualTo(9);
+
+            // Replacing an entry reports the change of the total size.
+            assertThat(store.put("a", bytes("al"), 2)).isEqualTo(-3);
+            assertThat(store.get("a")).isEqualTo(bytes("al"));
+
+            assertThat(store.remove("b")).isEqualTo(4);
+            assertThat(store.remove("b")).isZero();
+            assertThat(store.contains("b")).isFalse();
+            assertThat(store.get("b")).isNull();
+            assertThat(store.getLiveBytes()).isEqualTo(2);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void testReopen() throws IOException {
+        var store = new PackedFileCacheStore(dir);
+        store.put("kept", bytes("kept"), 4);
+        store.put("replaced", bytes("old"), 3);
+        store.put("replaced", bytes("new!"), 4);
+        store.put("removed", bytes("gone"), 4);
+        store.remove("removed");
+        final long modTime = store.getModificationTime("kept");
+        store.close();
+
+        store = new PackedFileCacheStore(dir);
+        try {
+            assertThat(store.get("kept")).isEqualTo(bytes("kept"));
+            assertThat(store.get("replaced")).isEqualTo(bytes("new!"));
+            assertThat(store.contains("removed")).isFalse();
+            assertThat(store.getModificationTime("kept")).isEqualTo(modTime);
+            assertThat(store.getLiveBytes()).isEqualTo(8);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void testIndexGrowsAcrossReopen() throws IOException {
+        // Enough records to remap the index several times.
+        final int count = 10000;
+        var store = new PackedFileCacheStore(dir);
+        for (int i = 0; i < count; i++) {
+            store.put("key-" + i, bytes("value-" + i), ("value-" + i).length());
+        }
+        store.close();
+
+        store = new PackedFileCacheStore(dir);
+        try {
+            for (int i = 0; i < count; i++) {
+                assertThat(store.get("key-" + i)).isEqualTo(bytes("value-" + i));
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void testEvictOldest() throws IOException {
+        final var store = new PackedFileCacheStore(dir);
+        try {
+            store.put("a", bytes("a"), 1);
+            store.put("b", bytes("bb"), 2);
+            store.get("a");
+            assertThat(store.evictOldest()).isEqualTo(2);
+            assertThat(store.contains("b")).isFalse();
+            assertThat(store.evictOldest()).isEqualTo(1);
+            assertThat(store.evictOldest()).isZero();
+            assertThat(store.getOldestAccessTime()).isEqualTo(Long.MAX_VALUE);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    void testLockedStoreIsUnavailable() throws IOException {
+        final var owner = new PackedFileCacheStore(dir);
+        try {
+            owner.put("a", bytes("a"), 1);
+            final var other = new PackedFileCacheStore(dir);
+            try {
+                assertThat(other.isAvailable()).isFalse();
+                assertThat(other.contains("a")).isFalse();
+                assertThat(other.get("a")).isNull();
+                assertThatThrownBy(() -> other.put("b", bytes("b"), 1))
+                        .isInstanceOf(IOException.class);
+            } finally {
+                other.close();
+            }
+            assertThat(owner.get("a")).isEqualTo(bytes("a"));
+        } finally {
+            owner.close();
+        }
+    }
+}